@@ -0,0 +1,43 @@
+package com.jacobsonmt.ccrs.execution;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Helpers for output that a command has written to files.
+ */
+@Log4j2
+public final class ProcessOutput {
+
+    private ProcessOutput() {
+    }
+
+    /**
+     * @return at most the last maxBytes of the file, empty if it does not exist
+     */
+    public static String tail( Path file, int maxBytes ) {
+        if ( !Files.exists( file ) ) {
+            return "";
+        }
+
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) ) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate( (int) Math.min( size, maxBytes ) );
+            long position = size - buffer.capacity();
+            while ( buffer.hasRemaining() && channel.read( buffer, position + buffer.position() ) >= 0 ) {
+                // Keep reading until full
+            }
+            return new String( buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8 );
+        } catch ( IOException e ) {
+            log.warn( "Unable to read output: " + file, e );
+            return "";
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.jacobsonmt.ccrs.execution;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A spawned process together with the processes it has started.
+ *
+ * The tool is a script that runs other programs, destroying only the process we started would leave those running.
+ * Processes are started in a session and process group of their own with setsid so that the whole group can be
+ * signalled with kill, whatever has become of its members' parents. Where setsid is not available only the process
+ * itself is destroyed.
+ */
+@Log4j2
+public class ProcessTree {
+
+    private static final Path PROC = Paths.get( "/proc" );
+
+    private static final String SETSID = findSetsid();
+
+    private final Process process;
+
+    private final long pid;
+
+    // Process group of the process and everything it starts, -1 if it does not have one of its own
+    private final long pgid;
+
+    // Of the group leader, to tell it from an unrelated process given its pid once the group is gone
+    private final long startTime;
+
+    private ProcessTree( Process process, boolean grouped ) {
+        this.process = process;
+        this.pid = pid( process );
+        this.pgid = grouped ? pid : -1;
+        this.startTime = startTime( pid );
+    }
+
+    /**
+     * Start a process in a process group of its own.
+     */
+    public static ProcessTree start( ProcessBuilder builder ) throws IOException {
+        if ( SETSID == null ) {
+            return new ProcessTree( builder.start(), false );
+        }
+        List<String> command = new ArrayList<>( builder.command() );
+        List<String> original = builder.command();
+        // setsid only forks if it is already a group leader, which a child of the JVM is not, so the pid is the pgid
+        command.add( 0, SETSID );
+        builder.command( command );
+        try {
+            return new ProcessTree( builder.start(), true );
+        } finally {
+            builder.command( original );
+        }
+    }
+
+    public Process getProcess() {
+        return process;
+    }
+
+    /**
+     * Ask the process and its descendants to exit.
+     */
+    public synchronized void terminate() {
+        signal( "TERM" );
+        process.destroy();
+    }
+
+    /**
+     * Forcibly stop the process and its descendants.
+     */
+    public synchronized void kill() {
+        signal( "KILL" );
+        process.destroyForcibly();
+    }
+
+    /**
+     * @return sum of the peak resident set sizes (VmHWM) of the live processes in the group in kilobytes, of the
+     * process alone if it has no group of its own, 0 on systems without /proc
+     */
+    public synchronized long peakResidentKilobytes() {
+        if ( pgid < 0 || !Files.isDirectory( PROC ) ) {
+            return residentPeakKilobytes( pid );
+        }
+
+        long total = 0;
+        try ( DirectoryStream<Path> entries = Files.newDirectoryStream( PROC, "[0-9]*" ) ) {
+            for ( Path entry : entries ) {
+                // state ppid pgrp ..., zombies have released their memory
+                String[] fields = statFields( entry );
+                if ( fields != null && !"Z".equals( fields[0] ) && Long.parseLong( fields[2] ) == pgid ) {
+                    total += residentPeakKilobytes( Long.parseLong( entry.getFileName().toString() ) );
+                }
+            }
+        } catch ( IOException | RuntimeException e ) {
+            log.warn( "Unable to list processes", e );
+        }
+        return total;
+    }
+
+    /**
+     * Signal every process in the group, if it still exists.
+     */
+    private void signal( String signal ) {
+        if ( pgid < 0 || !groupMayExist() ) {
+            return;
+        }
+
+        try {
+            // The group may have emptied since, that is fine
+            new ProcessBuilder( "kill", "-" + signal, "--", "-" + pgid ).redirectErrorStream( true ).start().waitFor();
+        } catch ( IOException e ) {
+            log.warn( "Unable to signal process group " + pgid, e );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A pid is not reused while a group of that id has members, so once the leader has exited the id can only name
+     * another group if some process now has the leader's pid, which can be told by its start time. A leader that
+     * exited before its start time was read can't be told from such a process.
+     */
+    private boolean groupMayExist() {
+        if ( process.isAlive() ) {
+            return true;
+        }
+        if ( !Files.isDirectory( PROC ) ) {
+            // Nothing to tell a reused pid by
+            return false;
+        }
+        long current = startTime( pgid );
+        return current < 0 || ( startTime >= 0 && current == startTime );
+    }
+
+    /**
+     * @return start time in clock ticks after boot from /proc/[pid]/stat or -1 if the process has gone
+     */
+    static long startTime( long pid ) {
+        if ( pid < 0 ) {
+            return -1;
+        }
+        String[] fields = statFields( PROC.resolve( Long.toString( pid ) ) );
+        return fields == null ? -1 : Long.parseLong( fields[19] );
+    }
+
+    /**
+     * @return fields of /proc/[pid]/stat after the command name, starting with state, or null if the process has gone
+     */
+    private static String[] statFields( Path procEntry ) {
+        try {
+            String stat = new String( Files.readAllBytes( procEntry.resolve( "stat" ) ), StandardCharsets.UTF_8 );
+            // Command name is in parentheses and may contain spaces, fields after it are: state ppid pgrp ...
+            return stat.substring( stat.lastIndexOf( ')' ) + 2 ).split( " " );
+        } catch ( IOException | RuntimeException e ) {
+            return null;
+        }
+    }
+
+    /**
+     * @return VmHWM from /proc/[pid]/status or 0 if the process has gone
+     */
+    static long residentPeakKilobytes( long pid ) {
+        if ( pid < 0 ) {
+            return 0;
+        }
+        try {
+            for ( String line : Files.readAllLines( PROC.resolve( Long.toString( pid ) ).resolve( "status" ),
+                    StandardCharsets.UTF_8 ) ) {
+                if ( line.startsWith( "VmHWM:" ) ) {
+                    // VmHWM:     1234 kB
+                    return Long.parseLong( line.substring( 6 ).replace( "kB", "" ).trim() );
+                }
+            }
+        } catch ( IOException | RuntimeException e ) {
+            // Gone
+        }
+        return 0;
+    }
+
+    /**
+     * @return pid of the process or -1 if it cannot be determined
+     */
+    static long pid( Process process ) {
+        try {
+            // Java 9+
+            Method pid = Process.class.getMethod( "pid" );
+            return (Long) pid.invoke( process );
+        } catch ( ReflectiveOperationException e ) {
+            // Java 8 keeps it in a private field of UNIXProcess
+        }
+        try {
+            Field pid = process.getClass().getDeclaredField( "pid" );
+            pid.setAccessible( true );
+            return pid.getLong( process );
+        } catch ( ReflectiveOperationException | RuntimeException e ) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return path of the setsid command or null if there is none
+     */
+    private static String findSetsid() {
+        for ( String candidate : new String[]{"/usr/bin/setsid", "/bin/setsid"} ) {
+            if ( Files.isExecutable( Paths.get( candidate ) ) ) {
+                return candidate;
+            }
+        }
+        log.warn( "setsid not found, only the processes started for jobs will be stopped, not their descendants" );
+        return null;
+    }
+}
@@ -0,0 +1,238 @@
+package com.jacobsonmt.ccrs.execution;
+
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived tool processes that are fed one job at a time, so that the tool's start-up cost is paid once per worker
+ * instead of once per job.
+ *
+ * Workers speak a line based protocol over stdin/stdout, fields are separated by tabs:
+ * <pre>
+ *   worker -> READY                              once started and initialized
+ *   PING                        -> PONG          health check
+ *   RUN dir input output        -> DONE exitCode job in directory dir, output written to dir/output
+ * </pre>
+ * Workers should write the tool's own output to stdout.log and stderr.log in the job directory. A worker is replaced
+ * after a configured number of jobs, when it fails a health check or when it dies.
+ */
+@Log4j2
+@Component
+public class WorkerPool {
+
+    private final ApplicationSettings applicationSettings;
+
+    private final ConcurrentLinkedDeque<Worker> idle = new ConcurrentLinkedDeque<>();
+
+    private final AtomicInteger workerIds = new AtomicInteger();
+
+    private ScheduledExecutorService healthChecker;
+
+    public WorkerPool( ApplicationSettings applicationSettings ) {
+        this.applicationSettings = applicationSettings;
+    }
+
+    public boolean isEnabled() {
+        return applicationSettings.isWorkerPoolEnabled();
+    }
+
+    @PostConstruct
+    private void initialize() {
+        if ( !isEnabled() ) {
+            return;
+        }
+
+        healthChecker = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread t = new Thread( r, "worker-health" );
+            t.setDaemon( true );
+            return t;
+        } );
+        // Also starts the warm workers
+        healthChecker.scheduleWithFixedDelay( this::checkHealth, 0, applicationSettings.getWorkerHealthCheckSeconds(),
+                TimeUnit.SECONDS );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if ( healthChecker != null ) {
+            healthChecker.shutdownNow();
+        }
+        Worker worker;
+        while ( ( worker = idle.poll() ) != null ) {
+            worker.stop();
+        }
+    }
+
+    /**
+     * @return an idle, started worker; the caller must {@link #release(Worker, boolean)} it when done
+     */
+    public Worker acquire() throws IOException, InterruptedException {
+        Worker worker;
+        while ( ( worker = idle.poll() ) != null ) {
+            if ( worker.isAlive() ) {
+                return worker;
+            }
+            log.warn( "Worker " + worker.id + " died while idle" );
+            worker.stop();
+        }
+        return startWorker();
+    }
+
+    /**
+     * @param healthy false if the worker failed or was interrupted part way through a job, it is then replaced
+     */
+    public void release( Worker worker, boolean healthy ) {
+        if ( !healthy || !worker.isAlive() ) {
+            log.info( "Replacing worker " + worker.id );
+            worker.stop();
+        } else if ( worker.jobsRun >= applicationSettings.getWorkerMaxJobs() ) {
+            log.info( "Recycling worker " + worker.id + " after " + worker.jobsRun + " jobs" );
+            worker.stop();
+        } else {
+            idle.push( worker );
+        }
+    }
+
+    /**
+     * Ping idle workers, replacing those that do not answer, and start workers until the pool is warm.
+     */
+    private void checkHealth() {
+        try {
+            // One at a time so the others stay available to jobs, acquire takes from the front
+            for ( int i = idle.size(); i > 0; i-- ) {
+                Worker worker = idle.pollLast();
+                if ( worker == null ) {
+                    break;
+                }
+                if ( worker.ping( applicationSettings.getWorkerStartupTimeoutSeconds() ) ) {
+                    idle.push( worker );
+                } else {
+                    log.warn( "Worker " + worker.id + " failed health check" );
+                    worker.stop();
+                }
+            }
+
+            while ( idle.size() < applicationSettings.getWorkerPoolSize() ) {
+                idle.push( startWorker() );
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } catch ( Exception e ) {
+            log.error( "Worker health check failed", e );
+        }
+    }
+
+    private Worker startWorker() throws IOException, InterruptedException {
+        Path directory = Paths.get( applicationSettings.getJobsDirectory() );
+        directory.toFile().mkdirs();
+        ProcessTree tree = ProcessTree.start( new ProcessBuilder( applicationSettings.getWorkerCommand() )
+                .directory( directory.toFile() )
+                .redirectError( ProcessBuilder.Redirect.INHERIT ) );
+        Worker worker = new Worker( workerIds.incrementAndGet(), tree );
+        String line = worker.readLine( applicationSettings.getWorkerStartupTimeoutSeconds() );
+        if ( !"READY".equals( line ) ) {
+            worker.stop();
+            throw new IOException( "Worker did not start, said: " + line );
+        }
+        log.info( "Started worker " + worker.id );
+        return worker;
+    }
+
+    /**
+     * A started tool process, only ever used by one thread at a time.
+     */
+    public static final class Worker {
+
+        private final int id;
+        private final ProcessTree processTree;
+        private final BufferedReader out;
+        private final Writer in;
+        private int jobsRun = 0;
+
+        private Worker( int id, ProcessTree processTree ) {
+            this.id = id;
+            this.processTree = processTree;
+            this.out = new BufferedReader(
+                    new InputStreamReader( processTree.getProcess().getInputStream(), StandardCharsets.UTF_8 ) );
+            this.in = new OutputStreamWriter( processTree.getProcess().getOutputStream(), StandardCharsets.UTF_8 );
+        }
+
+        public ProcessTree getProcessTree() {
+            return processTree;
+        }
+
+        /**
+         * Run a job on this worker, waiting for it to finish.
+         *
+         * @return exit code reported by the worker
+         * @throws IOException if the worker died or broke protocol
+         */
+        public int run( Path directory, String inputFilename, String outputFilename ) throws IOException {
+            jobsRun++;
+            send( "RUN\t" + directory.toAbsolutePath() + "\t" + inputFilename + "\t" + outputFilename );
+            String line = out.readLine();
+            if ( line == null || !line.startsWith( "DONE" ) ) {
+                throw new IOException( "Worker " + id + " broke protocol, said: " + line );
+            }
+            try {
+                return Integer.parseInt( line.substring( 4 ).trim() );
+            } catch ( NumberFormatException e ) {
+                throw new IOException( "Worker " + id + " sent bad exit code: " + line );
+            }
+        }
+
+        private boolean ping( long timeoutSeconds ) throws InterruptedException {
+            try {
+                send( "PING" );
+                return "PONG".equals( readLine( timeoutSeconds ) );
+            } catch ( IOException e ) {
+                return false;
+            }
+        }
+
+        private boolean isAlive() {
+            return processTree.getProcess().isAlive();
+        }
+
+        private void stop() {
+            processTree.kill();
+        }
+
+        private void send( String line ) throws IOException {
+            in.write( line );
+            in.write( '\n' );
+            in.flush();
+        }
+
+        /**
+         * @return next line or null if the worker did not answer in time
+         */
+        private String readLine( long timeoutSeconds ) throws IOException, InterruptedException {
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( timeoutSeconds );
+            while ( !out.ready() ) {
+                if ( System.currentTimeMillis() > deadline || !isAlive() ) {
+                    return out.ready() ? out.readLine() : null;
+                }
+                Thread.sleep( 10 );
+            }
+            return out.readLine();
+        }
+    }
+}
@@ -1,19 +1,27 @@
 package com.jacobsonmt.ccrs.model;
 
 import com.jacobsonmt.ccrs.exceptions.ResultFileException;
+import com.jacobsonmt.ccrs.execution.ProcessOutput;
+import com.jacobsonmt.ccrs.execution.ProcessTree;
+import com.jacobsonmt.ccrs.execution.WorkerPool;
+import com.jacobsonmt.ccrs.scheduling.QueuePositionTracker;
 import com.jacobsonmt.ccrs.services.JobManager;
 import lombok.*;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.util.StopWatch;
 
 import java.io.*;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Log4j2
 @Getter
@@ -25,6 +33,17 @@ public class CCRSJob implements Callable<CCRSJobResult>, Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    public static final String STDOUT_FILENAME = "stdout.log";
+    public static final String STDERR_FILENAME = "stderr.log";
+
+    // Amount of each output stream kept on the job
+    static final int OUTPUT_TAIL_BYTES = 4096;
+
+    // Interval at which the memory used by a running command is sampled, doubling each time up to the maximum. The
+    // peak of a process is kept by the kernel, only processes that exit between samples are missed.
+    private static final long MEMORY_SAMPLE_MILLIS = 250;
+    private static final long MAX_MEMORY_SAMPLE_MILLIS = 8000;
+
     // Path to resources
     private transient String command;
     private transient Path jobsDirectory;
@@ -55,10 +74,40 @@ public class CCRSJob implements Callable<CCRSJobResult>, Serializable {
     private transient Integer position;
     private String status;
 
+    // Place in the process queue while waiting for a worker, position and status are derived from it when read
+    private transient QueuePositionTracker.Ticket ticket;
+
+    // Queued or running job with identical input that this job will complete with instead of running itself
+    private transient CCRSJob leader;
+
+    // Batch or command started for this job while it runs, guarded by this
+    @Setter(AccessLevel.NONE) private transient CCRSJobBatch batch;
+    @Setter(AccessLevel.NONE) private transient boolean batched;
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) private transient ProcessTree processTree;
+    @Setter(AccessLevel.NONE) private transient boolean cancelled;
+    @Setter(AccessLevel.NONE) private transient boolean timedOut;
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) private transient boolean finished;
+
     // Results
     private transient CCRSJobResult result;
     private long executionTime;
 
+    // Taxa of the result, saved with the job so that listings need not load the result
+    @Getter(AccessLevel.NONE) private Taxa taxa;
+
+    // Load the input and result of a job read back from disk on demand instead of holding them
+    @Getter(AccessLevel.NONE) private transient Supplier<String> inputFASTALoader;
+    @Getter(AccessLevel.NONE) private transient Supplier<CCRSJobResult> resultLoader;
+
+    // Outcome of the command
+    private Integer exitCode;
+    private long commandMillis;
+    private String stdoutTail;
+    private String stderrTail;
+    private long peakMemoryKilobytes;
+    @Builder.Default private transient boolean cachedResult = false;
+    private transient String contentHash;
+
     // Saving Job information / results for later
     @Builder.Default private transient boolean saved = false;
     private transient Long saveExpiredDate;
@@ -66,60 +115,75 @@ public class CCRSJob implements Callable<CCRSJobResult>, Serializable {
     // Back-reference to owning JobManager
     private transient JobManager jobManager;
 
-    // Used to cancel job
-    private transient Future<CCRSJobResult> future;
+    // Warm workers to run the job on instead of starting the command, null to start the command
+    private transient WorkerPool workerPool;
 
-    @Override
-    public CCRSJobResult call() throws Exception {
-
-        try {
+    public Integer getPosition() {
+        CCRSJob l = leader;
+        if ( l != null ) {
+            return l.getPosition();
+        }
+        QueuePositionTracker.Ticket t = ticket;
+        if ( t != null ) {
+            Integer queuePosition = t.getPosition();
+            if ( queuePosition != null ) {
+                return queuePosition;
+            }
+        }
+        return position;
+    }
 
-            log.info( "Starting job ({}) with label ({}) for client: ({})", jobId, label, clientId );
+    public String getStatus() {
+        CCRSJob l = leader;
+        if ( l != null ) {
+            return l.getStatus();
+        }
+        QueuePositionTracker.Ticket t = ticket;
+        if ( t != null ) {
+            Integer queuePosition = t.getPosition();
+            if ( queuePosition != null ) {
+                return "Position: " + queuePosition;
+            }
+        }
+        return status;
+    }
 
-            this.running = true;
-            this.status = "Processing";
-            this.position = 0;
-            this.startedDate =  new Date();
+    @Override
+    public CCRSJobResult call() throws Exception {
+        return process( true );
+    }
 
-            jobManager.onJobStart( this );
+    /**
+     * Run a job that was started as part of a batch on its own, because the batch did not produce its result.
+     */
+    public CCRSJobResult runAfterBatch() {
+        return process( false );
+    }
 
-            // Create job directory
-            Files.createDirectories( jobsDirectory );
+    private CCRSJobResult process( boolean start ) {
 
-            // Write content to input
+        try {
 
-            Path fastaFile = jobsDirectory.resolve( inputFASTAFilename );
-            try ( BufferedWriter writer = Files.newBufferedWriter( fastaFile, StandardCharsets.UTF_8) ) {
-                writer.write( inputFASTAContent );
+            if ( start ) {
+                start( "Processing" );
             }
 
+            // Create job directory and write content to input
+            writeInputFASTA();
+
             // Execute script
             StopWatch sw = new StopWatch();
             sw.start();
             String[] commands = {command, inputFASTAFilename};
-            String output = executeCommand( commands, jobsDirectory );
-            log.debug( output );
+            executeCommand( commands );
             sw.stop();
             this.executionTime = sw.getTotalTimeMillis() / 1000;
-            this.finishedDate =  new Date();
 
             // Get output
-            this.result = CCRSJobResult.parseResultCSVStream( Files.newInputStream( jobsDirectory.resolve( outputCSVFilename ) ) );
-            if ( this.result.getTaxa().getKey().equals( Taxa.KnownKeyTypes.OX.name() ) ) {
-                this.status = "Completed in " + executionTime + "s";
-            } else if ( this.result.getTaxa().getKey().equals( Taxa.KnownKeyTypes.malformed_OX.name() ) ||
-                    this.result.getTaxa().getKey().equals( Taxa.KnownKeyTypes.missing_OX.name() )) {
-                // FIXME: Improve this
-                log.warn( "Unexpected Taxa Line Key ({}) for job ({})", this.result.getTaxa().getKey(), jobId );
-                throw new ResultFileException( "Unexpected Error - Failed To Process" );
-            } else {
-                throw new ResultFileException( this.result.getTaxa().getKey() );
-            }
-
-            log.info( "Finished job ({}) with label ({}) for client: ({})", jobId, label, clientId );
-            this.running = false;
-            this.complete = true;
+            succeed();
 
+        } catch ( InterruptedException e ) {
+            return interrupted();
         } catch ( ResultFileException e ) {
             log.error( e );
             fail( e.getMessage() );
@@ -128,70 +192,453 @@ public class CCRSJob implements Callable<CCRSJobResult>, Serializable {
             fail( "Failed after " + executionTime + "s" );
         }
 
-        jobManager.onJobComplete( this );
-        jobManager = null;
-        return this.result;
+        return end();
+    }
+
+    private void start( String status ) {
+        if ( cancelled || timedOut ) {
+            throw new CancellationException( "Stopped before start" );
+        }
+
+        log.info( "Starting job ({}) with label ({}) for client: ({})", jobId, label, clientId );
+
+        this.running = true;
+        this.status = status;
+        this.position = 0;
+        this.startedDate =  new Date();
 
+        jobManager.onJobStart( this );
     }
 
-    private void fail(String status) {
+    private void succeed() throws IOException {
         this.finishedDate =  new Date();
-        this.result = CCRSJobResult.createNullResult();
+        this.result = readResult();
+        this.status = "Completed in " + executionTime + "s";
+
+        log.info( "Finished job ({}) with label ({}) for client: ({})", jobId, label, clientId );
+        this.running = false;
         this.complete = true;
+    }
+
+    private CCRSJobResult interrupted() {
+        // Shutting down, left unfinished so that it is resubmitted on restart
+        log.warn( "Interrupted job ({}) with label ({}) for client: ({})", jobId, label, clientId );
         this.running = false;
-        this.failed = true;
-        this.status = status;
+        this.status = "Interrupted";
+        Thread.currentThread().interrupt();
+        jobManager = null;
+        return null;
+    }
+
+    private CCRSJobResult end() {
+        if ( finish() ) {
+            jobManager.onJobComplete( this );
+        } else {
+            log.info( "Cancelled job ({}) with label ({}) for client: ({})", jobId, label, clientId );
+            this.running = false;
+            this.status = "Cancelled";
+            jobManager.onJobCancelled( this );
+        }
+        jobManager = null;
+        return this.result;
+    }
+
+    /**
+     * Start this job as a member of a batch, its timeout then covers the whole batch.
+     *
+     * @return false if the job was stopped before it could start
+     */
+    boolean startInBatch( CCRSJobBatch batch ) {
+        synchronized ( this ) {
+            if ( cancelled || timedOut ) {
+                return false;
+            }
+            this.batch = batch;
+            this.batched = true;
+        }
+        start( "Processing (batch of " + batch.size() + ")" );
+        return true;
     }
 
-    private static String executeCommand( String[] command, Path path ) {
+    /**
+     * Leave the batch once its command has exited.
+     */
+    synchronized void leaveBatch() {
+        this.batch = null;
+    }
 
-        StringBuffer output = new StringBuffer();
+    /**
+     * Complete this job with its share of the output of the batch it was run in.
+     *
+     * @param output this job's lines of the batch output
+     * @return result of the job
+     */
+    CCRSJobResult completeFromBatch( String output, CCRSJobBatch batch ) {
+        this.exitCode = batch.getExitCode();
+        this.commandMillis = batch.getCommandMillis();
+        this.stdoutTail = batch.getStdoutTail();
+        this.stderrTail = batch.getStderrTail();
+        this.executionTime = commandMillis / 1000;
+        leaveBatch();
 
         try {
-            ProcessBuilder builder = new ProcessBuilder( command )
-                    .directory( path.toFile() );
-//            builder.redirectErrorStream();
+            writeInputFASTA();
+            Files.write( jobsDirectory.resolve( outputCSVFilename ), output.getBytes( StandardCharsets.UTF_8 ) );
+            succeed();
+        } catch ( ResultFileException e ) {
+            log.error( e );
+            fail( e.getMessage() );
+        } catch ( Exception e ) {
+            log.error( e );
+            fail( "Failed after " + executionTime + "s" );
+        }
 
+        return end();
+    }
 
-//            Process p = Runtime.getRuntime().exec( command, null, path.toFile() );
-            Process p = builder.start();
+    /**
+     * Complete this job with the output of an earlier run of identical input instead of running the command.
+     *
+     * @param cachedOutput copy of the earlier run's output file
+     * @throws IOException if the job directory could not be written
+     * @throws ResultFileException if the cached output is not a successful result
+     */
+    public void completeFromCachedResult( Path cachedOutput ) throws IOException {
+        Date started = new Date();
+        writeInputFASTA();
+        Files.copy( cachedOutput, jobsDirectory.resolve( outputCSVFilename ), StandardCopyOption.REPLACE_EXISTING );
+
+        this.result = readResult();
+        this.startedDate = started;
+        this.finishedDate = new Date();
+        this.executionTime = 0;
+        this.status = "Completed (cached result)";
+        this.position = null;
+        this.cachedResult = true;
+        this.complete = true;
+        log.info( "Completed job ({}) with label ({}) for client: ({}) from cached result", jobId, label, clientId );
+    }
 
-            BufferedReader reader = new BufferedReader( new InputStreamReader( p.getInputStream() ) );
+    /**
+     * Complete this job with the outcome of the identical job it was attached to.
+     *
+     * @param leader job that was executed on behalf of this one
+     */
+    public void completeWith( CCRSJob leader ) {
+        this.leader = null;
+        this.startedDate = leader.getStartedDate();
+        this.executionTime = leader.getExecutionTime();
+
+        if ( leader.isFailed() ) {
+            fail( leader.getStatus() );
+            return;
+        }
 
-            String line = "";
-            while ( ( line = reader.readLine() ) != null ) {
-                output.append( line + "\r\n" );
-                log.debug(line);
+        try {
+            writeInputFASTA();
+            Files.copy( leader.getJobsDirectory().resolve( leader.getOutputCSVFilename() ),
+                    jobsDirectory.resolve( outputCSVFilename ), StandardCopyOption.REPLACE_EXISTING );
+        } catch ( IOException e ) {
+            log.error( e );
+            fail( "Unexpected Error - Failed To Process" );
+            return;
+        }
+
+        this.result = leader.getResult();
+        if ( result != null ) {
+            result.writeBinaryFile( CCRSJobResult.binaryFile( jobsDirectory.resolve( outputCSVFilename ) ) );
+        }
+        this.finishedDate = leader.getFinishedDate();
+        this.status = leader.getStatus();
+        this.position = null;
+        this.running = false;
+        this.complete = true;
+        log.info( "Completed job ({}) with label ({}) for client: ({}) along with job ({})", jobId, label, clientId,
+                leader.getJobId() );
+    }
+
+    private void writeInputFASTA() throws IOException {
+        Files.createDirectories( jobsDirectory );
+        Path fastaFile = jobsDirectory.resolve( inputFASTAFilename );
+        try ( BufferedWriter writer = Files.newBufferedWriter( fastaFile, StandardCharsets.UTF_8) ) {
+            writer.write( inputFASTAContent );
+        }
+    }
+
+    private CCRSJobResult readResult() throws IOException {
+        Path resultFile = jobsDirectory.resolve( outputCSVFilename );
+        CCRSJobResult result = CCRSJobResult.parseResultCSVFile( resultFile );
+        if ( result.getTaxa().getKey().equals( Taxa.KnownKeyTypes.OX.name() ) ) {
+            result.writeBinaryFile( CCRSJobResult.binaryFile( resultFile ) );
+            return result;
+        } else if ( result.getTaxa().getKey().equals( Taxa.KnownKeyTypes.malformed_OX.name() ) ||
+                result.getTaxa().getKey().equals( Taxa.KnownKeyTypes.missing_OX.name() )) {
+            // FIXME: Improve this
+            log.warn( "Unexpected Taxa Line Key ({}) for job ({})", result.getTaxa().getKey(), jobId );
+            throw new ResultFileException( "Unexpected Error - Failed To Process" );
+        } else {
+            throw new ResultFileException( result.getTaxa().getKey() );
+        }
+    }
+
+    /**
+     * @return hash of the normalized header and sequence, jobs with the same hash produce the same result
+     */
+    public String getContentHash() {
+        if ( contentHash == null && inputFASTAContent != null ) {
+            String[] lines = inputFASTAContent.trim().split( "\\r?\\n", 2 );
+            String header = lines[0].startsWith( ">" ) ? lines[0].substring( 1 ).trim() : lines[0].trim();
+            String sequence = lines.length > 1 ? lines[1].replaceAll( "\\s", "" ).toUpperCase() : "";
+            contentHash = sha256Hex( header + "\n" + sequence );
+        }
+        return contentHash;
+    }
+
+    /**
+     * Stop this job if it has been handed to a worker and has not finished yet. Its command and everything the command
+     * started are asked to exit, {@link #kill()} should follow if they do not.
+     *
+     * @return true if the job was cancelled, it will then not be reported as complete
+     */
+    public synchronized boolean cancel() {
+        if ( finished || complete ) {
+            return false;
+        }
+        cancelled = true;
+        terminateCommand();
+        return true;
+    }
+
+    /**
+     * Stop this job because it has run for too long. Unlike {@link #cancel()} the job still completes, as failed.
+     *
+     * @return true if the job was still running
+     */
+    public synchronized boolean timeOut() {
+        if ( finished || complete ) {
+            return false;
+        }
+        timedOut = true;
+        terminateCommand();
+        return true;
+    }
+
+    /**
+     * Forcibly stop the job's command and everything it started, if still running.
+     */
+    public synchronized void kill() {
+        if ( batch != null ) {
+            batch.killIfStopped();
+        } else if ( processTree != null ) {
+            processTree.kill();
+        }
+    }
+
+    private void terminateCommand() {
+        if ( batch != null ) {
+            // The command is shared, it is only stopped once every member of the batch has been
+            batch.memberStopped( this );
+        } else if ( processTree != null ) {
+            processTree.terminate();
+        }
+    }
+
+    /**
+     * @return false if the job was cancelled before it could finish
+     */
+    private synchronized boolean finish() {
+        finished = true;
+        if ( timedOut && !cancelled ) {
+            this.executionTime = startedDate == null ? 0 : ( System.currentTimeMillis() - startedDate.getTime() ) / 1000;
+            fail( "Timed out after " + executionTime + "s" );
+        }
+        return !cancelled;
+    }
+
+    public String getInputFASTAContent() {
+        String content = inputFASTAContent;
+        return content != null || inputFASTALoader == null ? content : inputFASTALoader.get();
+    }
+
+    public CCRSJobResult getResult() {
+        CCRSJobResult current = result;
+        return current != null || resultLoader == null ? current : resultLoader.get();
+    }
+
+    /**
+     * @return taxa of the result, without loading it when it was saved with the job
+     */
+    public Taxa getTaxa() {
+        CCRSJobResult current = result;
+        if ( current != null ) {
+            return current.getTaxa();
+        }
+        if ( taxa != null || resultLoader == null ) {
+            return taxa;
+        }
+        current = resultLoader.get();
+        return current == null ? null : current.getTaxa();
+    }
+
+    private void writeObject( ObjectOutputStream out ) throws IOException {
+        if ( result != null ) {
+            taxa = result.getTaxa();
+        }
+        out.defaultWriteObject();
+    }
+
+    /**
+     * @return approximate bytes of heap held by the job, counting its input and result only once they are loaded
+     */
+    public long estimateRetainedBytes() {
+        CCRSJobResult current = result;
+        return 512 + CCRSJobResult.stringBytes( inputFASTAContent ) + CCRSJobResult.stringBytes( stdoutTail ) +
+                CCRSJobResult.stringBytes( stderrTail ) + CCRSJobResult.stringBytes( status ) +
+                CCRSJobResult.stringBytes( label ) + ( current == null ? 0 : current.estimateRetainedBytes() );
+    }
+
+    /**
+     * @return number of residues in the input sequence
+     */
+    public int getSequenceLength() {
+        if ( inputFASTAContent == null ) {
+            return 0;
+        }
+        int start = inputFASTAContent.startsWith( ">" ) ? inputFASTAContent.indexOf( '\n' ) : 0;
+        if ( start < 0 ) {
+            return 0;
+        }
+        int length = 0;
+        for ( int i = start; i < inputFASTAContent.length(); i++ ) {
+            if ( !Character.isWhitespace( inputFASTAContent.charAt( i ) ) ) {
+                length++;
             }
+        }
+        return length;
+    }
 
-            reader = new BufferedReader( new InputStreamReader( p.getErrorStream() ) );
+    private void fail(String status) {
+        this.finishedDate =  new Date();
+        this.result = CCRSJobResult.createNullResult();
+        this.complete = true;
+        this.running = false;
+        this.failed = true;
+        this.status = status;
+    }
 
-            while ( ( line = reader.readLine() ) != null ) {
-                output.append( line + "\r\n" );
-                log.debug(line);
+    private void executeCommand( String[] command ) throws IOException, InterruptedException {
+
+        if ( workerPool != null ) {
+            executeOnWorker();
+            return;
+        }
+
+        // Written straight to files so that a chatty command can never block on a full pipe and no thread is needed
+        // to drain it
+        ProcessBuilder builder = new ProcessBuilder( command )
+                .directory( jobsDirectory.toFile() )
+                .redirectOutput( jobsDirectory.resolve( STDOUT_FILENAME ).toFile() )
+                .redirectError( jobsDirectory.resolve( STDERR_FILENAME ).toFile() );
+
+        ProcessTree tree;
+        long start = System.currentTimeMillis();
+        synchronized ( this ) {
+            if ( cancelled || timedOut ) {
+                throw new CancellationException( "Stopped before start" );
             }
+            tree = ProcessTree.start( builder );
+            processTree = tree;
+        }
 
+        try {
+            // Sampled while waiting, the processes are gone once it exits
+            long sampleMillis = MEMORY_SAMPLE_MILLIS;
+            while ( !tree.getProcess().waitFor( sampleMillis, TimeUnit.MILLISECONDS ) ) {
+                this.peakMemoryKilobytes = Math.max( peakMemoryKilobytes, tree.peakResidentKilobytes() );
+                sampleMillis = Math.min( sampleMillis * 2, MAX_MEMORY_SAMPLE_MILLIS );
+            }
+            this.exitCode = tree.getProcess().exitValue();
+            if ( Thread.interrupted() ) {
+                throw new InterruptedException();
+            }
+        } catch ( InterruptedException e ) {
+            tree.kill();
+            throw e;
+        } finally {
+            synchronized ( this ) {
+                processTree = null;
+            }
+            this.commandMillis = System.currentTimeMillis() - start;
+            this.stdoutTail = ProcessOutput.tail( jobsDirectory.resolve( STDOUT_FILENAME ), OUTPUT_TAIL_BYTES );
+            this.stderrTail = ProcessOutput.tail( jobsDirectory.resolve( STDERR_FILENAME ), OUTPUT_TAIL_BYTES );
+        }
 
-            p.waitFor();
-//            reader.close();
+        if ( exitCode != 0 ) {
+            log.warn( "Command for job ({}) exited with code {} after {}ms: {}", jobId, exitCode, commandMillis, stderrTail );
+        } else {
+            log.debug( "Command for job ({}) finished in {}ms: {}", jobId, commandMillis, stdoutTail );
+        }
+    }
 
-        } catch ( Exception e ) {
-            log.error(e);
+    private void executeOnWorker() throws IOException, InterruptedException {
+        WorkerPool.Worker worker = workerPool.acquire();
+        boolean healthy = false;
+        long start = System.currentTimeMillis();
+        synchronized ( this ) {
+            if ( cancelled || timedOut ) {
+                workerPool.release( worker, true );
+                throw new CancellationException( "Stopped before start" );
+            }
+            // Stopping the job stops the worker, it is then replaced
+            processTree = worker.getProcessTree();
+        }
+
+        try {
+            this.exitCode = worker.run( jobsDirectory, inputFASTAFilename, outputCSVFilename );
+            healthy = true;
+        } catch ( IOException e ) {
+            if ( Thread.interrupted() ) {
+                throw new InterruptedException();
+            }
+            throw e;
+        } finally {
+            synchronized ( this ) {
+                processTree = null;
+                workerPool.release( worker, healthy && !cancelled && !timedOut );
+            }
+            this.commandMillis = System.currentTimeMillis() - start;
+            this.stdoutTail = ProcessOutput.tail( jobsDirectory.resolve( STDOUT_FILENAME ), OUTPUT_TAIL_BYTES );
+            this.stderrTail = ProcessOutput.tail( jobsDirectory.resolve( STDERR_FILENAME ), OUTPUT_TAIL_BYTES );
         }
 
-        return output.toString();
+        if ( exitCode != 0 ) {
+            log.warn( "Worker run for job ({}) exited with code {} after {}ms: {}", jobId, exitCode, commandMillis, stderrTail );
+        }
     }
 
     public static String inputStreamToString(InputStream inputStream) throws IOException {
-        StringBuilder textBuilder = new StringBuilder();
-        try (Reader reader = new BufferedReader(new InputStreamReader
-                (inputStream, Charset.forName(StandardCharsets.UTF_8.name())))) {
-            int c = 0;
-            while ((c = reader.read()) != -1) {
-                textBuilder.append((char) c);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try ( InputStream is = inputStream ) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ( ( read = is.read( buffer ) ) != -1 ) {
+                out.write( buffer, 0, read );
+            }
+        }
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+
+    public static String sha256Hex( String content ) {
+        try {
+            byte[] digest = MessageDigest.getInstance( "SHA-256" ).digest( content.getBytes( StandardCharsets.UTF_8 ) );
+            StringBuilder hex = new StringBuilder( digest.length * 2 );
+            for ( byte b : digest ) {
+                hex.append( String.format( "%02x", b ) );
             }
+            return hex.toString();
+        } catch ( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e );
         }
-        return textBuilder.toString();
     }
 
     @Getter
@@ -223,10 +670,11 @@ public class CCRSJob implements Callable<CCRSJobResult>, Serializable {
     }
 
     public CCRSJobVO toValueObject( boolean obfuscateEmail, boolean withResults) {
-        return new CCRSJobVO( jobId, clientId, label, status, running, failed, complete, position,
+        return new CCRSJobVO( jobId, clientId, label, getStatus(), running, failed, complete, getPosition(),
                 obfuscateEmail ? obfuscateEmail(email) : email,
-                hidden, submittedDate, startedDate, finishedDate, inputFASTAContent,
-                !withResults && result != null ? CCRSJobResult.createWithOnlyTaxa( result.getTaxa() ) : result,
+                hidden, submittedDate, startedDate, finishedDate, getInputFASTAContent(),
+                withResults ? getResult() :
+                        result != null || resultLoader != null ? CCRSJobResult.createWithOnlyTaxa( getTaxa() ) : null,
                 executionTime );
     }
 
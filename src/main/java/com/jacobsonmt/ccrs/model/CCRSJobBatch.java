@@ -0,0 +1,347 @@
+package com.jacobsonmt.ccrs.model;
+
+import com.jacobsonmt.ccrs.execution.ProcessOutput;
+import com.jacobsonmt.ccrs.execution.ProcessTree;
+import com.jacobsonmt.ccrs.execution.WorkerPool;
+import com.jacobsonmt.ccrs.services.JobManager;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Short jobs run together in one invocation of the command so that its start-up cost is paid once for all of them.
+ *
+ * The inputs are concatenated into one multi-FASTA file and the combined output is split back into one block per
+ * sequence. Blocks are matched to jobs by accession, or by order when accessions do not tell them apart, and must
+ * have as many rows as the job has residues. Jobs the batch does not produce a result for are handed back to the
+ * {@link JobManager} to run on their own.
+ */
+@Log4j2
+public class CCRSJobBatch implements Runnable {
+
+    private final List<CCRSJob> jobs;
+    private final Path directory;
+    private final WorkerPool workerPool;
+    @Getter private final int residues;
+
+    // Outcome of the command
+    @Getter private Integer exitCode;
+    @Getter private long commandMillis;
+    @Getter private String stdoutTail;
+    @Getter private String stderrTail;
+
+    // Command succeeded yet produced a result for at most the first of several jobs, so it only reads one sequence
+    @Getter private boolean inputIgnored;
+
+    // Command shared by the members while it runs and the members that have been stopped, guarded by this
+    private ProcessTree processTree;
+    private final Set<CCRSJob> stopped = new HashSet<>();
+
+    /**
+     * @param jobs jobs taken from the process queue, command and file names are those of the first
+     * @param directory directory to run the command in, removed afterwards
+     * @param workerPool warm workers to run the batch on, null to start the command
+     */
+    public CCRSJobBatch( List<CCRSJob> jobs, Path directory, WorkerPool workerPool ) {
+        this.jobs = jobs;
+        this.directory = directory;
+        this.workerPool = workerPool;
+        this.residues = jobs.stream().mapToInt( CCRSJob::getSequenceLength ).sum();
+    }
+
+    public int size() {
+        return jobs.size();
+    }
+
+    @Override
+    public void run() {
+        List<CCRSJob> members = new ArrayList<>();
+        for ( CCRSJob job : jobs ) {
+            if ( job.startInBatch( this ) ) {
+                members.add( job );
+            } else {
+                synchronized ( this ) {
+                    stopped.add( job );
+                }
+                // Stopped while waiting, ends as such
+                job.runAfterBatch();
+            }
+        }
+
+        Map<CCRSJob, String> outputs = new HashMap<>();
+        try {
+            if ( !members.isEmpty() ) {
+                outputs = execute( members );
+            }
+        } catch ( InterruptedException e ) {
+            log.warn( "Interrupted batch of {} jobs", members.size() );
+            members.forEach( CCRSJob::leaveBatch );
+            Thread.currentThread().interrupt();
+            return;
+        } catch ( Exception e ) {
+            log.warn( "Batch of " + members.size() + " jobs failed, running them on their own", e );
+        } finally {
+            try {
+                FileSystemUtils.deleteRecursively( directory );
+            } catch ( IOException e ) {
+                log.warn( "Failed to delete batch directory " + directory, e );
+            }
+        }
+
+        for ( CCRSJob job : members ) {
+            String output = outputs.get( job );
+            if ( output != null ) {
+                job.completeFromBatch( output, this );
+            } else {
+                job.leaveBatch();
+                if ( !Thread.currentThread().isInterrupted() ) {
+                    // Waits for its own share of the budget instead of running after the rest on this thread
+                    job.getJobManager().runAlone( job );
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by a member that has been cancelled or has timed out, the command is asked to exit once every member
+     * has been stopped.
+     */
+    synchronized void memberStopped( CCRSJob job ) {
+        stopped.add( job );
+        if ( processTree != null && stopped.size() == jobs.size() ) {
+            processTree.terminate();
+        }
+    }
+
+    /**
+     * Forcibly stop the command if every member has been stopped.
+     */
+    synchronized void killIfStopped() {
+        if ( processTree != null && stopped.size() == jobs.size() ) {
+            processTree.kill();
+        }
+    }
+
+    /**
+     * Run the command on the combined input.
+     *
+     * @return output of each member the batch produced a result for
+     */
+    private Map<CCRSJob, String> execute( List<CCRSJob> members ) throws IOException, InterruptedException {
+        CCRSJob first = members.get( 0 );
+        String inputFilename = first.getInputFASTAFilename();
+        String outputFilename = first.getOutputCSVFilename();
+
+        Files.createDirectories( directory );
+        try ( BufferedWriter writer = Files.newBufferedWriter( directory.resolve( inputFilename ), StandardCharsets.UTF_8 ) ) {
+            for ( CCRSJob job : members ) {
+                writer.write( job.getInputFASTAContent().trim() );
+                writer.write( '\n' );
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            if ( workerPool != null ) {
+                executeOnWorker( inputFilename, outputFilename );
+            } else {
+                executeCommand( new String[]{first.getCommand(), inputFilename} );
+            }
+        } finally {
+            this.commandMillis = System.currentTimeMillis() - start;
+            this.stdoutTail = ProcessOutput.tail( directory.resolve( CCRSJob.STDOUT_FILENAME ), CCRSJob.OUTPUT_TAIL_BYTES );
+            this.stderrTail = ProcessOutput.tail( directory.resolve( CCRSJob.STDERR_FILENAME ), CCRSJob.OUTPUT_TAIL_BYTES );
+        }
+
+        if ( exitCode != 0 ) {
+            throw new IOException( "Command exited with code " + exitCode + ": " + stderrTail );
+        }
+        log.info( "Ran batch of {} jobs with {} residues in {}ms", members.size(), residues, commandMillis );
+
+        String output = new String( Files.readAllBytes( directory.resolve( outputFilename ) ), StandardCharsets.UTF_8 );
+        Map<CCRSJob, String> outputs = match( members, split( output ) );
+        if ( outputs.size() < members.size() ) {
+            log.warn( "Batch output matched {} of {} jobs", outputs.size(), members.size() );
+        }
+        inputIgnored = members.size() > 1 && outputs.size() <= 1;
+        return outputs;
+    }
+
+    private void executeCommand( String[] command ) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder( command )
+                .directory( directory.toFile() )
+                .redirectOutput( directory.resolve( CCRSJob.STDOUT_FILENAME ).toFile() )
+                .redirectError( directory.resolve( CCRSJob.STDERR_FILENAME ).toFile() );
+
+        ProcessTree tree;
+        synchronized ( this ) {
+            tree = ProcessTree.start( builder );
+            processTree = tree;
+            if ( stopped.size() == jobs.size() ) {
+                tree.terminate();
+            }
+        }
+
+        try {
+            this.exitCode = tree.getProcess().waitFor();
+            if ( Thread.interrupted() ) {
+                throw new InterruptedException();
+            }
+        } catch ( InterruptedException e ) {
+            tree.kill();
+            throw e;
+        } finally {
+            synchronized ( this ) {
+                processTree = null;
+            }
+        }
+    }
+
+    private void executeOnWorker( String inputFilename, String outputFilename ) throws IOException, InterruptedException {
+        WorkerPool.Worker worker = workerPool.acquire();
+        boolean healthy = false;
+        synchronized ( this ) {
+            processTree = worker.getProcessTree();
+        }
+
+        try {
+            this.exitCode = worker.run( directory, inputFilename, outputFilename );
+            healthy = true;
+        } catch ( IOException e ) {
+            if ( Thread.interrupted() ) {
+                throw new InterruptedException();
+            }
+            throw e;
+        } finally {
+            synchronized ( this ) {
+                processTree = null;
+                workerPool.release( worker, healthy && stopped.size() < jobs.size() );
+            }
+        }
+    }
+
+    /**
+     * Split combined output into one block per sequence. A block ends where rows of another accession begin or where
+     * a taxa or header line follows rows.
+     */
+    static List<Block> split( String output ) {
+        List<Block> blocks = new ArrayList<>();
+        Block block = new Block();
+        for ( String line : output.split( "\\r?\\n" ) ) {
+            if ( line.isEmpty() ) {
+                continue;
+            }
+            String accession = rowAccession( line );
+            if ( block.rows > 0 && ( accession == null || !accession.equals( block.accession ) ) ) {
+                blocks.add( block );
+                block = new Block();
+            }
+            if ( accession != null && block.rows++ == 0 ) {
+                block.accession = accession;
+            }
+            block.text.append( line ).append( '\n' );
+        }
+        if ( block.rows > 0 ) {
+            blocks.add( block );
+        }
+        return blocks;
+    }
+
+    /**
+     * @return accession of a result row or null if the line is not one
+     */
+    private static String rowAccession( String line ) {
+        String[] fields = line.split( "\t", CCRSJobResult.HEADER_INFO_COL_CNT + 1 );
+        if ( fields.length < CCRSJobResult.HEADER_INFO_COL_CNT ) {
+            return null;
+        }
+        try {
+            Integer.parseInt( fields[1] );
+            return fields[0];
+        } catch ( NumberFormatException e ) {
+            return null;
+        }
+    }
+
+    /**
+     * Match blocks to jobs by accession, taken to be a word of the job's FASTA header, or by order if that does not
+     * match every job. A block is only used for a job with as many residues as the block has rows.
+     *
+     * @return output of each matched job
+     */
+    static Map<CCRSJob, String> match( List<CCRSJob> jobs, List<Block> blocks ) {
+        Map<CCRSJob, String> outputs = new LinkedHashMap<>();
+
+        Map<String, List<Block>> byAccession = new HashMap<>();
+        for ( Block block : blocks ) {
+            byAccession.computeIfAbsent( block.accession, k -> new ArrayList<>() ).add( block );
+        }
+        Set<Block> used = new HashSet<>();
+        for ( CCRSJob job : jobs ) {
+            Block found = null;
+            for ( String word : headerWords( job ) ) {
+                List<Block> candidates = byAccession.get( word );
+                if ( candidates != null && candidates.size() == 1 && fits( candidates.get( 0 ), job ) ) {
+                    if ( found != null && found != candidates.get( 0 ) ) {
+                        found = null;
+                        break;
+                    }
+                    found = candidates.get( 0 );
+                }
+            }
+            if ( found == null || !used.add( found ) ) {
+                break;
+            }
+            outputs.put( job, found.text.toString() );
+        }
+        if ( outputs.size() == jobs.size() ) {
+            return outputs;
+        }
+
+        outputs.clear();
+        if ( blocks.size() == jobs.size() ) {
+            for ( int i = 0; i < jobs.size(); i++ ) {
+                if ( fits( blocks.get( i ), jobs.get( i ) ) ) {
+                    outputs.put( jobs.get( i ), blocks.get( i ).text.toString() );
+                }
+            }
+        }
+        return outputs;
+    }
+
+    private static boolean fits( Block block, CCRSJob job ) {
+        return block.rows == job.getSequenceLength();
+    }
+
+    private static Set<String> headerWords( CCRSJob job ) {
+        String content = job.getInputFASTAContent().trim();
+        int end = content.indexOf( '\n' );
+        String header = end < 0 ? content : content.substring( 0, end );
+        Set<String> words = new HashSet<>();
+        for ( String word : header.replaceFirst( "^>", "" ).split( "[|\\s]+" ) ) {
+            if ( !word.isEmpty() ) {
+                words.add( word );
+            }
+        }
+        return words;
+    }
+
+    static final class Block {
+        private String accession;
+        private int rows = 0;
+        private final StringBuilder text = new StringBuilder();
+    }
+}
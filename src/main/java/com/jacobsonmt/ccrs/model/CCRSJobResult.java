@@ -2,34 +2,262 @@ package com.jacobsonmt.ccrs.model;
 
 import com.jacobsonmt.ccrs.exceptions.ResultFileException;
 import lombok.Getter;
-import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
-
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Result of a job, one row per residue.
+ *
+ * Rows are held in primitive columns rather than as {@link Base} objects so that large results take a fraction of the
+ * heap: references as bytes, depths as ints and conservation and the amino-acid scores as doubles, the scores flattened
+ * into one array of {@link #stride} values per row. {@link #getBases()} presents the rows as a read-only list of Base.
+ *
+ * Besides the text output of the tool a result can be saved in a binary file holding the columns as they are in memory,
+ * see {@link #writeBinaryFile}, which reloads without parsing.
+ */
 @Log4j2
-@Getter
-@Setter
 public final class CCRSJobResult {
 
     protected static final String[] HEADER = {"AC","Pos","Ref","Depth","Conservation","A","R","N","D","C","Q","E","G","H","I","L","K","M","F","P","S","T","W","Y","V"};
     protected static final int HEADER_INFO_COL_CNT = 5; // All columns passed this column are part of the Base list object
 
+    @Getter
     private final Taxa taxa;
-    private final List<Base> bases;
+    @Getter
     private final String accession;
 
-    CCRSJobResult( Taxa taxa, String accession, List<Base> bases ) {
+    // Columns, null when there are no bases
+    private final int size;
+    private final byte[] references;
+    private final int[] depths;
+    private final double[] conservations;
+    private final double[] scores;
+    private final int stride;
+
+    // Scores in each row when some rows have fewer than stride, otherwise null
+    private final int[] widths;
+
+    // References that are not a single ASCII character by row, otherwise null
+    private final Map<Integer, String> otherReferences;
+
+    CCRSJobResult( Taxa taxa, String accession, Columns columns ) {
+        this.taxa = taxa;
+        this.accession = accession;
+        if ( columns == null ) {
+            size = 0;
+            references = null;
+            depths = null;
+            conservations = null;
+            scores = null;
+            stride = 0;
+            widths = null;
+            otherReferences = null;
+        } else {
+            size = columns.size;
+            references = Arrays.copyOf( columns.references, size );
+            depths = Arrays.copyOf( columns.depths, size );
+            conservations = Arrays.copyOf( columns.conservations, size );
+            scores = Arrays.copyOf( columns.scores, size * columns.stride );
+            stride = columns.stride;
+            widths = columns.ragged ? Arrays.copyOf( columns.widths, size ) : null;
+            otherReferences = columns.otherReferences;
+        }
+    }
+
+    private CCRSJobResult( Taxa taxa, String accession, int size, byte[] references, int[] depths,
+                           double[] conservations, double[] scores, int stride, int[] widths,
+                           Map<Integer, String> otherReferences ) {
         this.taxa = taxa;
         this.accession = accession;
-        this.bases = bases;
+        this.size = size;
+        this.references = references;
+        this.depths = depths;
+        this.conservations = conservations;
+        this.scores = scores;
+        this.stride = stride;
+        this.widths = widths;
+        this.otherReferences = otherReferences;
+    }
+
+    /**
+     * @return bases as a read-only view of the columns, null if the result has none
+     */
+    public List<Base> getBases() {
+        if ( references == null ) {
+            return null;
+        }
+        return new BaseList();
+    }
+
+    public int residueCount() {
+        return size;
+    }
+
+    /**
+     * @return approximate bytes of heap held by the result
+     */
+    public long estimateRetainedBytes() {
+        long bytes = 128 + stringBytes( accession ) + ( taxa == null ? 0 : 64 + stringBytes( taxa.getKey() ) +
+                stringBytes( taxa.getName() ) );
+        if ( references != null ) {
+            bytes += 16 + references.length + 16 + 4L * depths.length + 16 + 8L * conservations.length + 16 +
+                    8L * scores.length;
+        }
+        if ( widths != null ) {
+            bytes += 16 + 4L * widths.length;
+        }
+        if ( otherReferences != null ) {
+            // Entry, boxed key and string for each
+            for ( String reference : otherReferences.values() ) {
+                bytes += 64 + stringBytes( reference );
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return approximate bytes of heap held by a string
+     */
+    public static long stringBytes( String value ) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    public String reference( int row ) {
+        checkRow( row );
+        if ( otherReferences != null && references[row] == 0 ) {
+            String reference = otherReferences.get( row );
+            if ( reference != null ) {
+                return reference;
+            }
+        }
+        return REFERENCES[references[row]];
+    }
+
+    public int depth( int row ) {
+        checkRow( row );
+        return depths[row];
+    }
+
+    public double conservation( int row ) {
+        checkRow( row );
+        return conservations[row];
+    }
+
+    /**
+     * @return number of scores in the row
+     */
+    public int width( int row ) {
+        checkRow( row );
+        return widths == null ? stride : widths[row];
+    }
+
+    /**
+     * @param column index of the score, 0 being the first amino acid column of {@link #HEADER}
+     */
+    public double score( int row, int column ) {
+        if ( column < 0 || column >= width( row ) ) {
+            throw new IndexOutOfBoundsException( "Column: " + column );
+        }
+        return scores[row * stride + column];
+    }
+
+    private void checkRow( int row ) {
+        if ( row < 0 || row >= size ) {
+            throw new IndexOutOfBoundsException( "Row: " + row + ", Size: " + size );
+        }
+    }
+
+    /**
+     * @param name column name from {@link #HEADER}
+     * @return index of the column, -1 if there is no such column
+     */
+    public static int columnIndex( String name ) {
+        for ( int i = 0; i < HEADER.length; i++ ) {
+            if ( HEADER[i].equals( name ) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Write a selection of rows and columns as tab separated text, a header line followed by one line per selected
+     * residue. Values are read from the columns as they are written, the full table is never built.
+     *
+     * @param from first position, starting at 1
+     * @param to last position, inclusive, past the end for all remaining rows
+     * @param step write every step-th position from the first
+     * @param columns indices into {@link #HEADER}, null for all, a score missing from a row is left empty
+     */
+    public void writeSlice( Writer writer, int from, int to, int step, int[] columns ) throws IOException {
+        if ( columns == null ) {
+            columns = new int[HEADER.length];
+            for ( int c = 0; c < columns.length; c++ ) {
+                columns[c] = c;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for ( int c = 0; c < columns.length; c++ ) {
+            if ( c > 0 ) {
+                sb.append( "\t" );
+            }
+            sb.append( HEADER[columns[c]] );
+        }
+        writer.write( sb.append( "\n" ).toString() );
+
+        int last = Math.min( to, size );
+        // Stepped as a long so that a large step can not wrap around past the last position
+        for ( long next = Math.max( from, 1 ); next <= last; next += step ) {
+            int position = (int) next;
+            int i = position - 1;
+            sb.setLength( 0 );
+            for ( int c = 0; c < columns.length; c++ ) {
+                if ( c > 0 ) {
+                    sb.append( "\t" );
+                }
+                int column = columns[c];
+                switch ( column ) {
+                    case 0:
+                        sb.append( accession );
+                        break;
+                    case 1:
+                        sb.append( position );
+                        break;
+                    case 2:
+                        sb.append( reference( i ) );
+                        break;
+                    case 3:
+                        sb.append( depths[i] );
+                        break;
+                    case 4:
+                        sb.append( conservations[i] );
+                        break;
+                    default:
+                        if ( column - HEADER_INFO_COL_CNT < width( i ) ) {
+                            sb.append( scores[i * stride + column - HEADER_INFO_COL_CNT] );
+                        }
+                }
+            }
+            writer.write( sb.append( "\n" ).toString() );
+        }
     }
 
     public String getResultCSV() {
@@ -52,19 +280,21 @@ public final class CCRSJobResult {
 
         sb.append( String.join( "\t", HEADER ) ).append( "\n" );
 
-        if ( bases != null) {
-            int i = 1;
-            for ( Base base : bases ) {
-                sb
-                        .append( accession ).append( "\t" )
-                        .append( i ).append( "\t" )
-                        .append( base.getReference() ).append( "\t" )
-                        .append( base.getDepth() ).append( "\t" )
-                        .append( base.getConservation() ).append( "\t" )
-                        .append( base.getList().stream().map( String::valueOf ).collect( Collectors.joining( "\t" ) ) )
-                        .append( "\n" );
-                i++;
+        for ( int i = 0; i < size; i++ ) {
+            sb
+                    .append( accession ).append( "\t" )
+                    .append( i + 1 ).append( "\t" )
+                    .append( reference( i ) ).append( "\t" )
+                    .append( depths[i] ).append( "\t" )
+                    .append( conservations[i] ).append( "\t" );
+            int width = width( i );
+            for ( int j = 0; j < width; j++ ) {
+                if ( j > 0 ) {
+                    sb.append( "\t" );
+                }
+                sb.append( scores[i * stride + j] );
             }
+            sb.append( "\n" );
         }
         return sb.toString();
     }
@@ -78,113 +308,352 @@ public final class CCRSJobResult {
     }
 
     public static CCRSJobResult parseResultCSVStream( InputStream resultCSVStream ) throws ResultFileException {
-        // Parse first line
-        int tid = -1;
-        String tkey = "";
-        String tname = "";
-        List<Base> sequence = new ArrayList<>();
-        String accession = "";
-        boolean foundHeader = false;
-
-        try ( BufferedReader reader = new BufferedReader(new InputStreamReader(resultCSVStream, StandardCharsets.UTF_8 ))) {
-
-            // Assumptions:
-            // Taxa line might not be present
-            // Header line will always be present
-
-            // Taxa Line
-            String line = reader.readLine();
-            if ( line != null ) {
-                String[] sline = line.split( "\t" );
-
-                if ( sline.length == 1 ) {
-                    tkey = Taxa.KnownKeyTypes.malformed_OX.name();
-                }
+        byte[] bytes;
+        try ( InputStream is = resultCSVStream ) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ( ( read = is.read( buffer ) ) != -1 ) {
+                out.write( buffer, 0, read );
+            }
+            bytes = out.toByteArray();
+        } catch ( IOException e ) {
+            log.error( e );
+            throw new ResultFileException( "Server Error: Something went wrong parsing the result file" );
+        }
+        return new ResultFileParser( ByteBuffer.wrap( bytes ) ).parse();
+    }
 
-                if ( sline.length > 1 ) {
-                    tkey = sline[0];
-                    try {
-                        tid = Integer.parseInt( sline[1] );
-                    } catch ( NumberFormatException nfe ) {
-                        log.warn( "Server Error: Malformed result file taxa line: " + line );
-                        tid = -1;
-                    }
-                }
+    /**
+     * Parse a result file, memory mapping it if it is large.
+     */
+    public static CCRSJobResult parseResultCSVFile( Path path ) throws IOException, ResultFileException {
+        return new ResultFileParser( readFile( path ) ).parse();
+    }
+
+    public static final String BINARY_EXTENSION = ".bin";
 
-                if (sline.length > 2) {
-                    tname = sline[2];
+    // Binary file header, "CCRS" then the format version
+    private static final byte[] BINARY_MAGIC = {'C', 'C', 'R', 'S'};
+    private static final short BINARY_VERSION = 1;
+
+    private static final int HAS_TAXA = 1;
+    private static final int HAS_COLUMNS = 1 << 1;
+    private static final int HAS_WIDTHS = 1 << 2;
+
+    /**
+     * @param resultCSVFile text output of the tool
+     * @return binary file saved alongside it
+     */
+    public static Path binaryFile( Path resultCSVFile ) {
+        return resultCSVFile.resolveSibling( resultCSVFile.getFileName() + BINARY_EXTENSION );
+    }
+
+    /**
+     * Load the result of a text output file, from its binary file when there is an up to date one.
+     */
+    public static CCRSJobResult loadResultFile( Path resultCSVFile ) throws IOException, ResultFileException {
+        Path binaryFile = binaryFile( resultCSVFile );
+        try {
+            if ( Files.exists( binaryFile ) && Files.getLastModifiedTime( binaryFile ).compareTo(
+                    Files.getLastModifiedTime( resultCSVFile ) ) >= 0 ) {
+                return readBinaryFile( binaryFile );
+            }
+        } catch ( IOException | ResultFileException e ) {
+            log.warn( "Unable to read binary result {}, parsing text", binaryFile, e );
+        }
+        CCRSJobResult result = parseResultCSVFile( resultCSVFile );
+        result.writeBinaryFile( binaryFile );
+        return result;
+    }
+
+    /**
+     * Save this result in binary form, replacing any existing file. Failure is logged, the text file remains.
+     */
+    public void writeBinaryFile( Path file ) {
+        byte[] key = utf8( taxa == null ? null : taxa.getKey() );
+        byte[] name = utf8( taxa == null ? null : taxa.getName() );
+        byte[] accessionBytes = utf8( accession );
+        int others = otherReferences == null ? 0 : otherReferences.size();
+        int flags = ( taxa != null ? HAS_TAXA : 0 ) | ( references != null ? HAS_COLUMNS : 0 ) |
+                ( widths != null ? HAS_WIDTHS : 0 );
+
+        long length = 4 + 2 + 2 + 4 + 4 + 4 + stringLength( key ) + stringLength( name ) + stringLength( accessionBytes ) +
+                size + 4L * size + 8L * size + 8L * size * stride + ( widths != null ? 4L * size : 0 ) + 4;
+        byte[][] otherBytes = new byte[others][];
+        int[] otherRows = new int[others];
+        if ( others > 0 ) {
+            int i = 0;
+            for ( Map.Entry<Integer, String> entry : otherReferences.entrySet() ) {
+                otherRows[i] = entry.getKey();
+                otherBytes[i] = utf8( entry.getValue() );
+                length += 4 + stringLength( otherBytes[i] );
+                i++;
+            }
+        }
+        if ( length > Integer.MAX_VALUE ) {
+            log.warn( "Result too large for binary file {}", file );
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate( (int) length );
+        buffer.put( BINARY_MAGIC ).putShort( BINARY_VERSION ).putShort( (short) flags );
+        buffer.putInt( size ).putInt( stride ).putInt( taxa == null ? -1 : taxa.getId() );
+        putString( buffer, key );
+        putString( buffer, name );
+        putString( buffer, accessionBytes );
+        if ( references != null ) {
+            buffer.put( references, 0, size );
+            buffer.asIntBuffer().put( depths, 0, size );
+            buffer.position( buffer.position() + 4 * size );
+            buffer.asDoubleBuffer().put( conservations, 0, size );
+            buffer.position( buffer.position() + 8 * size );
+            buffer.asDoubleBuffer().put( scores, 0, size * stride );
+            buffer.position( buffer.position() + 8 * size * stride );
+            if ( widths != null ) {
+                buffer.asIntBuffer().put( widths, 0, size );
+                buffer.position( buffer.position() + 4 * size );
+            }
+        }
+        buffer.putInt( others );
+        for ( int i = 0; i < others; i++ ) {
+            buffer.putInt( otherRows[i] );
+            putString( buffer, otherBytes[i] );
+        }
+        buffer.flip();
+
+        // Written aside and moved into place so that a partial file is never read
+        Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+        try {
+            try ( FileChannel channel = FileChannel.open( tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING ) ) {
+                while ( buffer.hasRemaining() ) {
+                    channel.write( buffer );
                 }
+            }
+            Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        } catch ( IOException e ) {
+            log.warn( "Failed to write binary result {}", file, e );
+            try {
+                Files.deleteIfExists( tmp );
+            } catch ( IOException ignored ) {
+                // Nothing more to do
+            }
+        }
+    }
 
-                if (sline.length > 3) {
-                    log.warn( "Server Error: Malformed or missing result file taxa line: " + line );
-                    tid = -1;
-                    tname = "";
-
-                    // Is this is the header line?
-                    if ( Arrays.equals(sline, HEADER) ) {
-                        tkey = Taxa.KnownKeyTypes.missing_OX.name();
-                        foundHeader = true;
-                    } else {
-                        tkey = Taxa.KnownKeyTypes.malformed_OX.name();
-                    }
+    /**
+     * Load a result saved by {@link #writeBinaryFile}, the columns are copied in bulk without parsing.
+     *
+     * @throws ResultFileException if the file is not a binary result of this version or is truncated
+     */
+    public static CCRSJobResult readBinaryFile( Path file ) throws IOException, ResultFileException {
+        ByteBuffer buffer = readFile( file );
+        try {
+            byte[] magic = new byte[BINARY_MAGIC.length];
+            buffer.get( magic );
+            short version = buffer.getShort();
+            if ( !Arrays.equals( magic, BINARY_MAGIC ) || version != BINARY_VERSION ) {
+                throw new ResultFileException( "Not a binary result of version " + BINARY_VERSION + ": " + file );
+            }
+            int flags = buffer.getShort();
+            int size = buffer.getInt();
+            int stride = buffer.getInt();
+            int tid = buffer.getInt();
+            String key = getString( buffer );
+            String name = getString( buffer );
+            String accession = getString( buffer );
+            if ( size < 0 || stride < 0 || 13L * size + 8L * size * stride > buffer.remaining() ) {
+                throw new ResultFileException( "Truncated binary result: " + file );
+            }
+
+            byte[] references = null;
+            int[] depths = null;
+            double[] conservations = null;
+            double[] scores = null;
+            int[] widths = null;
+            if ( ( flags & HAS_COLUMNS ) != 0 ) {
+                references = new byte[size];
+                buffer.get( references );
+                depths = new int[size];
+                buffer.asIntBuffer().get( depths );
+                buffer.position( buffer.position() + 4 * size );
+                conservations = new double[size];
+                buffer.asDoubleBuffer().get( conservations );
+                buffer.position( buffer.position() + 8 * size );
+                scores = new double[size * stride];
+                buffer.asDoubleBuffer().get( scores );
+                buffer.position( buffer.position() + 8 * size * stride );
+                if ( ( flags & HAS_WIDTHS ) != 0 ) {
+                    widths = new int[size];
+                    buffer.asIntBuffer().get( widths );
+                    buffer.position( buffer.position() + 4 * size );
                 }
-            } else {
-                throw new ResultFileException( "Server Error: No data" );
-            }
-
-            // Read until header is found
-            while ( !foundHeader && ( line = reader.readLine() ) != null ) {
-                String[] sline = line.split( "\t" );
-                // is this the header?
-                if ( Arrays.equals( sline, HEADER ) ) {
-                    foundHeader = true;
-                } else {
-                    try {
-                        Base base = mapBase( sline );
-
-                        // There was no header
-                        accession = sline[0];
-                        sequence.add( base );
-                        foundHeader = true;
-                    } catch ( Exception e ) {
-                        // Not a base line, keep looking for header
-                    }
+            }
+            int others = buffer.getInt();
+            Map<Integer, String> otherReferences = null;
+            if ( others > 0 ) {
+                otherReferences = new HashMap<>();
+                for ( int i = 0; i < others; i++ ) {
+                    int row = buffer.getInt();
+                    otherReferences.put( row, getString( buffer ) );
                 }
             }
 
-            if ( foundHeader ) {
+            Taxa taxa = ( flags & HAS_TAXA ) != 0 ? new Taxa( key, tid, name ) : null;
+            return new CCRSJobResult( taxa, accession, references == null ? 0 : size, references, depths,
+                    conservations, scores, stride, widths, otherReferences );
+        } catch ( BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e ) {
+            throw new ResultFileException( "Truncated binary result: " + file, e );
+        }
+    }
 
-                // Separately parse first line to grab constant value of accession in first column
-                line = reader.readLine();
-                if ( line != null ) {
-                    String[] sline = line.split( "\t" );
-                    sequence.add( mapBase( sline ) );
-                    accession =  sline[0];
-                }
+    private static byte[] utf8( String s ) {
+        return s == null ? null : s.getBytes( StandardCharsets.UTF_8 );
+    }
+
+    private static int stringLength( byte[] bytes ) {
+        return 4 + ( bytes == null ? 0 : bytes.length );
+    }
+
+    private static void putString( ByteBuffer buffer, byte[] bytes ) {
+        if ( bytes == null ) {
+            buffer.putInt( -1 );
+        } else {
+            buffer.putInt( bytes.length ).put( bytes );
+        }
+    }
+
+    private static String getString( ByteBuffer buffer ) {
+        int length = buffer.getInt();
+        if ( length < 0 ) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * @return contents of the file, memory mapped if it is large
+     */
+    private static ByteBuffer readFile( Path path ) throws IOException {
+        try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) ) {
+            long size = channel.size();
+            if ( size >= MAP_THRESHOLD_BYTES ) {
+                return channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+            }
+            ByteBuffer buffer = ByteBuffer.allocate( (int) size );
+            while ( buffer.hasRemaining() && channel.read( buffer ) != -1 ) {
+                // Keep reading
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    // Files at least this large are memory mapped rather than read
+    private static final long MAP_THRESHOLD_BYTES = 1 << 20;
+
+    private static final String[] REFERENCES = new String[128];
+
+    static {
+        for ( int c = 0; c < REFERENCES.length; c++ ) {
+            REFERENCES[c] = String.valueOf( (char) c );
+        }
+    }
+
+    /**
+     * Columns being filled while parsing, grown as rows are added.
+     */
+    static final class Columns {
+        private int size = 0;
+        private byte[] references = new byte[256];
+        private int[] depths = new int[256];
+        private double[] conservations = new double[256];
+        private int stride = HEADER.length - HEADER_INFO_COL_CNT;
+        private double[] scores = new double[256 * stride];
+        private int[] widths = new int[256];
+        private boolean ragged = false;
+        private Map<Integer, String> otherReferences;
+
+        /**
+         * @param reference residue as an ASCII character, ignored if otherReference is set
+         * @param otherReference residue that is not a single ASCII character, otherwise null
+         * @param row scores, the first width of which are copied
+         */
+        void add( byte reference, String otherReference, int depth, double conservation, double[] row, int width ) {
+            if ( size == references.length ) {
+                int capacity = size * 2;
+                references = Arrays.copyOf( references, capacity );
+                depths = Arrays.copyOf( depths, capacity );
+                conservations = Arrays.copyOf( conservations, capacity );
+                scores = Arrays.copyOf( scores, capacity * stride );
+                widths = Arrays.copyOf( widths, capacity );
+            }
+            if ( width > stride ) {
+                restride( width );
+            }
 
-                while ( ( line = reader.readLine() ) != null ) {
-                    sequence.add( mapBase( line.split( "\t" ) ) );
+            if ( otherReference == null ) {
+                references[size] = reference;
+            } else {
+                references[size] = 0;
+                if ( otherReferences == null ) {
+                    otherReferences = new HashMap<>();
                 }
+                otherReferences.put( size, otherReference );
             }
+            depths[size] = depth;
+            conservations[size] = conservation;
+            System.arraycopy( row, 0, scores, size * stride, width );
+            widths[size] = width;
+            ragged |= width != stride;
+            size++;
+        }
 
-        } catch ( Exception e ) {
-            log.error( e );
-            throw new ResultFileException( "Server Error: Something went wrong parsing the result file" );
+        private void restride( int newStride ) {
+            double[] restrided = new double[references.length * newStride];
+            for ( int i = 0; i < size; i++ ) {
+                System.arraycopy( scores, i * stride, restrided, i * newStride, widths[i] );
+            }
+            scores = restrided;
+            stride = newStride;
+            ragged = size > 0;
+        }
+    }
+
+    private final class BaseList extends AbstractList<Base> implements RandomAccess {
+
+        @Override
+        public Base get( int index ) {
+            Base base = new Base( reference( index ), depths[index], conservations[index] );
+            base.setList( new ScoreList( index ) );
+            return base;
         }
 
-        return new CCRSJobResult( new Taxa( tkey, tid, tname ), accession, sequence );
+        @Override
+        public int size() {
+            return size;
+        }
     }
 
-    private static Base mapBase(String[] splitLine ) {
-        Base base = new Base( splitLine[2], Integer.parseInt( splitLine[3] ), Double.parseDouble( splitLine[4] ) );
+    private final class ScoreList extends AbstractList<Double> implements RandomAccess {
 
-        if ( splitLine.length > HEADER_INFO_COL_CNT ) {
-            base.setList( Arrays.stream( splitLine ).skip( HEADER_INFO_COL_CNT )
-                    .map( Double::parseDouble )
-                    .collect( Collectors.toList() )
-            );
+        private final int row;
+
+        private ScoreList( int row ) {
+            this.row = row;
+        }
+
+        @Override
+        public Double get( int index ) {
+            return score( row, index );
         }
 
-        return base;
+        @Override
+        public int size() {
+            return width( row );
+        }
     }
 }
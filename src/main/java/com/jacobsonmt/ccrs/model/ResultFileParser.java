@@ -0,0 +1,370 @@
+package com.jacobsonmt.ccrs.model;
+
+import com.jacobsonmt.ccrs.exceptions.ResultFileException;
+import lombok.extern.log4j.Log4j2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parses a result file straight from its bytes.
+ *
+ * Lines are scanned for tabs in place and numbers are parsed from the bytes of their field, so a row of a result costs
+ * no allocation beyond the columns it is written to. Fields are split as {@link String#split} would, dropping trailing
+ * empty fields, so that taxa and header lines are read the same as before. Not thread-safe.
+ */
+@Log4j2
+final class ResultFileParser {
+
+    private static final byte[][] HEADER_BYTES = new byte[CCRSJobResult.HEADER.length][];
+
+    static {
+        for ( int i = 0; i < HEADER_BYTES.length; i++ ) {
+            HEADER_BYTES[i] = CCRSJobResult.HEADER[i].getBytes( StandardCharsets.US_ASCII );
+        }
+    }
+
+    // Powers of ten that are exact as doubles
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for ( int i = 1; i < POWERS_OF_TEN.length; i++ ) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    // Largest mantissa held exactly in a double
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final ByteBuffer buffer;
+
+    // Position after the current line
+    private int next;
+
+    // Fields of the current line, start of field i at starts[i] and end at ends[i]
+    private int[] starts = new int[32];
+    private int[] ends = new int[32];
+    private int fields;
+    private int lineStart;
+    private int lineEnd;
+
+    // Scores of the row being parsed
+    private double[] row = new double[CCRSJobResult.HEADER.length];
+
+    ResultFileParser( ByteBuffer buffer ) {
+        this.buffer = buffer;
+        this.next = buffer.position();
+    }
+
+    CCRSJobResult parse() throws ResultFileException {
+        // Parse first line
+        int tid = -1;
+        String tkey = "";
+        String tname = "";
+        CCRSJobResult.Columns sequence = new CCRSJobResult.Columns();
+        String accession = "";
+        boolean foundHeader = false;
+
+        try {
+
+            // Assumptions:
+            // Taxa line might not be present
+            // Header line will always be present
+
+            // Taxa Line
+            if ( nextLine() ) {
+                if ( fields == 1 ) {
+                    tkey = Taxa.KnownKeyTypes.malformed_OX.name();
+                }
+
+                if ( fields > 1 ) {
+                    tkey = field( 0 );
+                    try {
+                        tid = Integer.parseInt( field( 1 ) );
+                    } catch ( NumberFormatException nfe ) {
+                        log.warn( "Server Error: Malformed result file taxa line: " + line() );
+                        tid = -1;
+                    }
+                }
+
+                if ( fields > 2 ) {
+                    tname = field( 2 );
+                }
+
+                if ( fields > 3 ) {
+                    log.warn( "Server Error: Malformed or missing result file taxa line: " + line() );
+                    tid = -1;
+                    tname = "";
+
+                    // Is this is the header line?
+                    if ( isHeader() ) {
+                        tkey = Taxa.KnownKeyTypes.missing_OX.name();
+                        foundHeader = true;
+                    } else {
+                        tkey = Taxa.KnownKeyTypes.malformed_OX.name();
+                    }
+                }
+            } else {
+                throw new ResultFileException( "Server Error: No data" );
+            }
+
+            // Read until header is found
+            while ( !foundHeader && nextLine() ) {
+                // is this the header?
+                if ( isHeader() ) {
+                    foundHeader = true;
+                } else if ( tryAddBase( sequence ) ) {
+                    // There was no header
+                    accession = field( 0 );
+                    foundHeader = true;
+                }
+                // Otherwise not a base line, keep looking for header
+            }
+
+            if ( foundHeader ) {
+
+                // Separately parse first line to grab constant value of accession in first column
+                if ( nextLine() ) {
+                    addBase( sequence );
+                    accession = field( 0 );
+                }
+
+                while ( nextLine() ) {
+                    addBase( sequence );
+                }
+            }
+
+        } catch ( Exception e ) {
+            log.error( e );
+            throw new ResultFileException( "Server Error: Something went wrong parsing the result file" );
+        }
+
+        return new CCRSJobResult( new Taxa( tkey, tid, tname ), accession, sequence );
+    }
+
+    /**
+     * Split the next line into fields.
+     *
+     * @return false at the end of input
+     */
+    private boolean nextLine() {
+        int limit = buffer.limit();
+        if ( next >= limit ) {
+            return false;
+        }
+        fields = 0;
+        lineStart = next;
+        int start = next;
+        int i = next;
+        byte b = 0;
+        for ( ; i < limit; i++ ) {
+            b = buffer.get( i );
+            if ( b == '\n' || b == '\r' ) {
+                break;
+            }
+            if ( b == '\t' ) {
+                addField( start, i );
+                start = i + 1;
+            }
+        }
+        addField( start, i );
+        lineEnd = i;
+
+        // Line ends with \n, \r or \r\n
+        next = i + 1;
+        if ( b == '\r' && next < limit && buffer.get( next ) == '\n' ) {
+            next++;
+        }
+
+        // A line without tabs is one field, otherwise trailing empty fields are dropped
+        if ( fields > 1 ) {
+            while ( fields > 0 && starts[fields - 1] == ends[fields - 1] ) {
+                fields--;
+            }
+        }
+        return true;
+    }
+
+    private void addField( int start, int end ) {
+        if ( fields == starts.length ) {
+            starts = Arrays.copyOf( starts, fields * 2 );
+            ends = Arrays.copyOf( ends, fields * 2 );
+        }
+        starts[fields] = start;
+        ends[fields] = end;
+        fields++;
+    }
+
+    private boolean isHeader() {
+        if ( fields != HEADER_BYTES.length ) {
+            return false;
+        }
+        for ( int f = 0; f < fields; f++ ) {
+            byte[] expected = HEADER_BYTES[f];
+            if ( ends[f] - starts[f] != expected.length ) {
+                return false;
+            }
+            for ( int j = 0; j < expected.length; j++ ) {
+                if ( buffer.get( starts[f] + j ) != expected[j] ) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean tryAddBase( CCRSJobResult.Columns sequence ) {
+        if ( fields < CCRSJobResult.HEADER_INFO_COL_CNT ) {
+            return false;
+        }
+        try {
+            addBase( sequence );
+            return true;
+        } catch ( RuntimeException e ) {
+            return false;
+        }
+    }
+
+    /**
+     * Parse the current line as a base, adding it only if the whole line parses.
+     */
+    private void addBase( CCRSJobResult.Columns sequence ) {
+        if ( fields < CCRSJobResult.HEADER_INFO_COL_CNT ) {
+            throw new NumberFormatException( "Too few fields: " + line() );
+        }
+        int depth = parseInt( 3 );
+        double conservation = parseDouble( 4 );
+        int width = fields - CCRSJobResult.HEADER_INFO_COL_CNT;
+        if ( row.length < width ) {
+            row = new double[width];
+        }
+        for ( int j = 0; j < width; j++ ) {
+            row[j] = parseDouble( CCRSJobResult.HEADER_INFO_COL_CNT + j );
+        }
+
+        // Reference
+        byte b;
+        if ( ends[2] - starts[2] == 1 && ( b = buffer.get( starts[2] ) ) > 0 ) {
+            sequence.add( b, null, depth, conservation, row, width );
+        } else {
+            sequence.add( (byte) 0, field( 2 ), depth, conservation, row, width );
+        }
+    }
+
+    private String field( int f ) {
+        return string( starts[f], ends[f] );
+    }
+
+    private String line() {
+        return string( lineStart, lineEnd );
+    }
+
+    private String string( int start, int end ) {
+        byte[] bytes = new byte[end - start];
+        for ( int i = 0; i < bytes.length; i++ ) {
+            bytes[i] = buffer.get( start + i );
+        }
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Parse a field of plain digits in place, leaving anything else to {@link Integer#parseInt}.
+     */
+    int parseInt( int f ) {
+        int start = starts[f];
+        int end = ends[f];
+        if ( end > start && end - start <= 9 ) {
+            int value = 0;
+            int i = start;
+            for ( ; i < end; i++ ) {
+                int d = buffer.get( i ) - '0';
+                if ( d < 0 || d > 9 ) {
+                    break;
+                }
+                value = value * 10 + d;
+            }
+            if ( i == end ) {
+                return value;
+            }
+        }
+        return Integer.parseInt( field( f ) );
+    }
+
+    /**
+     * Parse a field of the form [-]digits[.digits][e[-]digits] in place when it has at most 15 significant digits and a
+     * small exponent, for which mantissa and power of ten are both exact and one multiply or divide rounds correctly.
+     * Anything else is left to {@link Double#parseDouble}, so results are always identical to it.
+     */
+    double parseDouble( int f ) {
+        int start = starts[f];
+        int end = ends[f];
+        int i = start;
+        boolean negative = false;
+        if ( i < end && ( buffer.get( i ) == '-' || buffer.get( i ) == '+' ) ) {
+            negative = buffer.get( i ) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigits = false;
+        boolean fast = true;
+        for ( ; i < end; i++ ) {
+            int d = buffer.get( i ) - '0';
+            if ( d < 0 || d > 9 ) {
+                break;
+            }
+            anyDigits = true;
+            if ( mantissa != 0 || d != 0 ) {
+                digits++;
+            }
+            mantissa = mantissa * 10 + d;
+            fast &= digits <= 15;
+        }
+        if ( i < end && buffer.get( i ) == '.' ) {
+            i++;
+            for ( ; i < end; i++ ) {
+                int d = buffer.get( i ) - '0';
+                if ( d < 0 || d > 9 ) {
+                    break;
+                }
+                anyDigits = true;
+                if ( mantissa != 0 || d != 0 ) {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + d;
+                exponent--;
+                fast &= digits <= 15;
+            }
+        }
+        if ( anyDigits && i < end && ( buffer.get( i ) == 'e' || buffer.get( i ) == 'E' ) ) {
+            i++;
+            boolean negativeExponent = false;
+            if ( i < end && ( buffer.get( i ) == '-' || buffer.get( i ) == '+' ) ) {
+                negativeExponent = buffer.get( i ) == '-';
+                i++;
+            }
+            int e = 0;
+            int exponentStart = i;
+            for ( ; i < end && e < 1000; i++ ) {
+                int d = buffer.get( i ) - '0';
+                if ( d < 0 || d > 9 ) {
+                    break;
+                }
+                e = e * 10 + d;
+            }
+            fast &= i > exponentStart;
+            exponent += negativeExponent ? -e : e;
+        }
+
+        if ( fast && anyDigits && i == end && mantissa < MAX_EXACT_MANTISSA &&
+                Math.abs( exponent ) < POWERS_OF_TEN.length ) {
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble( field( f ) );
+    }
+}
@@ -4,10 +4,15 @@ import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.io.Serializable;
+
 @Getter
 @Setter
 @AllArgsConstructor
-public class Taxa {
+public class Taxa implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
     public enum KnownKeyTypes {
         OX,
         missing_OX,
@@ -2,29 +2,40 @@ package com.jacobsonmt.ccrs.repositories;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.jacobsonmt.ccrs.exceptions.ResultFileException;
 import com.jacobsonmt.ccrs.model.CCRSJob;
 import com.jacobsonmt.ccrs.model.CCRSJobResult;
 import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.io.*;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static com.jacobsonmt.ccrs.model.CCRSJob.inputStreamToString;
+
 /**
- * All in progress/failed jobs are cached in memory.
- * Successfully completed jobs are cached in memory based on LRU eviction and persisted to disk.
+ * All in progress/failed jobs are pinned in memory.
+ * Successfully completed jobs are persisted to disk and cached in memory up to an estimate of the heap they hold.
+ * Jobs read back from disk hold only their metadata, their input and result are loaded when first asked for.
+ * Saved jobs are listed on startup from an index kept beside the job folders, see {@link JobIndex}.
  */
 @Log4j2
 @Primary
@@ -43,19 +54,39 @@ public class CaffeineJobRepository implements JobRepository {
     // Used so we don't have to run Files.exist for no reason. Not necessary but nice.
     private final Set<String> existingJobIds = ConcurrentHashMap.newKeySet();
 
-    // Needed to correctly give weight to jobs in cache
+    // Saved jobs, which are cached rather than pinned
     private final Set<String> persistedJobIds = ConcurrentHashMap.newKeySet();
 
+    // Jobs not yet saved, never evicted
+    private final Map<String, CCRSJob> pinnedJobs = new ConcurrentHashMap<>();
+
+    // Most bytes of saved jobs held in the cache
+    private final long maximumBytes;
+
+    // Saved jobs, read instead of every job folder on startup
+    private final JobIndex jobIndex;
+
+    // Set if the index had to be rebuilt
+    private volatile RecoveryScan recoveryScan;
+
+    // Held to delete a job and to save one, so that a job deleted while waiting to be saved is not saved again
+    private final Object deleteLock = new Object();
+
     @Autowired
     public CaffeineJobRepository( ApplicationSettings applicationSettings ) {
         this.applicationSettings = applicationSettings;
 
-        // Need to make sure unpersisted (incomplete) jobs can't be invalidated, so we assign them a weight of 0.
-        // When they are eventually persisted we recache them so that their weight updates.
+        // Unsaved jobs are pinned apart from the cache so that they can't be evicted, saved jobs are weighed by the
+        // heap they hold and weighed again when their input or result is loaded.
+        maximumBytes = applicationSettings.getMaxCachedBytes() > 0 ? applicationSettings.getMaxCachedBytes() :
+                (long) ( Runtime.getRuntime().maxMemory() * applicationSettings.getMaxCachedHeapFraction() );
         cachedJobs = Caffeine.newBuilder()
-                .maximumWeight( applicationSettings.getMaxCachedJobs() )
-                .weigher( (String k,CCRSJob v) -> persistedJobIds.contains( k ) ? 1 : 0 )
+                .maximumWeight( maximumBytes )
+                .weigher( (String k,CCRSJob v) -> (int) Math.min( v.estimateRetainedBytes(), Integer.MAX_VALUE ) )
+                .recordStats()
                 .build();
+        jobIndex = new JobIndex( Paths.get( applicationSettings.getJobsDirectory(), applicationSettings.getJobIndexFilename() ),
+                applicationSettings.getJobIndexCompactBytes() );
 
         if ( applicationSettings.isLoadJobsFromDisk() ) {
             loadJobsFromDisk();
@@ -63,50 +94,73 @@ public class CaffeineJobRepository implements JobRepository {
     }
 
     private void loadJobsFromDisk() {
-        // Populate completed jobs from jobs folder
-        Path jobsDirectory = Paths.get( applicationSettings.getJobsDirectory() );
+        Collection<JobIndex.Entry> entries = jobIndex.load();
+        if ( entries == null ) {
+            rebuildIndex();
+            return;
+        }
 
-        PathMatcher matcher =
-                FileSystems.getDefault().getPathMatcher( "glob:**/" + applicationSettings.getJobSerializationFilename() );
+        for ( JobIndex.Entry entry : entries ) {
+            persistedJobIds.add( entry.getJobId() );
+            register( entry.getJobId(), entry.getClientId(), entry.getUserId() );
+        }
+        log.info( "Loaded " + entries.size() + " saved jobs" );
+    }
 
-        try {
-            Files.walkFileTree( jobsDirectory, new SimpleFileVisitor<Path>() {
-
-                @Override
-                public FileVisitResult visitFile( Path path,
-                                                  BasicFileAttributes attrs ) throws IOException {
-                    if ( matcher.matches( path ) ) {
-                        try ( ObjectInputStream ois = new ObjectInputStream( Files.newInputStream( path ) ) ) {
-                            CCRSJob job = (CCRSJob) ois.readObject();
-
-                            existingJobIds.add( job.getJobId() );
-                            persistedJobIds.add( job.getJobId() );
-                            clientIdToUserIdToJobIds
-                                    .computeIfAbsent( job.getClientId(), k -> new ConcurrentHashMap<>() )
-                                    .computeIfAbsent( job.getUserId(), k -> new HashSet<>() )
-                                    .add( job.getJobId() );
-
-                        } catch ( ClassNotFoundException e ) {
-                            log.error( e );
-                        }
-                    }
-                    return FileVisitResult.CONTINUE;
+    /**
+     * Read every job folder in the background, serving jobs as they are found, and write the index from them.
+     */
+    private void rebuildIndex() {
+        log.info( "Rebuilding job index from job folders" );
+        jobIndex.startRebuild();
+        recoveryScan = new RecoveryScan( Paths.get( applicationSettings.getJobsDirectory() ),
+                applicationSettings.getJobSerializationFilename(), applicationSettings.getJobRecoveryThreads() );
+        recoveryScan.start( job -> {
+            persistedJobIds.add( job.getJobId() );
+            register( job.getJobId(), job.getClientId(), job.getUserId() );
+            jobIndex.addRebuilt( JobIndex.Entry.of( job ) );
+        } ).whenComplete( ( v, e ) -> {
+            try {
+                if ( e == null ) {
+                    jobIndex.finishRebuild();
+                } else {
+                    log.error( "Failed to rebuild job index", e );
+                    jobIndex.abandonRebuild();
                 }
+            } catch ( IOException ex ) {
+                log.error( "Failed to write job index", ex );
+            }
+        } );
+    }
 
-                @Override
-                public FileVisitResult visitFileFailed( Path file, IOException exc )
-                        throws IOException {
-                    return FileVisitResult.CONTINUE;
-                }
-            } );
-        } catch ( IOException e ) {
-            log.error( e );
-        }
+    /**
+     * @return progress of reading job folders to rebuild the index, null if the index was used
+     */
+    public RecoveryScan.Progress getRecoveryProgress() {
+        RecoveryScan scan = recoveryScan;
+        return scan == null ? null : scan.getProgress();
+    }
+
+    public Stats getCacheStats() {
+        CacheStats stats = cachedJobs.stats();
+        long weightedBytes = cachedJobs.policy().eviction().map( e -> e.weightedSize().orElse( 0 ) ).orElse( 0L );
+        return new Stats( maximumBytes, weightedBytes, cachedJobs.estimatedSize(), pinnedJobs.size(),
+                stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount(), stats.evictionWeight() );
+    }
+
+    @PreDestroy
+    public void close() {
+        jobIndex.close();
     }
 
     @Override
     public CCRSJob getById( String id ) {
 
+        CCRSJob pinned = pinnedJobs.get( id );
+        if ( pinned != null ) {
+            return pinned;
+        }
+
         CCRSJob cached = cachedJobs.getIfPresent( id );
         if ( cached != null ) {
             return cached;
@@ -124,30 +178,21 @@ public class CaffeineJobRepository implements JobRepository {
 
         log.debug( "Retrieving job from disk: " + id );
 
-        try ( ObjectInputStream ois = new ObjectInputStream( Files.newInputStream( path ) ) ) {
-            CCRSJob job = (CCRSJob) ois.readObject();
+        try {
+            CCRSJob job = JobCodec.read( path );
 
-            // Add back important transient fields
+            // Add back important transient fields, input and result are only read when asked for
             job.setJobsDirectory( path.getParent() );
-            job.setInputFASTAContent( inputStreamToString( Files.newInputStream( job.getJobsDirectory().resolve( job.getInputFASTAFilename() ) ) ) );
+            job.setInputFASTALoader( loadOnce( job, () -> loadInput( job ), job::setInputFASTAContent ) );
+            job.setResultLoader( loadOnce( job, () -> loadResult( job ), job::setResult ) );
             job.setPosition( null );
             job.setEmail( "" );
             job.setSaveExpiredDate( System.currentTimeMillis() + applicationSettings.getPurgeAfterHours() * 60 * 60 * 1000 );
 
-            // Unset CCRSJobResult transient?
-            try {
-                job.setResult( CCRSJobResult.parseResultCSVStream(
-                        Files.newInputStream( job.getJobsDirectory().resolve( job.getOutputCSVFilename() ) ) ) );
-            } catch ( ResultFileException e ) {
-                job.setResult( CCRSJobResult.createNullResult() );
-            }
-
             cacheJob( job );
 
             return job;
 
-        } catch ( ClassNotFoundException e ) {
-            log.error( e );
         } catch ( NoSuchFileException ex) {
             log.debug( "No file found for: " + id );
         } catch ( FileNotFoundException ex) {
@@ -159,6 +204,44 @@ public class CaffeineJobRepository implements JobRepository {
         return null;
     }
 
+    /**
+     * @return loader that keeps what it loads with the job and weighs the job again if it is still cached
+     */
+    private <T> Supplier<T> loadOnce( CCRSJob job, Supplier<T> loader, Consumer<T> keep ) {
+        return new Supplier<T>() {
+            // Guarded by this
+            private T value;
+
+            @Override
+            public synchronized T get() {
+                if ( value == null ) {
+                    value = loader.get();
+                    keep.accept( value );
+                    cachedJobs.asMap().replace( job.getJobId(), job, job );
+                }
+                return value;
+            }
+        };
+    }
+
+    private static String loadInput( CCRSJob job ) {
+        try {
+            return inputStreamToString( Files.newInputStream( job.getJobsDirectory().resolve( job.getInputFASTAFilename() ) ) );
+        } catch ( IOException e ) {
+            log.error( "Failed to read input of job: " + job.getJobId(), e );
+            return "";
+        }
+    }
+
+    private static CCRSJobResult loadResult( CCRSJob job ) {
+        try {
+            return CCRSJobResult.loadResultFile( job.getJobsDirectory().resolve( job.getOutputCSVFilename() ) );
+        } catch ( IOException | ResultFileException e ) {
+            log.warn( "Failed to read result of job: " + job.getJobId(), e );
+            return CCRSJobResult.createNullResult();
+        }
+    }
+
     @Override
     public String getRawResultFileById( String id ) {
         Path path = Paths.get( applicationSettings.getJobsDirectory(), id, applicationSettings.getOutputCSVFilename() );
@@ -185,7 +268,8 @@ public class CaffeineJobRepository implements JobRepository {
         if ( userjobs != null) {
             Set<String> jobs = userjobs.get( userId );
             if ( jobs != null) {
-                return jobs.stream().map( this::getById );
+                // The index may name a job whose folder was never written
+                return jobs.stream().map( this::getById ).filter( Objects::nonNull );
             }
         }
 
@@ -194,7 +278,14 @@ public class CaffeineJobRepository implements JobRepository {
 
     @Override
     public void delete( CCRSJob job ) {
+        synchronized ( deleteLock ) {
+            remove( job );
+        }
+    }
+
+    private void remove( CCRSJob job ) {
 
+        pinnedJobs.remove( job.getJobId() );
         cachedJobs.invalidate( job.getJobId() );
         existingJobIds.remove( job.getJobId() );
         Map<String, Set<String>> userjobs = clientIdToUserIdToJobIds.get( job.getClientId() );
@@ -213,7 +304,10 @@ public class CaffeineJobRepository implements JobRepository {
         try {
             Path serializedJob = job.getJobsDirectory().resolve( job.getJobSerializationFilename() );
             Files.deleteIfExists( serializedJob );
-            persistedJobIds.remove( job.getJobId() );
+            // Only saved jobs are indexed, a scan still rebuilding the index may yet find this one
+            if ( persistedJobIds.remove( job.getJobId() ) || jobIndex.isRebuilding() ) {
+                jobIndex.remove( job.getJobId() );
+            }
         } catch ( IOException e ) {
             log.error(e);
         }
@@ -221,36 +315,83 @@ public class CaffeineJobRepository implements JobRepository {
 
     @Override
     public void persistJob( CCRSJob job ) {
-        // Write metadata to job folder
-        Path serializedJob = job.getJobsDirectory().resolve( job.getJobSerializationFilename() );
-        try ( ObjectOutputStream oos = new ObjectOutputStream( Files.newOutputStream( serializedJob ) ) ) {
-            oos.writeObject( job );
-            persistedJobIds.add( job.getJobId() );
-            cachedJobs.put( job.getJobId(), job ); // Needed to recalculate job cache weight
-        } catch ( IOException e ) {
-            log.error( "Failed to serialize job: " + job.getJobId(), e );
+        persistJobs( Collections.singletonList( job ) );
+    }
+
+    /**
+     * Index the jobs with one fsync, then write their metadata to their job folders. Jobs deleted since they were
+     * cached are skipped.
+     */
+    @Override
+    public void persistJobs( Collection<CCRSJob> jobs ) {
+        synchronized ( deleteLock ) {
+            List<CCRSJob> existing = jobs.stream().filter( this::exists ).collect( Collectors.toList() );
+            if ( existing.isEmpty() ) {
+                return;
+            }
+            try {
+                // Index first so that a saved job is never missing from it
+                jobIndex.putAll( existing );
+            } catch ( IOException e ) {
+                log.error( "Failed to index jobs", e );
+            }
         }
+
+        for ( CCRSJob job : jobs ) {
+            // Write metadata to job folder
+            Path serializedJob = job.getJobsDirectory().resolve( job.getJobSerializationFilename() );
+            synchronized ( deleteLock ) {
+                if ( !exists( job ) ) {
+                    continue;
+                }
+                try {
+                    JobCodec.write( job, serializedJob );
+                    persistedJobIds.add( job.getJobId() );
+                    // Can be evicted from now on
+                    cachedJobs.put( job.getJobId(), job );
+                    pinnedJobs.remove( job.getJobId() );
+                } catch ( IOException e ) {
+                    log.error( "Failed to serialize job: " + job.getJobId(), e );
+                }
+            }
+        }
+    }
+
+    private boolean exists( CCRSJob job ) {
+        return existingJobIds.contains( job.getJobId() );
     }
 
     @Override
     public void cacheJob( CCRSJob job ) {
-        cachedJobs.put( job.getJobId(), job );
-        existingJobIds.add( job.getJobId() );
+        if ( persistedJobIds.contains( job.getJobId() ) ) {
+            cachedJobs.put( job.getJobId(), job );
+        } else {
+            pinnedJobs.put( job.getJobId(), job );
+        }
+        register( job.getJobId(), job.getClientId(), job.getUserId() );
+    }
+
+    private void register( String jobId, String clientId, String userId ) {
+        existingJobIds.add( jobId );
         clientIdToUserIdToJobIds
-                .computeIfAbsent( job.getClientId(), k -> new ConcurrentHashMap<>() )
-                .computeIfAbsent( job.getUserId(), k -> new HashSet<>() )
-                .add( job.getJobId() );
+                .computeIfAbsent( clientId, k -> new ConcurrentHashMap<>() )
+                .computeIfAbsent( userId, k -> ConcurrentHashMap.newKeySet() )
+                .add( jobId );
     }
 
-    private static String inputStreamToString( InputStream inputStream) throws IOException {
-        StringBuilder textBuilder = new StringBuilder();
-        try ( Reader reader = new BufferedReader(new InputStreamReader
-                (inputStream, Charset.forName( StandardCharsets.UTF_8.name())))) {
-            int c = 0;
-            while ((c = reader.read()) != -1) {
-                textBuilder.append((char) c);
-            }
-        }
-        return textBuilder.toString();
+    @Getter
+    @AllArgsConstructor
+    public static final class Stats {
+        private final long maximumBytes;
+        // Estimated heap held by cached saved jobs
+        private final long weightedBytes;
+        private final long cachedJobs;
+        // Jobs not yet saved, held outside the limit
+        private final long pinnedJobs;
+        private final long hits;
+        private final long misses;
+        private final double hitRate;
+        private final long evictions;
+        private final long evictedBytes;
     }
 }
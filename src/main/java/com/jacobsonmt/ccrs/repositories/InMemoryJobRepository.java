@@ -8,8 +8,6 @@ import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Map;
@@ -53,8 +51,8 @@ public class InMemoryJobRepository implements JobRepository {
                 public FileVisitResult visitFile( Path path,
                                                   BasicFileAttributes attrs ) throws IOException {
                     if ( matcher.matches( path ) ) {
-                        try ( ObjectInputStream ois = new ObjectInputStream( Files.newInputStream( path ) ) ) {
-                            CCRSJob job = (CCRSJob) ois.readObject();
+                        try {
+                            CCRSJob job = JobCodec.read( path );
 
                             // Add back important transient fields
                             job.setJobsDirectory( path.getParent() );
@@ -65,8 +63,8 @@ public class InMemoryJobRepository implements JobRepository {
                             job.setEmail( "" );
 
                             try {
-                                job.setResult( CCRSJobResult.parseResultCSVStream(
-                                        Files.newInputStream( job.getJobsDirectory().resolve( job.getOutputCSVFilename() ) ) ) );
+                                job.setResult( CCRSJobResult.loadResultFile(
+                                        job.getJobsDirectory().resolve( job.getOutputCSVFilename() ) ) );
                             } catch ( ResultFileException e ) {
                                 job.setResult( CCRSJobResult.createNullResult() );
                             }
@@ -74,8 +72,8 @@ public class InMemoryJobRepository implements JobRepository {
                             job.setSaveExpiredDate( System.currentTimeMillis() + applicationSettings.getPurgeAfterHours() * 60 * 60 * 1000 );
 
                             cacheJob( job );
-                        } catch ( ClassNotFoundException e ) {
-                            log.error( e );
+                        } catch ( IOException e ) {
+                            log.error( "Failed to read job: " + path, e );
                         }
                     }
                     return FileVisitResult.CONTINUE;
@@ -132,8 +130,8 @@ public class InMemoryJobRepository implements JobRepository {
     public void persistJob( CCRSJob job ) {
         // Write metadata to job folder
         Path serializedJob = job.getJobsDirectory().resolve( job.getJobSerializationFilename() );
-        try ( ObjectOutputStream oos = new ObjectOutputStream( Files.newOutputStream( serializedJob ) ) ) {
-            oos.writeObject( job );
+        try {
+            JobCodec.write( job, serializedJob );
         } catch ( IOException e ) {
             log.error( "Failed to serialize job: " + job.getJobId(), e );
         }
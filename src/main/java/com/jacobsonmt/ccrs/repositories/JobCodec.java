@@ -0,0 +1,246 @@
+package com.jacobsonmt.ccrs.repositories;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import com.jacobsonmt.ccrs.model.Taxa;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the metadata of a saved job.
+ *
+ * A file is the magic "CCRJ", a format version, the fields of the job in a fixed order for that version and a CRC32 of
+ * all that precedes it. Strings are a length and UTF-8 bytes, -1 for null. Files written with Java serialization by
+ * earlier versions are recognised by their stream header and still read.
+ */
+@Log4j2
+public final class JobCodec {
+
+    private static final byte[] MAGIC = {'C', 'C', 'R', 'J'};
+
+    static final int VERSION = 1;
+
+    // Header of a Java serialization stream
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xACED;
+
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private JobCodec() {}
+
+    public static byte[] encode( CCRSJob job ) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( 512 );
+            DataOutputStream out = new DataOutputStream( bytes );
+            out.write( MAGIC );
+            out.writeShort( VERSION );
+
+            writeString( out, job.getJobId() );
+            writeString( out, job.getClientId() );
+            writeString( out, job.getUserId() );
+            writeString( out, job.getLabel() );
+            out.writeBoolean( job.isHidden() );
+            writeString( out, job.getOutputCSVFilename() );
+            writeString( out, job.getInputFASTAFilename() );
+            writeString( out, job.getJobSerializationFilename() );
+
+            writeDate( out, job.getSubmittedDate() );
+            writeDate( out, job.getStartedDate() );
+            writeDate( out, job.getFinishedDate() );
+            out.writeBoolean( job.isRunning() );
+            out.writeBoolean( job.isFailed() );
+            out.writeBoolean( job.isComplete() );
+            writeString( out, job.getStatus() );
+            out.writeLong( job.getExecutionTime() );
+
+            Taxa taxa = job.getTaxa();
+            out.writeBoolean( taxa != null );
+            if ( taxa != null ) {
+                writeString( out, taxa.getKey() );
+                out.writeInt( taxa.getId() );
+                writeString( out, taxa.getName() );
+            }
+
+            Integer exitCode = job.getExitCode();
+            out.writeBoolean( exitCode != null );
+            out.writeInt( exitCode == null ? 0 : exitCode );
+            out.writeLong( job.getCommandMillis() );
+            writeString( out, job.getStdoutTail() );
+            writeString( out, job.getStderrTail() );
+            out.writeLong( job.getPeakMemoryKilobytes() );
+
+            out.flush();
+            out.writeInt( (int) crc32( bytes.toByteArray(), bytes.size() ) );
+            return bytes.toByteArray();
+        } catch ( IOException e ) {
+            // Not possible when writing to memory
+            throw new IllegalStateException( e );
+        }
+    }
+
+    public static CCRSJob decode( byte[] bytes ) throws IOException {
+        if ( isLegacy( bytes ) ) {
+            return decodeJavaSerialization( bytes );
+        }
+
+        if ( bytes.length < MAGIC.length + 2 + 4 ) {
+            throw new IOException( "Truncated job file" );
+        }
+        for ( int i = 0; i < MAGIC.length; i++ ) {
+            if ( bytes[i] != MAGIC[i] ) {
+                throw new IOException( "Not a job file" );
+            }
+        }
+        int end = bytes.length - 4;
+        int crc = ( bytes[end] & 0xFF ) << 24 | ( bytes[end + 1] & 0xFF ) << 16 | ( bytes[end + 2] & 0xFF ) << 8 |
+                ( bytes[end + 3] & 0xFF );
+        if ( crc != (int) crc32( bytes, end ) ) {
+            throw new IOException( "Corrupt job file" );
+        }
+
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes, MAGIC.length, end - MAGIC.length ) );
+        int version = in.readUnsignedShort();
+        if ( version != VERSION ) {
+            throw new IOException( "Unsupported job file version: " + version );
+        }
+
+        CCRSJob.CCRSJobBuilder builder = CCRSJob.builder()
+                .jobId( readString( in ) )
+                .clientId( readString( in ) )
+                .userId( readString( in ) )
+                .label( readString( in ) )
+                .hidden( in.readBoolean() )
+                .outputCSVFilename( readString( in ) )
+                .inputFASTAFilename( readString( in ) )
+                .jobSerializationFilename( readString( in ) )
+                .submittedDate( readDate( in ) )
+                .startedDate( readDate( in ) )
+                .finishedDate( readDate( in ) )
+                .running( in.readBoolean() )
+                .failed( in.readBoolean() )
+                .complete( in.readBoolean() )
+                .status( readString( in ) )
+                .executionTime( in.readLong() );
+        if ( in.readBoolean() ) {
+            builder.taxa( new Taxa( readString( in ), in.readInt(), readString( in ) ) );
+        }
+        boolean hasExitCode = in.readBoolean();
+        int exitCode = in.readInt();
+        return builder
+                .exitCode( hasExitCode ? exitCode : null )
+                .commandMillis( in.readLong() )
+                .stdoutTail( readString( in ) )
+                .stderrTail( readString( in ) )
+                .peakMemoryKilobytes( in.readLong() )
+                .build();
+    }
+
+    /**
+     * @return true if the bytes were written with Java serialization
+     */
+    static boolean isLegacy( byte[] bytes ) {
+        return bytes.length >= 2 && ( ( bytes[0] & 0xFF ) << 8 | ( bytes[1] & 0xFF ) ) == JAVA_SERIALIZATION_MAGIC;
+    }
+
+    /**
+     * Read a job, rewriting it in the current format if it was written with Java serialization.
+     */
+    public static CCRSJob read( Path path ) throws IOException {
+        byte[] bytes = Files.readAllBytes( path );
+        CCRSJob job = decode( bytes );
+        if ( isLegacy( bytes ) ) {
+            try {
+                write( job, path );
+                log.info( "Migrated job file: " + path );
+            } catch ( IOException e ) {
+                log.warn( "Failed to migrate job file: " + path, e );
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Write the job, replacing the file only once it is complete, and force both the file and its directory to disk so
+     * that the job is saved when this returns.
+     */
+    public static void write( CCRSJob job, Path path ) throws IOException {
+        Path tmp = path.resolveSibling( path.getFileName() + ".tmp" );
+        try ( FileChannel out = FileChannel.open( tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING ) ) {
+            ByteBuffer buffer = ByteBuffer.wrap( encode( job ) );
+            while ( buffer.hasRemaining() ) {
+                out.write( buffer );
+            }
+            out.force( false );
+        }
+        Files.move( tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        forceDirectory( path.toAbsolutePath().getParent() );
+    }
+
+    /**
+     * Force a directory's entries to disk, so that a file moved into it is still there after a crash.
+     */
+    private static void forceDirectory( Path directory ) {
+        try ( FileChannel channel = FileChannel.open( directory, StandardOpenOption.READ ) ) {
+            channel.force( true );
+        } catch ( IOException e ) {
+            // Directories can't be opened or forced on some platforms, Windows for one
+        }
+    }
+
+    private static CCRSJob decodeJavaSerialization( byte[] bytes ) throws IOException {
+        try ( ObjectInputStream ois = new ObjectInputStream( new ByteArrayInputStream( bytes ) ) ) {
+            return (CCRSJob) ois.readObject();
+        } catch ( ClassNotFoundException | ClassCastException e ) {
+            throw new IOException( "Unreadable job file", e );
+        }
+    }
+
+    private static long crc32( byte[] bytes, int length ) {
+        CRC32 crc = new CRC32();
+        crc.update( bytes, 0, length );
+        return crc.getValue();
+    }
+
+    private static void writeDate( DataOutputStream out, Date value ) throws IOException {
+        out.writeLong( value == null ? NO_DATE : value.getTime() );
+    }
+
+    private static Date readDate( DataInputStream in ) throws IOException {
+        long value = in.readLong();
+        return value == NO_DATE ? null : new Date( value );
+    }
+
+    private static void writeString( DataOutputStream out, String value ) throws IOException {
+        if ( value == null ) {
+            out.writeInt( -1 );
+            return;
+        }
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readString( DataInputStream in ) throws IOException {
+        int length = in.readInt();
+        if ( length < 0 ) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+}
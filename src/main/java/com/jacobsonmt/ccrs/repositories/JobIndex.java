@@ -0,0 +1,393 @@
+package com.jacobsonmt.ccrs.repositories;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only index of saved jobs so that they can be listed on startup without reading every job folder.
+ *
+ * The file is the magic "CCRI" and a version followed by records, each its length, a CRC32 of its body and the body.
+ * A record either adds a job with what is needed to list it or removes one. Records are forced to disk as they are
+ * appended, once for each group of jobs saved together. The file is rewritten with only the jobs it holds once it has
+ * grown past the compaction threshold and to twice its size after it was last rewritten, so that rewrites stay rare
+ * however many jobs are saved.
+ *
+ * A job is added to the index before its folder is written, so the index never misses a saved job but may name one
+ * whose folder does not exist. An index that is missing, torn or corrupt is not trusted at all and should be rebuilt
+ * from the job folders. While it is rebuilt changes are gathered in memory along with the jobs found and written out
+ * together once the rebuild finishes.
+ */
+@Log4j2
+final class JobIndex {
+
+    private static final byte[] MAGIC = {'C', 'C', 'R', 'I'};
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = MAGIC.length + 2;
+
+    private static final byte PUT = 0;
+    private static final byte REMOVE = 1;
+
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final Path file;
+
+    private final long compactBytes;
+
+    // Opened on first write
+    private FileChannel channel;
+
+    private long fileSize;
+
+    // Size of the file holding only saved jobs, as last loaded or rewritten
+    private long liveSize;
+
+    // Jobs gathered while the index is rebuilt and those removed meanwhile, null otherwise
+    private Map<String, Entry> rebuilt;
+    private Set<String> removedWhileRebuilding;
+
+    JobIndex( Path file, long compactBytes ) {
+        this.file = file;
+        this.compactBytes = compactBytes;
+    }
+
+    /**
+     * Read the index in one pass.
+     *
+     * @return saved jobs in the order they were added, or null if the index is missing or can not be trusted
+     */
+    synchronized Collection<Entry> load() {
+        try {
+            Map<String, Entry> entries = read();
+            fileSize = Files.size( file );
+            liveSize = HEADER_BYTES;
+            for ( Entry entry : entries.values() ) {
+                liveSize += encode( entry ).length;
+            }
+            return entries.values();
+        } catch ( NoSuchFileException e ) {
+            log.info( "No job index found: " + file );
+        } catch ( IOException e ) {
+            log.warn( "Job index is unreadable: " + file, e );
+        }
+        return null;
+    }
+
+    /**
+     * Add or replace a job.
+     */
+    synchronized void put( CCRSJob job ) throws IOException {
+        putAll( Collections.singletonList( job ) );
+    }
+
+    /**
+     * Add or replace jobs, forcing them to disk together.
+     */
+    synchronized void putAll( Collection<CCRSJob> jobs ) throws IOException {
+        if ( rebuilt != null ) {
+            for ( CCRSJob job : jobs ) {
+                rebuilt.put( job.getJobId(), Entry.of( job ) );
+                removedWhileRebuilding.remove( job.getJobId() );
+            }
+            return;
+        }
+        ByteArrayOutputStream records = new ByteArrayOutputStream( jobs.size() * 128 );
+        for ( CCRSJob job : jobs ) {
+            byte[] record = encode( Entry.of( job ) );
+            records.write( record, 0, record.length );
+        }
+        append( records.toByteArray() );
+    }
+
+    synchronized void remove( String jobId ) throws IOException {
+        if ( rebuilt != null ) {
+            rebuilt.remove( jobId );
+            removedWhileRebuilding.add( jobId );
+            return;
+        }
+        append( encodeRemove( jobId ) );
+    }
+
+    /**
+     * Stop appending to the index until {@link #finishRebuild}, gathering changes in memory instead.
+     */
+    synchronized void startRebuild() {
+        close();
+        rebuilt = new LinkedHashMap<>();
+        removedWhileRebuilding = new HashSet<>();
+    }
+
+    synchronized boolean isRebuilding() {
+        return rebuilt != null;
+    }
+
+    /**
+     * Add a job found while rebuilding, unless it was saved again or removed since.
+     */
+    synchronized void addRebuilt( Entry entry ) {
+        if ( !removedWhileRebuilding.contains( entry.getJobId() ) ) {
+            rebuilt.putIfAbsent( entry.getJobId(), entry );
+        }
+    }
+
+    /**
+     * Replace the index with the jobs gathered since {@link #startRebuild}.
+     */
+    synchronized void finishRebuild() throws IOException {
+        Map<String, Entry> entries = rebuilt;
+        rebuilt = null;
+        removedWhileRebuilding = null;
+        rewrite( entries.values() );
+    }
+
+    /**
+     * Give up on a rebuild, leaving no index so that it is rebuilt again on the next startup.
+     */
+    synchronized void abandonRebuild() throws IOException {
+        rebuilt = null;
+        removedWhileRebuilding = null;
+        Files.deleteIfExists( file );
+    }
+
+    /**
+     * Replace the index with the given jobs.
+     */
+    synchronized void rewrite( Collection<Entry> entries ) throws IOException {
+        if ( file.getParent() != null ) {
+            Files.createDirectories( file.getParent() );
+        }
+        Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+        long size = HEADER_BYTES;
+        try ( FileChannel out = FileChannel.open( tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING ) ) {
+            write( out, header() );
+            for ( Entry entry : entries ) {
+                size += write( out, encode( entry ) );
+            }
+            out.force( false );
+        }
+
+        close();
+        Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        fileSize = size;
+        liveSize = size;
+    }
+
+    synchronized void close() {
+        if ( channel != null ) {
+            try {
+                channel.close();
+            } catch ( IOException e ) {
+                log.warn( "Failed to close job index", e );
+            }
+            channel = null;
+        }
+    }
+
+    private void append( byte[] records ) throws IOException {
+        if ( channel == null ) {
+            if ( !Files.exists( file ) ) {
+                // Only a scan of the job folders can start an index, it is rebuilt on the next startup
+                return;
+            }
+            channel = FileChannel.open( file, StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+            fileSize = channel.size();
+        }
+        fileSize += write( channel, records );
+        channel.force( false );
+
+        if ( fileSize > Math.max( compactBytes, 2 * liveSize ) ) {
+            compact();
+        }
+    }
+
+    private void compact() throws IOException {
+        Map<String, Entry> entries = read();
+        long before = fileSize;
+        rewrite( entries.values() );
+        log.info( "Compacted job index from " + before + " to " + fileSize + " bytes, " + entries.size() + " jobs" );
+    }
+
+    private Map<String, Entry> read() throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( file ), 1 << 16 ) ) ) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully( magic );
+            for ( int i = 0; i < MAGIC.length; i++ ) {
+                if ( magic[i] != MAGIC[i] ) {
+                    throw new IOException( "Not a job index" );
+                }
+            }
+            int version = in.readUnsignedShort();
+            if ( version != VERSION ) {
+                throw new IOException( "Unsupported job index version: " + version );
+            }
+
+            while ( true ) {
+                // Only a clean end between records, anything torn throws EOFException
+                int first = in.read();
+                if ( first < 0 ) {
+                    break;
+                }
+                int length = first << 24 | in.readUnsignedByte() << 16 | in.readUnsignedShort();
+                long crc = in.readInt() & 0xffffffffL;
+                if ( length < 0 ) {
+                    throw new IOException( "Corrupt job index record after " + entries.size() + " jobs" );
+                }
+                byte[] record = new byte[length];
+                in.readFully( record );
+                if ( crc32( record ) != crc ) {
+                    throw new IOException( "Corrupt job index record after " + entries.size() + " jobs" );
+                }
+
+                DataInputStream body = new DataInputStream( new ByteArrayInputStream( record ) );
+                byte type = body.readByte();
+                String jobId = readString( body );
+                if ( type == REMOVE ) {
+                    entries.remove( jobId );
+                } else {
+                    // Replaced jobs keep their original place
+                    entries.put( jobId, new Entry( jobId, readString( body ), readString( body ), readDate( body ),
+                            readDate( body ), readString( body ) ) );
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] header() {
+        ByteBuffer header = ByteBuffer.allocate( HEADER_BYTES );
+        header.put( MAGIC );
+        header.putShort( (short) VERSION );
+        return header.array();
+    }
+
+    private static int write( FileChannel out, byte[] bytes ) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap( bytes );
+        while ( buffer.hasRemaining() ) {
+            out.write( buffer );
+        }
+        return bytes.length;
+    }
+
+    private static byte[] encode( Entry entry ) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( 128 );
+            DataOutputStream body = new DataOutputStream( bytes );
+            body.writeByte( PUT );
+            writeString( body, entry.getJobId() );
+            writeString( body, entry.getClientId() );
+            writeString( body, entry.getUserId() );
+            writeDate( body, entry.getSubmittedDate() );
+            writeDate( body, entry.getFinishedDate() );
+            writeString( body, entry.getStatus() );
+            body.flush();
+            return frame( bytes.toByteArray() );
+        } catch ( IOException e ) {
+            // Not possible when writing to memory
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static byte[] encodeRemove( String jobId ) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 );
+            DataOutputStream body = new DataOutputStream( bytes );
+            body.writeByte( REMOVE );
+            writeString( body, jobId );
+            body.flush();
+            return frame( bytes.toByteArray() );
+        } catch ( IOException e ) {
+            // Not possible when writing to memory
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static byte[] frame( byte[] body ) {
+        ByteBuffer record = ByteBuffer.allocate( body.length + 8 );
+        record.putInt( body.length );
+        record.putInt( (int) crc32( body ) );
+        record.put( body );
+        return record.array();
+    }
+
+    private static long crc32( byte[] body ) {
+        CRC32 crc = new CRC32();
+        crc.update( body, 0, body.length );
+        return crc.getValue();
+    }
+
+    private static void writeDate( DataOutputStream out, Date value ) throws IOException {
+        out.writeLong( value == null ? NO_DATE : value.getTime() );
+    }
+
+    private static Date readDate( DataInputStream in ) throws IOException {
+        long value = in.readLong();
+        return value == NO_DATE ? null : new Date( value );
+    }
+
+    private static void writeString( DataOutputStream out, String value ) throws IOException {
+        if ( value == null ) {
+            out.writeInt( -1 );
+            return;
+        }
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readString( DataInputStream in ) throws IOException {
+        int length = in.readInt();
+        if ( length < 0 ) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * What is needed to list a saved job without reading it.
+     */
+    @Getter
+    @AllArgsConstructor
+    static final class Entry {
+        private final String jobId;
+        private final String clientId;
+        private final String userId;
+        private final Date submittedDate;
+        private final Date finishedDate;
+        private final String status;
+
+        static Entry of( CCRSJob job ) {
+            return new Entry( job.getJobId(), job.getClientId(), job.getUserId(), job.getSubmittedDate(),
+                    job.getFinishedDate(), job.getStatus() );
+        }
+    }
+}
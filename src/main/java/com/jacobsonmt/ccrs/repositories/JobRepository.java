@@ -2,6 +2,7 @@ package com.jacobsonmt.ccrs.repositories;
 
 import com.jacobsonmt.ccrs.model.CCRSJob;
 
+import java.util.Collection;
 import java.util.stream.Stream;
 
 public interface JobRepository {
@@ -16,6 +17,13 @@ public interface JobRepository {
 
     void persistJob( CCRSJob job );
 
+    /**
+     * Save a group of jobs, sharing what it costs to make them durable where possible.
+     */
+    default void persistJobs( Collection<CCRSJob> jobs ) {
+        jobs.forEach( this::persistJob );
+    }
+
     void cacheJob( CCRSJob job );
 
 }
@@ -0,0 +1,170 @@
+package com.jacobsonmt.ccrs.repositories;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Reads every saved job in the jobs directory, for when the job index can not be used.
+ *
+ * Job folders are listed first and their jobs then read on a fork-join pool of bounded size. Each job is handed to the
+ * consumer, from the pool's threads, as soon as it is read so that it can be served while the rest are still being
+ * read.
+ */
+@Log4j2
+public final class RecoveryScan {
+
+    // Job folders read by one task without splitting further
+    private static final int THRESHOLD = 64;
+
+    // Progress is logged every this many jobs
+    private static final int LOG_EVERY = 10000;
+
+    private final Path jobsDirectory;
+
+    private final String jobSerializationFilename;
+
+    private final int parallelism;
+
+    private final AtomicInteger read = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    // Unknown until job folders are listed
+    private volatile int total = -1;
+    private volatile boolean running;
+    private volatile long startedMillis;
+    private volatile long finishedMillis;
+
+    /**
+     * @param parallelism threads used to read jobs, 0 for one per available processor
+     */
+    RecoveryScan( Path jobsDirectory, String jobSerializationFilename, int parallelism ) {
+        this.jobsDirectory = jobsDirectory;
+        this.jobSerializationFilename = jobSerializationFilename;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Start reading jobs in the background.
+     *
+     * @return completes once every job has been read, exceptionally if the job folders could not be listed
+     */
+    CompletableFuture<Void> start( Consumer<CCRSJob> consumer ) {
+        ForkJoinPool pool = new ForkJoinPool( parallelism, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread( p );
+            t.setName( "job-recovery-" + t.getPoolIndex() );
+            t.setDaemon( true );
+            return t;
+        }, null, false );
+
+        running = true;
+        startedMillis = System.currentTimeMillis();
+        return CompletableFuture.runAsync( () -> {
+            List<Path> folders = listJobFolders();
+            total = folders.size();
+            log.info( "Reading " + total + " job folders on " + parallelism + " threads" );
+            new ScanTask( folders, 0, folders.size(), consumer ).invoke();
+        }, pool ).whenComplete( ( v, e ) -> {
+            finishedMillis = System.currentTimeMillis();
+            running = false;
+            pool.shutdown();
+            if ( e == null ) {
+                log.info( "Read " + read.get() + " jobs in " + ( finishedMillis - startedMillis ) + " ms, " +
+                        failed.get() + " failed" );
+            }
+        } );
+    }
+
+    private List<Path> listJobFolders() {
+        List<Path> folders = new ArrayList<>();
+        try ( DirectoryStream<Path> stream = Files.newDirectoryStream( jobsDirectory, Files::isDirectory ) ) {
+            for ( Path folder : stream ) {
+                folders.add( folder );
+            }
+        } catch ( NoSuchFileException e ) {
+            log.info( "No jobs directory: " + jobsDirectory );
+        } catch ( IOException e ) {
+            throw new IllegalStateException( "Failed to list job folders: " + jobsDirectory, e );
+        }
+        return folders;
+    }
+
+    private void readJob( Path folder, Consumer<CCRSJob> consumer ) {
+        Path path = folder.resolve( jobSerializationFilename );
+        CCRSJob job;
+        try {
+            job = JobCodec.read( path );
+        } catch ( NoSuchFileException e ) {
+            // Not a saved job, e.g. still running or a batch
+            return;
+        } catch ( IOException | RuntimeException e ) {
+            failed.incrementAndGet();
+            log.error( "Failed to read job: " + path, e );
+            return;
+        }
+
+        consumer.accept( job );
+        int count = read.incrementAndGet();
+        if ( count % LOG_EVERY == 0 ) {
+            log.info( "Read " + count + " of " + total + " job folders" );
+        }
+    }
+
+    Progress getProgress() {
+        long end = running ? System.currentTimeMillis() : finishedMillis;
+        return new Progress( running, total, read.get(), failed.get(), startedMillis == 0 ? 0 : end - startedMillis );
+    }
+
+    private final class ScanTask extends RecursiveAction {
+
+        private final List<Path> folders;
+        private final int from;
+        private final int to;
+        private final Consumer<CCRSJob> consumer;
+
+        private ScanTask( List<Path> folders, int from, int to, Consumer<CCRSJob> consumer ) {
+            this.folders = folders;
+            this.from = from;
+            this.to = to;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            if ( to - from <= THRESHOLD ) {
+                for ( int i = from; i < to; i++ ) {
+                    readJob( folders.get( i ), consumer );
+                }
+                return;
+            }
+            int middle = ( from + to ) >>> 1;
+            invokeAll( new ScanTask( folders, from, middle, consumer ), new ScanTask( folders, middle, to, consumer ) );
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Progress {
+        private final boolean running;
+        // Job folders found, -1 while they are being listed
+        private final int total;
+        private final int read;
+        private final int failed;
+        private final long elapsedMillis;
+    }
+}
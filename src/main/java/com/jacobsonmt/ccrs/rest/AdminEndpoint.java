@@ -0,0 +1,128 @@
+package com.jacobsonmt.ccrs.rest;
+
+import com.jacobsonmt.ccrs.repositories.CaffeineJobRepository;
+import com.jacobsonmt.ccrs.repositories.RecoveryScan;
+import com.jacobsonmt.ccrs.scheduling.ResourceBudget;
+import com.jacobsonmt.ccrs.scheduling.RuntimeEstimator;
+import com.jacobsonmt.ccrs.services.ConcurrencyController;
+import com.jacobsonmt.ccrs.services.ResultCache;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Endpoints to monitor the server, only available to the admin client.
+ */
+@Log4j2
+@RequestMapping("/api/admin")
+@RestController
+public class AdminEndpoint {
+
+    private final ResultCache resultCache;
+
+    private final RuntimeEstimator runtimeEstimator;
+
+    private final ResourceBudget resourceBudget;
+
+    private final ConcurrencyController concurrencyController;
+
+    private final CaffeineJobRepository jobRepository;
+
+    public AdminEndpoint( ResultCache resultCache, RuntimeEstimator runtimeEstimator, ResourceBudget resourceBudget,
+                          ConcurrencyController concurrencyController, CaffeineJobRepository jobRepository ) {
+        this.resultCache = resultCache;
+        this.runtimeEstimator = runtimeEstimator;
+        this.resourceBudget = resourceBudget;
+        this.concurrencyController = concurrencyController;
+        this.jobRepository = jobRepository;
+    }
+
+    private static boolean isAdmin() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication.getName().equals( "admin" );
+    }
+
+    @RequestMapping(value = "/result-cache", method = RequestMethod.GET, produces = {MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<ResultCache.Stats> getResultCacheStats() {
+        if ( !isAdmin() ) {
+            return ResponseEntity.status( HttpStatus.UNAUTHORIZED ).body( null );
+        }
+        return ResponseEntity.ok( resultCache.getStats() );
+    }
+
+    /**
+     * @return runtime model used to order queued jobs, fitted from finished jobs
+     */
+    @RequestMapping(value = "/runtime-estimates", method = RequestMethod.GET, produces = {MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<RuntimeEstimator.Model> getRuntimeEstimates() {
+        if ( !isAdmin() ) {
+            return ResponseEntity.status( HttpStatus.UNAUTHORIZED ).body( null );
+        }
+        return ResponseEntity.ok( runtimeEstimator.getModel() );
+    }
+
+    /**
+     * @return memory and CPU held by running jobs and the memory model used to admit them
+     */
+    @RequestMapping(value = "/resources", method = RequestMethod.GET, produces = {MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<ResourceBudget.Stats> getResources() {
+        if ( !isAdmin() ) {
+            return ResponseEntity.status( HttpStatus.UNAUTHORIZED ).body( null );
+        }
+        return ResponseEntity.ok( resourceBudget.getStats() );
+    }
+
+    /**
+     * @return number of jobs run at once and what it is based on
+     */
+    @RequestMapping(value = "/concurrency", method = RequestMethod.GET, produces = {MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<ConcurrencyController.Stats> getConcurrency() {
+        if ( !isAdmin() ) {
+            return ResponseEntity.status( HttpStatus.UNAUTHORIZED ).body( null );
+        }
+        return ResponseEntity.ok( concurrencyController.getStats() );
+    }
+
+    /**
+     * Fix the number of jobs run at once, or without a limit let it adapt again.
+     */
+    @RequestMapping(value = "/concurrency", method = RequestMethod.POST, produces = {MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<ConcurrencyController.Stats> setConcurrency( @RequestParam(value = "limit", required = false) Integer limit ) {
+        if ( !isAdmin() ) {
+            return ResponseEntity.status( HttpStatus.UNAUTHORIZED ).body( null );
+        }
+        concurrencyController.setOverride( limit );
+        return ResponseEntity.ok( concurrencyController.getStats() );
+    }
+
+    /**
+     * @return size, hit rate and evictions of the cache of saved jobs
+     */
+    @RequestMapping(value = "/job-cache", method = RequestMethod.GET, produces = {MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<CaffeineJobRepository.Stats> getJobCache() {
+        if ( !isAdmin() ) {
+            return ResponseEntity.status( HttpStatus.UNAUTHORIZED ).body( null );
+        }
+        return ResponseEntity.ok( jobRepository.getCacheStats() );
+    }
+
+    /**
+     * @return progress of reading saved jobs from their folders, empty if they were listed from the index
+     */
+    @RequestMapping(value = "/job-recovery", method = RequestMethod.GET, produces = {MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<RecoveryScan.Progress> getJobRecovery() {
+        if ( !isAdmin() ) {
+            return ResponseEntity.status( HttpStatus.UNAUTHORIZED ).body( null );
+        }
+        RecoveryScan.Progress progress = jobRepository.getRecoveryProgress();
+        return progress == null ? ResponseEntity.noContent().build() : ResponseEntity.ok( progress );
+    }
+
+}
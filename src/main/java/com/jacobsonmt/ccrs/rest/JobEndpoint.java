@@ -2,12 +2,21 @@ package com.jacobsonmt.ccrs.rest;
 
 import com.jacobsonmt.ccrs.exceptions.FASTAValidationException;
 import com.jacobsonmt.ccrs.model.CCRSJob;
+import com.jacobsonmt.ccrs.model.CCRSJobResult;
 import com.jacobsonmt.ccrs.model.FASTASequence;
 import com.jacobsonmt.ccrs.model.Message;
 import com.jacobsonmt.ccrs.services.JobManager;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
 import javax.validation.Valid;
 import javax.validation.constraints.Email;
 import javax.validation.constraints.NotBlank;
@@ -16,6 +25,9 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -32,6 +44,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  * Endpoints to access and submit jobs.
@@ -163,7 +176,7 @@ public class JobEndpoint {
     }
 
     @GetMapping("/{jobId}/resultCSV")
-    public ResponseEntity<String> jobResultCSV( @PathVariable("jobId") String jobId) {
+    public ResponseEntity<?> jobResultCSV( @PathVariable("jobId") String jobId) {
         CCRSJob job = jobManager.getSavedJob( jobId );
 
         if ( job == null ) {
@@ -178,25 +191,109 @@ public class JobEndpoint {
             return ResponseEntity.status( HttpStatus.NOT_FOUND ).body( "Job Failed" );
         }
 
-        return createStreamingResponse(job.getResult().getResultCSV(), job.getLabel() + ".list");
+        return createStreamingResponse( jobFile( job, job.getOutputCSVFilename() ), () -> job.getResult().getResultCSV(),
+                job.getLabel() + ".list" );
+    }
+
+    /**
+     * Part of a result as tab separated text, limited to a range of positions and chosen columns.
+     *
+     * @param from first position, starting at 1
+     * @param to last position, inclusive, defaults to the end of the sequence
+     * @param step return every step-th position from the first
+     * @param columns names of columns from the result header, defaults to all
+     */
+    @GetMapping("/{jobId}/resultSlice")
+    public ResponseEntity<StreamingResponseBody> jobResultSlice( @PathVariable("jobId") String jobId,
+                                                                 @RequestParam(value = "from", defaultValue = "1") int from,
+                                                                 @RequestParam(value = "to", defaultValue = "" + Integer.MAX_VALUE) int to,
+                                                                 @RequestParam(value = "step", defaultValue = "1") int step,
+                                                                 @RequestParam(value = "columns", required = false) List<String> columns ) {
+        if ( from < 1 || to < from || step < 1 ) {
+            return ResponseEntity.badRequest().body( text( "Invalid range: from " + from + " to " + to + " step " + step ) );
+        }
+
+        int[] columnIndices = null;
+        if ( columns != null && !columns.isEmpty() ) {
+            columnIndices = new int[columns.size()];
+            for ( int i = 0; i < columnIndices.length; i++ ) {
+                columnIndices[i] = CCRSJobResult.columnIndex( columns.get( i ) );
+                if ( columnIndices[i] < 0 ) {
+                    return ResponseEntity.badRequest().body( text( "Unknown column: " + columns.get( i ) ) );
+                }
+            }
+        }
+
+        CCRSJob job = jobManager.getSavedJob( jobId );
+
+        if ( job == null ) {
+            return ResponseEntity.status( HttpStatus.NOT_FOUND ).body( text( "Job Not Found" ) );
+        }
+
+        if ( !job.isComplete() ) {
+            return ResponseEntity.status( HttpStatus.PROCESSING ).body( text( "Not Yet Complete" ) );
+        }
+
+        CCRSJobResult result = job.getResult();
+        if ( job.isFailed() || result == null || result.getBases() == null ) {
+            return ResponseEntity.status( HttpStatus.NOT_FOUND ).body( text( "Job Failed" ) );
+        }
+
+        int[] selected = columnIndices;
+        StreamingResponseBody body = out -> {
+            Writer writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+            result.writeSlice( writer, from, to, step, selected );
+            writer.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType( MediaType.parseMediaType( "text/tab-separated-values" ) )
+                .body( body );
+    }
+
+    private static StreamingResponseBody text( String message ) {
+        return out -> out.write( message.getBytes( StandardCharsets.UTF_8 ) );
     }
 
     @GetMapping("/{jobId}/inputFASTA")
-    public ResponseEntity<String> jobInputFASTA( @PathVariable("jobId") String jobId) {
+    public ResponseEntity<?> jobInputFASTA( @PathVariable("jobId") String jobId) {
         CCRSJob job = jobManager.getSavedJob( jobId );
 
         if ( job == null ) {
             return ResponseEntity.status( HttpStatus.NOT_FOUND ).body( "Job Not Found" );
         }
 
-        return createStreamingResponse(job.getInputFASTAContent(), job.getLabel() + ".fasta");
+        return createStreamingResponse( jobFile( job, job.getInputFASTAFilename() ), job::getInputFASTAContent,
+                job.getLabel() + ".fasta" );
+    }
+
+    private static Path jobFile( CCRSJob job, String filename ) {
+        if ( job.getJobsDirectory() == null || filename == null ) {
+            return null;
+        }
+        return job.getJobsDirectory().resolve( filename );
+    }
+
+    /**
+     * Send the file as it is on disk, only building the content when there is no file.
+     */
+    private ResponseEntity<Resource> createStreamingResponse( Path file, Supplier<String> content, String filename ) {
+        if ( file != null && Files.isRegularFile( file ) ) {
+            try {
+                return createStreamingResponse( new FileSystemResource( file ), Files.size( file ), filename );
+            } catch ( IOException e ) {
+                log.warn( "Unable to read {}, regenerating", file, e );
+            }
+        }
+        byte[] bytes = content.get().getBytes( StandardCharsets.UTF_8 );
+        return createStreamingResponse( new ByteArrayResource( bytes ), bytes.length, filename );
     }
 
-    private ResponseEntity<String> createStreamingResponse( String content, String filename ) {
+    private ResponseEntity<Resource> createStreamingResponse( Resource resource, long length, String filename ) {
         return ResponseEntity.ok()
                 .contentType( MediaType.parseMediaType("application/octet-stream"))
+                .contentLength( length )
                 .header( HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                .body(content);
+                .body(resource);
     }
 
     private CCRSJob.CCRSJobVO createJobValueObject( CCRSJob job, boolean withResults ) {
@@ -39,6 +39,19 @@ public class QueueEndpoint {
         return ResponseEntity.ok( jobManager.getCompletionCount( clientId ) );
     }
 
+    /**
+     * @return Number of jobs for a client that were stopped for running too long since startup.
+     */
+    @RequestMapping(value = "/client/{clientId}/timeouts", method = RequestMethod.GET, produces = {MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<Integer> getTimeoutCount( @PathVariable String clientId ) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        String client = authentication.getName();
+        if ( !client.equals( clientId ) && !client.equals( "admin" ) ) {
+            return ResponseEntity.status( HttpStatus.UNAUTHORIZED ).body( null );
+        }
+        return ResponseEntity.ok( jobManager.getTimeoutCount( clientId ) );
+    }
+
 //    @RequestMapping(value = "/public", method = RequestMethod.GET, produces = {MediaType.APPLICATION_JSON_VALUE})
 //    public ResponseEntity<List<CCRSJob.CCRSJobVO>> getJobs( @RequestParam(value = "withResults", defaultValue = "false") boolean withResults ) {
 //        return ResponseEntity.ok( jobManager.listPublicJobs( withResults ) );
@@ -0,0 +1,348 @@
+package com.jacobsonmt.ccrs.scheduling;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import com.jacobsonmt.ccrs.settings.ClientSettings;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Shares the process queue fairly between clients and between the users of each client.
+ *
+ * Users of a client are served round-robin when jobs are promoted up the tiers and clients are served by weighted
+ * deficit round-robin when ready jobs are handed to workers. Limits are checked against counters kept up to date as
+ * jobs move, so admission and promotion do not depend on queue lengths.
+ *
+ * With shortest job first enabled the queues of each user and each client's ready jobs are ordered by estimated
+ * runtime, aged by the time since the job was submitted so that long jobs are not starved. Otherwise they are FIFO,
+ * as are jobs queued before the runtime estimator has been trained.
+ */
+@Log4j2
+@Component
+public class FairShareJobScheduler implements JobScheduler {
+
+    // Every job costs the same amount of a client's deficit
+    private static final int JOB_COST = 1;
+
+    private final ClientSettings clientSettings;
+
+    private final ApplicationSettings applicationSettings;
+
+    private final RuntimeEstimator runtimeEstimator;
+
+    // Time each job in the scheduler's queues was submitted, used to age it
+    private final Map<CCRSJob, Long> submittedMillis = new HashMap<>();
+
+    private final Map<String, ClientShare> clients = new HashMap<>();
+
+    // Clients with ready jobs in deficit round-robin order
+    private final Deque<ClientShare> activeClients = new ArrayDeque<>();
+
+    private Consumer<CCRSJob> readyListener = job -> {};
+
+    public FairShareJobScheduler( ClientSettings clientSettings, ApplicationSettings applicationSettings,
+                                  RuntimeEstimator runtimeEstimator ) {
+        this.clientSettings = clientSettings;
+        this.applicationSettings = applicationSettings;
+        this.runtimeEstimator = runtimeEstimator;
+    }
+
+    @Override
+    public synchronized void setReadyListener( Consumer<CCRSJob> listener ) {
+        this.readyListener = listener;
+    }
+
+    @Override
+    public synchronized boolean submit( CCRSJob job ) {
+        ClientSettings.ApplicationClient limits = limits( job.getClientId() );
+        ClientShare client = clients.computeIfAbsent( job.getClientId(), id -> new ClientShare( id, newQueue() ) );
+        UserShare user = client.users.computeIfAbsent( job.getUserId(), id -> new UserShare( id, newQueue(), newQueue() ) );
+
+        log.debug( "Found {} existing jobs for user {} in user queue", user.pending.size(), job.getUserId() );
+
+        if ( user.pending.size() >= limits.getUserJobLimit() ) {
+            log.info( "Too many jobs in user queue, failed to submit job ({}) for client-user: ({}-{})",
+                    job.getJobId(), job.getClientId(), job.getUserId() );
+            return false;
+        }
+
+        if ( !user.pending.contains( job ) ) {
+            log.info( "Submitting job ({}) for client-user: ({}-{}) to user queue",
+                    job.getJobId(), job.getClientId(), job.getUserId() );
+            submittedMillis.putIfAbsent( job, System.currentTimeMillis() );
+            user.pending.add( job );
+            job.setStatus( "Pending..." );
+            markEligible( client, user, limits );
+            fill( client, limits );
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean cancel( CCRSJob job ) {
+        ClientShare client = clients.get( job.getClientId() );
+        if ( client == null ) {
+            return false;
+        }
+
+        boolean removed = false;
+        UserShare user = client.users.get( job.getUserId() );
+        if ( user != null ) {
+            if ( user.pending.remove( job ) ) {
+                removed = true;
+            } else if ( user.waiting.remove( job ) ) {
+                client.waiting--;
+                removed = true;
+            }
+        }
+
+        if ( !removed && client.ready.remove( job ) ) {
+            client.dispatched--;
+            removed = true;
+        }
+
+        if ( removed ) {
+            submittedMillis.remove( job );
+            log.info( "Removed job ({}) for client-user: ({}-{}) from queue",
+                    job.getJobId(), job.getClientId(), job.getUserId() );
+            ClientSettings.ApplicationClient limits = limits( job.getClientId() );
+            if ( user != null ) {
+                markEligible( client, user, limits );
+            }
+            fill( client, limits );
+            removeIfIdle( client, user );
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized List<CCRSJob> cancelAll( String clientId, String userId ) {
+        List<CCRSJob> removed = new ArrayList<>();
+        ClientShare client = clients.get( clientId );
+        if ( client == null ) {
+            return removed;
+        }
+
+        UserShare user = client.users.get( userId );
+        if ( user != null ) {
+            removed.addAll( user.pending );
+            removed.addAll( user.waiting );
+            client.waiting -= user.waiting.size();
+            user.pending.clear();
+            user.waiting.clear();
+        }
+
+        for ( Iterator<CCRSJob> it = client.ready.iterator(); it.hasNext(); ) {
+            CCRSJob job = it.next();
+            if ( job.getUserId().equals( userId ) ) {
+                it.remove();
+                client.dispatched--;
+                removed.add( job );
+            }
+        }
+
+        removed.forEach( submittedMillis::remove );
+        log.info( "Removed {} jobs for client-user: ({}-{}) from queue", removed.size(), clientId, userId );
+        fill( client, limits( clientId ) );
+        removeIfIdle( client, user );
+        return removed;
+    }
+
+    @Override
+    public CCRSJob next() {
+        return next( job -> true );
+    }
+
+    @Override
+    public synchronized CCRSJob next( Predicate<CCRSJob> filter ) {
+        while ( !activeClients.isEmpty() ) {
+            ClientShare client = activeClients.peek();
+
+            if ( client.ready.isEmpty() ) {
+                activeClients.poll();
+                client.active = false;
+                client.deficit = 0;
+                continue;
+            }
+
+            if ( !filter.test( client.ready.peek() ) ) {
+                return null;
+            }
+
+            if ( client.deficit < JOB_COST ) {
+                // Start of this client's turn
+                client.deficit += Math.max( limits( client.clientId ).getWeight(), 1 );
+            }
+
+            CCRSJob job = client.ready.poll();
+            submittedMillis.remove( job );
+            client.deficit -= JOB_COST;
+
+            if ( client.ready.isEmpty() ) {
+                activeClients.poll();
+                client.active = false;
+                client.deficit = 0;
+            } else if ( client.deficit < JOB_COST ) {
+                activeClients.add( activeClients.poll() );
+            }
+
+            log.debug( "Dispatching job ({}) for client-user: ({}-{})", job.getJobId(), job.getClientId(), job.getUserId() );
+            return job;
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void release( CCRSJob job ) {
+        ClientShare client = clients.get( job.getClientId() );
+        if ( client == null ) {
+            return;
+        }
+        client.dispatched--;
+        fill( client, limits( job.getClientId() ) );
+        removeIfIdle( client, client.users.get( job.getUserId() ) );
+    }
+
+    private ClientSettings.ApplicationClient limits( String clientId ) {
+        return clientSettings.getClients().get( clientId );
+    }
+
+    private Queue<CCRSJob> newQueue() {
+        return applicationSettings.isShortestJobFirst() ? new RankedQueue<CCRSJob>( this::rank ) :
+                new IndexedQueue<>();
+    }
+
+    /**
+     * Lower runs first. A job's rank is its submission time plus its estimated runtime divided by the aging rate, so
+     * each second it waits makes up for that many seconds of estimated runtime against jobs submitted later. Until
+     * the estimator is trained the estimate is taken to be 0, which leaves jobs in order of submission.
+     */
+    private double rank( CCRSJob job ) {
+        double estimate = runtimeEstimator.isTrained() ?
+                runtimeEstimator.estimateSeconds( job.getSequenceLength() ) : 0;
+        double agingRate = applicationSettings.getShortestJobFirstAgingRate();
+        if ( agingRate <= 0 ) {
+            return estimate;
+        }
+        return submittedMillis.getOrDefault( job, System.currentTimeMillis() ) / 1000.0 + estimate / agingRate;
+    }
+
+    /**
+     * Move jobs up through the tiers, one job per user per turn, until the client's limits are reached.
+     */
+    private void fill( ClientShare client, ClientSettings.ApplicationClient limits ) {
+        while ( true ) {
+            if ( client.dispatched < limits.getProcessLimit() && !client.waitingUsers.isEmpty() ) {
+                UserShare user = client.waitingUsers.poll();
+                CCRSJob job = user.waiting.poll();
+                if ( job == null ) {
+                    user.inWaitingRing = false;
+                    continue;
+                }
+                client.waiting--;
+                if ( user.waiting.isEmpty() ) {
+                    user.inWaitingRing = false;
+                } else {
+                    client.waitingUsers.add( user );
+                }
+                markEligible( client, user, limits );
+                promoteToProcessQueue( client, job );
+            } else if ( client.waiting < limits.getJobLimit() && !client.eligibleUsers.isEmpty() ) {
+                UserShare user = client.eligibleUsers.poll();
+                user.eligible = false;
+                if ( user.pending.isEmpty() || user.waiting.size() >= limits.getUserClientLimit() ) {
+                    continue;
+                }
+                CCRSJob job = user.pending.poll();
+                log.info( "Submitting job ({}) for client-user: ({}-{}) to client queue",
+                        job.getJobId(), job.getClientId(), job.getUserId() );
+                user.waiting.add( job );
+                client.waiting++;
+                job.setStatus( "Queued..." );
+                if ( !user.inWaitingRing ) {
+                    user.inWaitingRing = true;
+                    client.waitingUsers.add( user );
+                }
+                markEligible( client, user, limits );
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void promoteToProcessQueue( ClientShare client, CCRSJob job ) {
+        client.ready.add( job );
+        client.dispatched++;
+        if ( !client.active ) {
+            client.active = true;
+            activeClients.add( client );
+        }
+        readyListener.accept( job );
+    }
+
+    private void markEligible( ClientShare client, UserShare user, ClientSettings.ApplicationClient limits ) {
+        if ( !user.eligible && !user.pending.isEmpty() && user.waiting.size() < limits.getUserClientLimit() ) {
+            user.eligible = true;
+            client.eligibleUsers.add( user );
+        }
+    }
+
+    private void removeIfIdle( ClientShare client, UserShare user ) {
+        if ( user != null && user.pending.isEmpty() && user.waiting.isEmpty() ) {
+            client.users.remove( user.userId, user );
+        }
+    }
+
+    private static final class ClientShare {
+        private final String clientId;
+        private final Map<String, UserShare> users = new HashMap<>();
+
+        // Users with jobs in their user queue and room in the client queue
+        private final Deque<UserShare> eligibleUsers = new ArrayDeque<>();
+
+        // Users with jobs in the client queue
+        private final Deque<UserShare> waitingUsers = new ArrayDeque<>();
+
+        // Jobs in the process queue that have not been handed to a worker
+        private final Queue<CCRSJob> ready;
+
+        // Number of jobs in the client queue
+        private int waiting = 0;
+
+        // Number of jobs in the process queue, ready or running
+        private int dispatched = 0;
+
+        private int deficit = 0;
+        private boolean active = false;
+
+        private ClientShare( String clientId, Queue<CCRSJob> ready ) {
+            this.clientId = clientId;
+            this.ready = ready;
+        }
+    }
+
+    private static final class UserShare {
+        private final String userId;
+        private final Queue<CCRSJob> pending;
+        private final Queue<CCRSJob> waiting;
+        private boolean eligible = false;
+        private boolean inWaitingRing = false;
+
+        private UserShare( String userId, Queue<CCRSJob> pending, Queue<CCRSJob> waiting ) {
+            this.userId = userId;
+            this.pending = pending;
+            this.waiting = waiting;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.jacobsonmt.ccrs.scheduling;
+
+import java.util.AbstractQueue;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * FIFO queue of distinct elements backed by a doubly linked list and a hash index into it.
+ *
+ * Offer, poll, peek, contains and removal of an arbitrary element are all constant time. Adding an element that is
+ * already queued has no effect. Not thread-safe.
+ *
+ * @param <E> element type, must have consistent equals and hashCode
+ */
+public class IndexedQueue<E> extends AbstractQueue<E> {
+
+    private final Map<Object, Node<E>> index = new HashMap<>();
+
+    private Node<E> head;
+    private Node<E> tail;
+
+    private int modCount = 0;
+
+    @Override
+    public boolean offer( E e ) {
+        if ( e == null ) {
+            throw new NullPointerException();
+        }
+        if ( index.containsKey( e ) ) {
+            return false;
+        }
+        Node<E> node = new Node<>( e );
+        if ( tail == null ) {
+            head = node;
+        } else {
+            tail.next = node;
+            node.prev = tail;
+        }
+        tail = node;
+        index.put( e, node );
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        if ( head == null ) {
+            return null;
+        }
+        E e = head.item;
+        index.remove( e );
+        unlink( head );
+        return e;
+    }
+
+    @Override
+    public E peek() {
+        return head == null ? null : head.item;
+    }
+
+    @Override
+    public boolean contains( Object o ) {
+        return index.containsKey( o );
+    }
+
+    @Override
+    public boolean remove( Object o ) {
+        Node<E> node = index.remove( o );
+        if ( node == null ) {
+            return false;
+        }
+        unlink( node );
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        index.clear();
+        head = null;
+        tail = null;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private Node<E> next = head;
+            private Node<E> lastReturned;
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if ( modCount != expectedModCount ) {
+                    throw new ConcurrentModificationException();
+                }
+                if ( next == null ) {
+                    throw new NoSuchElementException();
+                }
+                lastReturned = next;
+                next = next.next;
+                return lastReturned.item;
+            }
+
+            @Override
+            public void remove() {
+                if ( lastReturned == null ) {
+                    throw new IllegalStateException();
+                }
+                if ( modCount != expectedModCount ) {
+                    throw new ConcurrentModificationException();
+                }
+                IndexedQueue.this.remove( lastReturned.item );
+                lastReturned = null;
+                expectedModCount = modCount;
+            }
+        };
+    }
+
+    private void unlink( Node<E> node ) {
+        if ( node.prev == null ) {
+            head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if ( node.next == null ) {
+            tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        modCount++;
+    }
+
+    private static final class Node<E> {
+        private final E item;
+        private Node<E> prev;
+        private Node<E> next;
+
+        private Node( E item ) {
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.jacobsonmt.ccrs.scheduling;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Decides which queued job runs next.
+ *
+ * Jobs move through three tiers: the user queue, the client queue and the process queue. Jobs in the process queue
+ * are ready to run and are handed out one at a time through {@link #next()} whenever a worker is free.
+ */
+public interface JobScheduler {
+
+    /**
+     * Admit a job to the owning user's queue.
+     *
+     * @return false if the user has no room left in their queue
+     */
+    boolean submit( CCRSJob job );
+
+    /**
+     * Remove a job that has not yet been handed to a worker.
+     *
+     * @return true if the job was waiting in one of the queues and has been removed
+     */
+    boolean cancel( CCRSJob job );
+
+    /**
+     * Remove every job of a user that has not yet been handed to a worker.
+     *
+     * @return removed jobs
+     */
+    List<CCRSJob> cancelAll( String clientId, String userId );
+
+    /**
+     * @return next job to run according to the scheduling policy or null if no job is ready
+     */
+    CCRSJob next();
+
+    /**
+     * Like {@link #next()} but only hands out the job if it passes the filter, otherwise it is left where it is.
+     *
+     * @return next job to run if there is one and it passes the filter, else null
+     */
+    CCRSJob next( Predicate<CCRSJob> filter );
+
+    /**
+     * Free the process queue slot held by a job returned from {@link #next()} once it has finished.
+     */
+    void release( CCRSJob job );
+
+    /**
+     * @param listener called whenever a job is promoted into the process queue
+     */
+    void setReadyListener( Consumer<CCRSJob> listener );
+
+}
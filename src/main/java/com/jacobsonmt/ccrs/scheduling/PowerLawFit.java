@@ -0,0 +1,65 @@
+package com.jacobsonmt.ccrs.scheduling;
+
+/**
+ * Online fit of y = c * x^k by least squares of log y against log x.
+ *
+ * Older samples are weighted down so that the fit follows changes over time. Until there are samples of more than one
+ * x the exponent is taken to be 1. Not thread-safe.
+ */
+class PowerLawFit {
+
+    // Weight kept by earlier samples each time one is recorded, about the last thousand samples count
+    private static final double DECAY = 0.999;
+
+    // Keeps a noisy fit from giving a model the data never does
+    private static final double MIN_EXPONENT = 0;
+    private static final double MAX_EXPONENT = 3;
+
+    private long samples = 0;
+    private double weight = 0;
+    private double sumX = 0;
+    private double sumY = 0;
+    private double sumXX = 0;
+    private double sumXY = 0;
+
+    private double logCoefficient = 0;
+    private double exponent = 1;
+
+    /**
+     * @param x must be positive
+     * @param y must be positive
+     */
+    void record( double x, double y ) {
+        double lx = Math.log( x );
+        double ly = Math.log( y );
+
+        samples++;
+        weight = weight * DECAY + 1;
+        sumX = sumX * DECAY + lx;
+        sumY = sumY * DECAY + ly;
+        sumXX = sumXX * DECAY + lx * lx;
+        sumXY = sumXY * DECAY + lx * ly;
+
+        double variance = weight * sumXX - sumX * sumX;
+        if ( variance > 1e-9 * weight * weight ) {
+            exponent = Math.min( MAX_EXPONENT, Math.max( MIN_EXPONENT, ( weight * sumXY - sumX * sumY ) / variance ) );
+        }
+        logCoefficient = ( sumY - exponent * sumX ) / weight;
+    }
+
+    double estimate( double x ) {
+        return Math.exp( logCoefficient ) * Math.pow( x, exponent );
+    }
+
+    long getSamples() {
+        return samples;
+    }
+
+    double getCoefficient() {
+        return Math.exp( logCoefficient );
+    }
+
+    double getExponent() {
+        return exponent;
+    }
+}
@@ -0,0 +1,127 @@
+package com.jacobsonmt.ccrs.scheduling;
+
+/**
+ * Works out positions in the process queue on demand.
+ *
+ * Every job entering the queue takes a ticket numbered in arrival order. When a job leaves the queue its ticket is
+ * marked as departed in a Fenwick tree, so the position of a waiting job is its ticket offset minus the number of
+ * earlier tickets that have departed. Issuing, departing and looking up a position are all O(log n) and nothing has to
+ * be renumbered when the queue moves.
+ *
+ * The tree only covers tickets from the oldest one still waiting, it is compacted whenever it fills up.
+ */
+public class QueuePositionTracker {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Ticket number stored at index 0
+    private long base = 0;
+
+    private long nextTicket = 0;
+
+    private boolean[] departed = new boolean[INITIAL_CAPACITY];
+
+    // Fenwick tree over departed, 1-indexed
+    private int[] tree = new int[INITIAL_CAPACITY + 1];
+
+    public synchronized Ticket issue() {
+        if ( nextTicket - base >= departed.length ) {
+            compact();
+        }
+        return new Ticket( nextTicket++ );
+    }
+
+    /**
+     * @return number of tickets issued but not departed
+     */
+    public synchronized int size() {
+        return (int) ( nextTicket - base ) - prefix( (int) ( nextTicket - base ) );
+    }
+
+    private synchronized void depart( Ticket ticket ) {
+        if ( ticket.departed ) {
+            return;
+        }
+        ticket.departed = true;
+        int i = (int) ( ticket.number - base );
+        departed[i] = true;
+        for ( int j = i + 1; j < tree.length; j += j & -j ) {
+            tree[j]++;
+        }
+    }
+
+    private synchronized Integer position( Ticket ticket ) {
+        if ( ticket.departed ) {
+            return null;
+        }
+        int i = (int) ( ticket.number - base ) + 1;
+        return i - prefix( i );
+    }
+
+    private int prefix( int i ) {
+        int sum = 0;
+        for ( ; i > 0; i -= i & -i ) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Drop departed tickets from the front of the window and resize it to twice the number of remaining tickets.
+     */
+    private void compact() {
+        int issued = (int) ( nextTicket - base );
+        int shift = 0;
+        while ( shift < issued && departed[shift] ) {
+            shift++;
+        }
+
+        int live = issued - shift;
+        int capacity = Math.max( INITIAL_CAPACITY, live * 2 );
+
+        boolean[] compacted = new boolean[capacity];
+        System.arraycopy( departed, shift, compacted, 0, live );
+
+        int[] rebuilt = new int[capacity + 1];
+        for ( int i = 1; i <= capacity; i++ ) {
+            rebuilt[i] += compacted[i - 1] ? 1 : 0;
+            int parent = i + ( i & -i );
+            if ( parent <= capacity ) {
+                rebuilt[parent] += rebuilt[i];
+            }
+        }
+
+        departed = compacted;
+        tree = rebuilt;
+        base += shift;
+    }
+
+    /**
+     * Place of a single job in the process queue.
+     */
+    public final class Ticket {
+
+        private final long number;
+
+        // Guarded by the owning tracker
+        private boolean departed = false;
+
+        private Ticket( long number ) {
+            this.number = number;
+        }
+
+        /**
+         * @return 1-based position in the queue or null once the ticket has departed
+         */
+        public Integer getPosition() {
+            return position( this );
+        }
+
+        /**
+         * Mark this ticket as having left the queue, moving every later ticket up by one.
+         */
+        public void depart() {
+            QueuePositionTracker.this.depart( this );
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.jacobsonmt.ccrs.scheduling;
+
+import java.util.AbstractQueue;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Queue of distinct elements ordered by a rank worked out when they are added, lowest rank first and elements of equal
+ * rank in the order they were added.
+ *
+ * Offer, poll, peek and removal of an arbitrary element are O(log n), contains is constant time. Adding an element that
+ * is already queued has no effect. Not thread-safe.
+ *
+ * @param <E> element type, must have consistent equals and hashCode
+ */
+public class RankedQueue<E> extends AbstractQueue<E> {
+
+    private final ToDoubleFunction<? super E> ranking;
+
+    private final TreeMap<Key, E> queue = new TreeMap<>();
+
+    private final Map<Object, Key> index = new HashMap<>();
+
+    private long sequence = 0;
+
+    public RankedQueue( ToDoubleFunction<? super E> ranking ) {
+        this.ranking = ranking;
+    }
+
+    @Override
+    public boolean offer( E e ) {
+        if ( e == null ) {
+            throw new NullPointerException();
+        }
+        if ( index.containsKey( e ) ) {
+            return false;
+        }
+        Key key = new Key( ranking.applyAsDouble( e ), sequence++ );
+        queue.put( key, e );
+        index.put( e, key );
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        Map.Entry<Key, E> first = queue.pollFirstEntry();
+        if ( first == null ) {
+            return null;
+        }
+        index.remove( first.getValue() );
+        return first.getValue();
+    }
+
+    @Override
+    public E peek() {
+        Map.Entry<Key, E> first = queue.firstEntry();
+        return first == null ? null : first.getValue();
+    }
+
+    @Override
+    public boolean contains( Object o ) {
+        return index.containsKey( o );
+    }
+
+    @Override
+    public boolean remove( Object o ) {
+        Key key = index.remove( o );
+        if ( key == null ) {
+            return false;
+        }
+        queue.remove( key );
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        queue.clear();
+        index.clear();
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        Iterator<E> it = queue.values().iterator();
+        return new Iterator<E>() {
+            private E lastReturned;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                lastReturned = it.next();
+                return lastReturned;
+            }
+
+            @Override
+            public void remove() {
+                it.remove();
+                index.remove( lastReturned );
+                lastReturned = null;
+            }
+        };
+    }
+
+    private static final class Key implements Comparable<Key> {
+        private final double rank;
+        private final long sequence;
+
+        private Key( double rank, long sequence ) {
+            this.rank = rank;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo( Key o ) {
+            int c = Double.compare( rank, o.rank );
+            return c != 0 ? c : Long.compare( sequence, o.sequence );
+        }
+    }
+}
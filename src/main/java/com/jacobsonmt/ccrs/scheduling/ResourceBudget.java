@@ -0,0 +1,130 @@
+package com.jacobsonmt.ccrs.scheduling;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Admits jobs to run while their estimated memory and CPU use fit in the configured budgets.
+ *
+ * A job's memory is estimated from its sequence length, at first from the configured base and per residue amounts and
+ * once enough jobs have run from a fit of their peak resident set size against length, see {@link PowerLawFit}. A job
+ * that would not fit in an empty budget is admitted only when nothing else is running, so it runs alone.
+ */
+@Component
+public class ResourceBudget {
+
+    // Runs measured before the fit replaces the configured estimate
+    private static final int MIN_SAMPLES = 10;
+
+    // Lengths reported along with the model
+    private static final int[] EXAMPLE_LENGTHS = {100, 1000, 10000};
+
+    private final ApplicationSettings applicationSettings;
+
+    private final PowerLawFit fit = new PowerLawFit();
+
+    // Admitted jobs that have not finished and the memory in megabytes held for each
+    private final Map<CCRSJob, Long> reserved = new HashMap<>();
+
+    private long reservedMegabytes = 0;
+
+    public ResourceBudget( ApplicationSettings applicationSettings ) {
+        this.applicationSettings = applicationSettings;
+    }
+
+    public boolean isEnabled() {
+        return applicationSettings.getMemoryBudgetMegabytes() > 0 || applicationSettings.getCpuBudget() > 0;
+    }
+
+    /**
+     * Admit the job if its estimated use fits in what is left of the budgets, holding it until {@link #release}.
+     *
+     * @return true if admitted
+     */
+    public synchronized boolean tryReserve( CCRSJob job ) {
+        if ( !isEnabled() ) {
+            return true;
+        }
+        if ( reserved.containsKey( job ) ) {
+            return true;
+        }
+
+        long megabytes = estimateMegabytes( job.getSequenceLength() );
+        if ( !reserved.isEmpty() ) {
+            long memoryBudget = applicationSettings.getMemoryBudgetMegabytes();
+            if ( memoryBudget > 0 && reservedMegabytes + megabytes > memoryBudget ) {
+                return false;
+            }
+            int cpuBudget = applicationSettings.getCpuBudget();
+            if ( cpuBudget > 0 && ( reserved.size() + 1 ) * applicationSettings.getJobCpus() > cpuBudget ) {
+                return false;
+            }
+        }
+
+        reserved.put( job, megabytes );
+        reservedMegabytes += megabytes;
+        return true;
+    }
+
+    /**
+     * @return true if the job held part of the budget, others may now fit
+     */
+    public synchronized boolean release( CCRSJob job ) {
+        Long megabytes = reserved.remove( job );
+        if ( megabytes == null ) {
+            return false;
+        }
+        reservedMegabytes -= megabytes;
+        return true;
+    }
+
+    /**
+     * @param length number of residues in the sequence
+     * @param peakKilobytes peak resident set size of the command
+     */
+    public synchronized void record( int length, long peakKilobytes ) {
+        fit.record( Math.max( length, 1 ), Math.max( peakKilobytes, 1 ) / 1024.0 );
+    }
+
+    /**
+     * @param length number of residues in the sequence
+     * @return estimated peak memory of the command in megabytes
+     */
+    public synchronized long estimateMegabytes( int length ) {
+        if ( fit.getSamples() < MIN_SAMPLES ) {
+            return (long) Math.ceil( applicationSettings.getJobMemoryMegabytes() +
+                    applicationSettings.getJobMemoryMegabytesPerResidue() * length );
+        }
+        return (long) Math.ceil( fit.estimate( Math.max( length, 1 ) ) * applicationSettings.getJobMemoryHeadroom() );
+    }
+
+    public synchronized Stats getStats() {
+        Map<Integer, Long> estimates = new LinkedHashMap<>();
+        for ( int length : EXAMPLE_LENGTHS ) {
+            estimates.put( length, estimateMegabytes( length ) );
+        }
+        return new Stats( applicationSettings.getMemoryBudgetMegabytes(), reservedMegabytes,
+                applicationSettings.getCpuBudget(), reserved.size() * applicationSettings.getJobCpus(), reserved.size(),
+                fit.getSamples(), estimates );
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Stats {
+        private final long memoryBudgetMegabytes;
+        private final long reservedMegabytes;
+        private final int cpuBudget;
+        private final int reservedCpus;
+        private final int runningJobs;
+        private final long samples;
+        // Estimated megabytes by sequence length
+        private final Map<Integer, Long> estimates;
+    }
+}
@@ -0,0 +1,69 @@
+package com.jacobsonmt.ccrs.scheduling;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Estimates how long the command runs for a sequence from the runtimes of earlier jobs.
+ *
+ * Runtime is modelled as a power of the sequence length, t = c * L^k, see {@link PowerLawFit}. Older samples are
+ * weighted down so that the fit follows changes to the tool or the hardware. Estimates are not to be relied on until
+ * enough jobs have run, see {@link #isTrained()}.
+ */
+@Component
+public class RuntimeEstimator {
+
+    // Runs measured before estimates are relied on
+    static final int MIN_SAMPLES = 10;
+
+    // Lengths reported along with the model
+    private static final int[] EXAMPLE_LENGTHS = {100, 1000, 10000};
+
+    private final PowerLawFit fit = new PowerLawFit();
+
+    /**
+     * @param length number of residues in the sequence
+     * @param millis time the command took
+     */
+    public synchronized void record( int length, long millis ) {
+        fit.record( Math.max( length, 1 ), Math.max( millis, 1 ) / 1000.0 );
+    }
+
+    /**
+     * @param length number of residues in the sequence
+     * @return estimated runtime in seconds
+     */
+    public synchronized double estimateSeconds( int length ) {
+        return fit.estimate( Math.max( length, 1 ) );
+    }
+
+    /**
+     * @return true once enough jobs have run for estimates to reflect the tool rather than only the sequence length
+     */
+    public synchronized boolean isTrained() {
+        return fit.getSamples() >= MIN_SAMPLES;
+    }
+
+    public synchronized Model getModel() {
+        Map<Integer, Double> estimates = new LinkedHashMap<>();
+        for ( int length : EXAMPLE_LENGTHS ) {
+            estimates.put( length, estimateSeconds( length ) );
+        }
+        return new Model( fit.getSamples(), isTrained(), fit.getCoefficient(), fit.getExponent(), estimates );
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Model {
+        private final long samples;
+        private final boolean trained;
+        private final double coefficient;
+        private final double exponent;
+        // Estimated seconds by sequence length
+        private final Map<Integer, Double> estimates;
+    }
+}
@@ -0,0 +1,180 @@
+package com.jacobsonmt.ccrs.services;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import com.jacobsonmt.ccrs.repositories.JobRepository;
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finishes completed jobs off the threads that ran them.
+ *
+ * Jobs are handed to a bounded queue, a worker only waits when it is full. A writer thread saves whatever has queued up
+ * as one group, see {@link JobRepository#persistJobs}, and then hands each job's follow-up, such as its email, to a
+ * separate thread so that a slow mail server does not hold up saving. A job stays readable from the repository's cache
+ * until it is saved, a job deleted before then is not saved. Everything queued is saved and followed up on shutdown.
+ */
+@Log4j2
+@Service
+public class CompletionWriter {
+
+    private final JobRepository jobRepository;
+
+    private final int maxGroup;
+
+    private final BlockingQueue<Completion> queue;
+
+    private final Thread writer;
+
+    private final ExecutorService followUps;
+
+    private volatile boolean closed;
+
+    public CompletionWriter( ApplicationSettings applicationSettings, JobRepository jobRepository ) {
+        this.jobRepository = jobRepository;
+        this.maxGroup = Math.max( applicationSettings.getPersistMaxGroup(), 1 );
+        this.queue = new ArrayBlockingQueue<>( Math.max( applicationSettings.getPersistQueueSize(), 1 ) );
+
+        followUps = Executors.newSingleThreadExecutor( r -> {
+            Thread t = new Thread( r, "completion-follow-up" );
+            t.setDaemon( true );
+            return t;
+        } );
+        writer = new Thread( this::run, "completion-writer" );
+        writer.setDaemon( true );
+        writer.start();
+    }
+
+    /**
+     * Queue a completed job.
+     *
+     * @param persist    save the job, false for jobs that only need following up
+     * @param afterwards run once the job is saved, off the writer thread
+     */
+    public void submit( CCRSJob job, boolean persist, Runnable afterwards ) {
+        Completion completion = new Completion( job, persist, afterwards );
+        try {
+            queue.put( completion );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            write( Collections.singletonList( completion ) );
+            return;
+        }
+        if ( closed ) {
+            // Queued after the writer stopped
+            writeRest();
+        }
+    }
+
+    private void run() {
+        List<Completion> group = new ArrayList<>();
+        while ( !closed || !queue.isEmpty() ) {
+            try {
+                Completion first = queue.poll( 100, TimeUnit.MILLISECONDS );
+                if ( first == null ) {
+                    continue;
+                }
+                group.add( first );
+                queue.drainTo( group, maxGroup - 1 );
+                write( group );
+            } catch ( InterruptedException e ) {
+                // Only interrupted to stop, anything left is written by close
+                return;
+            } catch ( RuntimeException e ) {
+                log.error( "Failed to write completed jobs", e );
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    private void write( List<Completion> group ) {
+        // A job completed again before it was saved is only saved once
+        Map<String, CCRSJob> jobs = new LinkedHashMap<>();
+        for ( Completion completion : group ) {
+            if ( completion.persist ) {
+                jobs.put( completion.job.getJobId(), completion.job );
+            }
+        }
+        if ( !jobs.isEmpty() ) {
+            jobRepository.persistJobs( jobs.values() );
+        }
+
+        for ( Completion completion : group ) {
+            try {
+                followUps.execute( () -> followUp( completion ) );
+            } catch ( RejectedExecutionException e ) {
+                // Shut down
+                followUp( completion );
+            }
+        }
+    }
+
+    private static void followUp( Completion completion ) {
+        try {
+            completion.afterwards.run();
+        } catch ( RuntimeException e ) {
+            log.warn( "Failed to follow up completed job: " + completion.job.getJobId(), e );
+        }
+    }
+
+    /**
+     * Write anything the writer did not get to.
+     */
+    private void writeRest() {
+        List<Completion> rest = new ArrayList<>();
+        queue.drainTo( rest );
+        if ( !rest.isEmpty() ) {
+            write( rest );
+        }
+    }
+
+    /**
+     * Save everything queued and wait for its follow-ups.
+     */
+    @PreDestroy
+    public void close() {
+        closed = true;
+        try {
+            writer.join( TimeUnit.SECONDS.toMillis( 30 ) );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+
+        writeRest();
+
+        followUps.shutdown();
+        try {
+            if ( !followUps.awaitTermination( 30, TimeUnit.SECONDS ) ) {
+                log.warn( "Gave up waiting on completed job follow-ups" );
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Completion {
+        private final CCRSJob job;
+        private final boolean persist;
+        private final Runnable afterwards;
+
+        private Completion( CCRSJob job, boolean persist, Runnable afterwards ) {
+            this.job = job;
+            this.persist = persist;
+            this.afterwards = afterwards;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.jacobsonmt.ccrs.services;
+
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * Sizes the job executor at runtime.
+ *
+ * Every interval the number of workers is adjusted additive-increase, multiplicative-decrease: it is cut when the
+ * system load average is above the CPUs available to us (cgroup quota if set), raised by one when every worker was busy
+ * with jobs still waiting and the last increase did not lower throughput, and lowered by one when it did. The load
+ * average lags by about a minute, so after a cut the size is held that long before load can cut it again. Throughput is
+ * measured in residues completed per second so that it does not depend on the mix of job sizes. The size always stays
+ * within the configured minimum and maximum and can be fixed through the admin endpoint.
+ */
+@Log4j2
+@Component
+public class ConcurrencyController {
+
+    // Fraction of workers kept when overloaded
+    private static final double BACKOFF = 0.75;
+
+    // Drop in throughput after an increase that is put down to noise
+    private static final double THROUGHPUT_TOLERANCE = 0.05;
+
+    // Time for the one minute load average to mostly reflect a cut
+    private static final long BACKOFF_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos( 60 );
+
+    private static final Path CGROUP_V2_CPU_MAX = Paths.get( "/sys/fs/cgroup/cpu.max" );
+    private static final Path CGROUP_V1_QUOTA = Paths.get( "/sys/fs/cgroup/cpu/cpu.cfs_quota_us" );
+    private static final Path CGROUP_V1_PERIOD = Paths.get( "/sys/fs/cgroup/cpu/cpu.cfs_period_us" );
+
+    private final ApplicationSettings applicationSettings;
+
+    // Residues of jobs completed since the last adjustment
+    private final AtomicLong completedResidues = new AtomicLong();
+
+    private ThreadPoolExecutor executor;
+    private IntSupplier queueDepth;
+    private ScheduledExecutorService ticker;
+
+    // Replaced in tests
+    DoubleSupplier loadAverage = () -> ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+
+    // Guarded by this
+    private Integer override;
+    private long lastAdjusted;
+    private double throughput;
+    private double throughputBeforeIncrease = -1;
+    // When the size was last cut for load, null if it has not been
+    private Long lastBackoff;
+    private String lastDecision = "None";
+
+    public ConcurrencyController( ApplicationSettings applicationSettings ) {
+        this.applicationSettings = applicationSettings;
+    }
+
+    /**
+     * Start controlling the size of an executor.
+     *
+     * @param queueDepth number of jobs waiting for a worker
+     */
+    public synchronized void attach( ThreadPoolExecutor executor, IntSupplier queueDepth ) {
+        this.executor = executor;
+        this.queueDepth = queueDepth;
+        this.lastAdjusted = System.nanoTime();
+        if ( applicationSettings.isAdaptiveConcurrency() && ticker == null ) {
+            ticker = Executors.newSingleThreadScheduledExecutor( r -> {
+                Thread t = new Thread( r, "concurrency-controller" );
+                t.setDaemon( true );
+                return t;
+            } );
+            long interval = applicationSettings.getConcurrencyIntervalSeconds();
+            ticker.scheduleWithFixedDelay( this::adjust, interval, interval, TimeUnit.SECONDS );
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if ( ticker != null ) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    public void recordCompletion( int residues ) {
+        completedResidues.addAndGet( Math.max( residues, 1 ) );
+    }
+
+    /**
+     * Fix the number of workers, or hand it back to the controller.
+     *
+     * @param limit number of workers, clamped to the configured range, or null to adapt again
+     */
+    public synchronized void setOverride( Integer limit ) {
+        override = limit == null ? null : clamp( limit );
+        if ( override != null && executor != null ) {
+            apply( override, "Set by admin" );
+        } else {
+            lastDecision = "Adaptive";
+            throughputBeforeIncrease = -1;
+        }
+    }
+
+    synchronized void adjust() {
+        if ( executor == null ) {
+            return;
+        }
+        try {
+            long now = System.nanoTime();
+            double seconds = Math.max( ( now - lastAdjusted ) / 1e9, 1e-3 );
+            lastAdjusted = now;
+            throughput = completedResidues.getAndSet( 0 ) / seconds;
+
+            if ( override != null ) {
+                return;
+            }
+
+            int limit = executor.getMaximumPoolSize();
+            double load = loadAverage.getAsDouble();
+            double cpus = availableCpus();
+            boolean saturated = executor.getActiveCount() >= limit && queueDepth.getAsInt() > 0;
+
+            if ( load > cpus * applicationSettings.getConcurrencyLoadFactor() ) {
+                throughputBeforeIncrease = -1;
+                if ( lastBackoff != null && now - lastBackoff < BACKOFF_COOLDOWN_NANOS ) {
+                    lastDecision = String.format( "Load %.2f above %.2f CPUs, waiting for last cut to show", load, cpus );
+                } else {
+                    lastBackoff = now;
+                    apply( (int) ( limit * BACKOFF ), String.format( "Load %.2f above %.2f CPUs", load, cpus ) );
+                }
+            } else if ( saturated && throughputBeforeIncrease >= 0 &&
+                    throughput < throughputBeforeIncrease * ( 1 - THROUGHPUT_TOLERANCE ) ) {
+                throughputBeforeIncrease = -1;
+                apply( limit - 1, "Throughput fell after increase" );
+            } else if ( saturated && limit < clamp( limit + 1 ) ) {
+                throughputBeforeIncrease = throughput;
+                apply( limit + 1, "All workers busy with jobs waiting" );
+            } else {
+                throughputBeforeIncrease = -1;
+            }
+        } catch ( RuntimeException e ) {
+            log.error( "Failed to adjust concurrency", e );
+        }
+    }
+
+    private int clamp( int limit ) {
+        return Math.max( applicationSettings.getMinConcurrentJobs(),
+                Math.min( applicationSettings.getMaxConcurrentJobs(), Math.max( limit, 1 ) ) );
+    }
+
+    private void apply( int limit, String reason ) {
+        limit = clamp( limit );
+        lastDecision = reason;
+        int current = executor.getMaximumPoolSize();
+        if ( limit == current ) {
+            return;
+        }
+        log.info( "Changing concurrent jobs from {} to {}: {}", current, limit, reason );
+        // Core may never exceed maximum
+        if ( limit > current ) {
+            executor.setMaximumPoolSize( limit );
+            executor.setCorePoolSize( limit );
+        } else {
+            executor.setCorePoolSize( limit );
+            executor.setMaximumPoolSize( limit );
+        }
+    }
+
+    /**
+     * @return CPUs allowed by the cgroup quota, or available processors without one
+     */
+    static double availableCpus() {
+        double processors = Runtime.getRuntime().availableProcessors();
+        try {
+            if ( Files.exists( CGROUP_V2_CPU_MAX ) ) {
+                // "max 100000" or "200000 100000"
+                String[] fields = new String( Files.readAllBytes( CGROUP_V2_CPU_MAX ), StandardCharsets.UTF_8 ).trim()
+                        .split( "\\s+" );
+                if ( !fields[0].equals( "max" ) ) {
+                    return Math.min( processors, Double.parseDouble( fields[0] ) / Double.parseDouble( fields[1] ) );
+                }
+            } else if ( Files.exists( CGROUP_V1_QUOTA ) ) {
+                double quota = Double.parseDouble( new String( Files.readAllBytes( CGROUP_V1_QUOTA ), StandardCharsets.UTF_8 ).trim() );
+                if ( quota > 0 ) {
+                    double period = Double.parseDouble( new String( Files.readAllBytes( CGROUP_V1_PERIOD ), StandardCharsets.UTF_8 ).trim() );
+                    return Math.min( processors, quota / period );
+                }
+            }
+        } catch ( IOException | RuntimeException e ) {
+            log.debug( "Unable to read cgroup CPU quota", e );
+        }
+        return processors;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats( applicationSettings.isAdaptiveConcurrency(), override,
+                executor == null ? 0 : executor.getMaximumPoolSize(), executor == null ? 0 : executor.getActiveCount(),
+                applicationSettings.getMinConcurrentJobs(), applicationSettings.getMaxConcurrentJobs(),
+                queueDepth == null ? 0 : queueDepth.getAsInt(), throughput, loadAverage.getAsDouble(), availableCpus(),
+                lastDecision );
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Stats {
+        private final boolean adaptive;
+        private final Integer override;
+        private final int limit;
+        private final int active;
+        private final int min;
+        private final int max;
+        private final int queueDepth;
+        // Residues completed per second over the last interval
+        private final double throughput;
+        private final double loadAverage;
+        private final double cpus;
+        private final String lastDecision;
+    }
+}
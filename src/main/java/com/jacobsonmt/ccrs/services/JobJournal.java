@@ -0,0 +1,476 @@
+package com.jacobsonmt.ccrs.services;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of job lifecycle transitions so that queued and running jobs survive a restart.
+ *
+ * Recording a transition only encodes it into an in-memory buffer. A background thread writes the buffer out and
+ * forces it to disk every commit interval, so many transitions share one fsync (group commit). A crash loses at most
+ * the transitions of the last interval.
+ *
+ * Each record is its length, a CRC32 of its body and the body. A torn record at the end of the file, left by a crash
+ * part way through a write, is dropped on startup. The journal is rewritten with only unfinished jobs on startup and
+ * once it has grown past the compaction threshold and to twice its size after it was last rewritten.
+ */
+@Log4j2
+@Service
+public class JobJournal {
+
+    public enum Event {
+        CREATED, QUEUED, PROMOTED, STARTED, COMPLETED, CANCELLED;
+
+        private boolean isTerminal() {
+            return this == COMPLETED || this == CANCELLED;
+        }
+    }
+
+    private final Path file;
+
+    private final long compactBytes;
+
+    // Guards pending, live, fileSize and compactedSize
+    private final Object lock = new Object();
+
+    // Encoded records waiting for the next commit
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    // Unfinished jobs in order of creation, enough to rewrite the journal from scratch
+    private final Map<String, LiveJob> live = new LinkedHashMap<>();
+
+    private long fileSize;
+
+    // Size of the journal when it was last rewritten, holding only unfinished jobs
+    private long compactedSize;
+
+    // Only used by the commit thread once started
+    private FileChannel channel;
+
+    private ScheduledExecutorService committer;
+
+    // Unfinished jobs found on startup
+    private List<RecoveredJob> recovered = new ArrayList<>();
+
+    public JobJournal( ApplicationSettings applicationSettings ) {
+        this.compactBytes = applicationSettings.getJournalCompactBytes();
+
+        if ( !applicationSettings.isJournalEnabled() ) {
+            file = null;
+            return;
+        }
+
+        file = Paths.get( applicationSettings.getJournalFile() );
+        try {
+            if ( file.getParent() != null ) {
+                Files.createDirectories( file.getParent() );
+            }
+            replay();
+            compact( snapshot() );
+        } catch ( IOException e ) {
+            throw new IllegalStateException( "Failed to open job journal: " + file, e );
+        }
+
+        committer = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread t = new Thread( r, "job-journal" );
+            t.setDaemon( true );
+            return t;
+        } );
+        committer.scheduleWithFixedDelay( this::commitQuietly, applicationSettings.getJournalCommitIntervalMillis(),
+                applicationSettings.getJournalCommitIntervalMillis(), TimeUnit.MILLISECONDS );
+    }
+
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * @return unfinished jobs found on startup, running jobs first then jobs in the process queue then the rest, each
+     * in their original order. Only returned once.
+     */
+    public List<RecoveredJob> recover() {
+        List<RecoveredJob> jobs = recovered;
+        recovered = new ArrayList<>();
+        return jobs;
+    }
+
+    public void created( CCRSJob job ) {
+        if ( !isEnabled() ) {
+            return;
+        }
+
+        byte[] record = encode( Event.CREATED, job.getJobId(), job );
+        synchronized ( lock ) {
+            live.put( job.getJobId(), new LiveJob( record ) );
+            pending.write( record, 0, record.length );
+        }
+    }
+
+    public void queued( CCRSJob job ) {
+        record( Event.QUEUED, job );
+    }
+
+    public void promoted( CCRSJob job ) {
+        record( Event.PROMOTED, job );
+    }
+
+    public void started( CCRSJob job ) {
+        record( Event.STARTED, job );
+    }
+
+    public void completed( CCRSJob job ) {
+        record( Event.COMPLETED, job );
+    }
+
+    public void cancelled( CCRSJob job ) {
+        record( Event.CANCELLED, job );
+    }
+
+    private void record( Event event, CCRSJob job ) {
+        if ( !isEnabled() ) {
+            return;
+        }
+
+        synchronized ( lock ) {
+            LiveJob liveJob = live.get( job.getJobId() );
+            if ( liveJob == null ) {
+                // Never journaled, e.g. completed straight from the result cache
+                return;
+            }
+            if ( event.isTerminal() ) {
+                live.remove( job.getJobId() );
+            } else if ( event.ordinal() > liveJob.state.ordinal() ) {
+                liveJob.state = event;
+            }
+            byte[] record = encode( event, job.getJobId(), null );
+            pending.write( record, 0, record.length );
+        }
+    }
+
+    /**
+     * Write out and force to disk everything recorded so far, compacting the journal if it has grown too large.
+     */
+    public synchronized void commit() throws IOException {
+        if ( !isEnabled() ) {
+            return;
+        }
+
+        byte[] batch;
+        List<byte[]> snapshot = null;
+        synchronized ( lock ) {
+            if ( pending.size() == 0 ) {
+                return;
+            }
+            if ( fileSize > Math.max( compactBytes, 2 * compactedSize ) ) {
+                // Everything pending is already reflected in the live jobs
+                snapshot = snapshot();
+                pending = new ByteArrayOutputStream();
+                batch = null;
+            } else {
+                batch = pending.toByteArray();
+                pending = new ByteArrayOutputStream();
+                fileSize += batch.length;
+            }
+        }
+
+        if ( snapshot != null ) {
+            compact( snapshot );
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap( batch );
+        while ( buffer.hasRemaining() ) {
+            channel.write( buffer );
+        }
+        channel.force( false );
+    }
+
+    private void commitQuietly() {
+        try {
+            commit();
+        } catch ( IOException e ) {
+            log.error( "Failed to commit job journal", e );
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if ( !isEnabled() ) {
+            return;
+        }
+
+        committer.shutdown();
+        try {
+            committer.awaitTermination( 10, TimeUnit.SECONDS );
+            commit();
+            channel.close();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } catch ( IOException e ) {
+            log.error( "Failed to close job journal", e );
+        }
+    }
+
+    /**
+     * Rebuild the unfinished jobs from the journal on disk.
+     */
+    private void replay() throws IOException {
+        if ( !Files.exists( file ) ) {
+            return;
+        }
+
+        int records = 0;
+        long remaining = Files.size( file );
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( file ) ) ) ) {
+            while ( true ) {
+                byte[] record;
+                Event event;
+                String jobId;
+                RecoveredJob job = null;
+                try {
+                    int length = in.readInt();
+                    long crc = in.readInt() & 0xffffffffL;
+                    remaining -= 8;
+                    if ( length == 0 ) {
+                        // Every record has an event, this is the zero filled tail a crash can leave behind
+                        break;
+                    }
+                    if ( length < 0 || length > remaining ) {
+                        throw new EOFException();
+                    }
+                    record = new byte[length];
+                    in.readFully( record );
+                    remaining -= length;
+                    if ( crc32( record ) != crc ) {
+                        log.warn( "Dropping corrupt job journal record after " + records + " records" );
+                        break;
+                    }
+
+                    DataInputStream body = new DataInputStream( new ByteArrayInputStream( record ) );
+                    int ordinal = body.readByte();
+                    if ( ordinal < 0 || ordinal >= Event.values().length ) {
+                        log.warn( "Dropping job journal record of unknown event " + ordinal + " after " + records
+                                + " records" );
+                        break;
+                    }
+                    event = Event.values()[ordinal];
+                    jobId = readString( body );
+                    if ( event == Event.CREATED ) {
+                        job = readJob( jobId, body );
+                    }
+                } catch ( EOFException e ) {
+                    break;
+                }
+
+                records++;
+                if ( event == Event.CREATED ) {
+                    LiveJob liveJob = new LiveJob( frame( record ) );
+                    liveJob.job = job;
+                    live.put( jobId, liveJob );
+                } else {
+                    LiveJob liveJob = live.get( jobId );
+                    if ( liveJob == null ) {
+                        continue;
+                    }
+                    if ( event.isTerminal() ) {
+                        live.remove( jobId );
+                    } else if ( event.ordinal() > liveJob.state.ordinal() ) {
+                        liveJob.state = event;
+                    }
+                }
+            }
+        }
+
+        for ( LiveJob liveJob : live.values() ) {
+            liveJob.job.state = liveJob.state;
+            recovered.add( liveJob.job );
+            liveJob.job = null;
+        }
+        // Stable, so original order is kept within each state
+        recovered.sort( Comparator.comparing( ( RecoveredJob j ) -> j.getState().ordinal() ).reversed() );
+        log.info( "Replayed " + records + " job journal records, " + recovered.size() + " unfinished jobs" );
+    }
+
+    /**
+     * @return records that recreate the unfinished jobs, caller must hold lock
+     */
+    private List<byte[]> snapshot() {
+        List<byte[]> records = new ArrayList<>();
+        for ( Map.Entry<String, LiveJob> entry : live.entrySet() ) {
+            LiveJob liveJob = entry.getValue();
+            records.add( liveJob.createdRecord );
+            if ( liveJob.state != Event.CREATED ) {
+                records.add( encode( liveJob.state, entry.getKey(), null ) );
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Replace the journal with the given records. Records made meanwhile stay pending for the next commit.
+     */
+    private void compact( List<byte[]> records ) throws IOException {
+        Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+        long size = 0;
+        try ( FileChannel out = FileChannel.open( tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING ) ) {
+            for ( byte[] record : records ) {
+                size += write( out, record );
+            }
+            out.force( false );
+        }
+
+        if ( channel != null ) {
+            channel.close();
+        }
+        Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        channel = FileChannel.open( file, StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+        synchronized ( lock ) {
+            fileSize = size;
+            compactedSize = size;
+        }
+    }
+
+    private static int write( FileChannel out, byte[] record ) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap( record );
+        while ( buffer.hasRemaining() ) {
+            out.write( buffer );
+        }
+        return record.length;
+    }
+
+    private static byte[] encode( Event event, String jobId, CCRSJob job ) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( job == null ? 64 : 256 );
+            DataOutputStream body = new DataOutputStream( bytes );
+            body.writeByte( event.ordinal() );
+            writeString( body, jobId );
+            if ( job != null ) {
+                writeString( body, job.getClientId() );
+                writeString( body, job.getUserId() );
+                writeString( body, job.getLabel() );
+                body.writeBoolean( job.isHidden() );
+                writeString( body, job.getEmail() );
+                writeString( body, job.getEmailJobLinkPrefix() );
+                body.writeBoolean( job.isEmailOnJobStart() );
+                body.writeBoolean( job.isEmailOnJobComplete() );
+                writeString( body, job.getInputFASTAContent() );
+            }
+            body.flush();
+            return frame( bytes.toByteArray() );
+        } catch ( IOException e ) {
+            // Not possible when writing to memory
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static RecoveredJob readJob( String jobId, DataInputStream body ) throws IOException {
+        RecoveredJob job = new RecoveredJob();
+        job.jobId = jobId;
+        job.clientId = readString( body );
+        job.userId = readString( body );
+        job.label = readString( body );
+        job.hidden = body.readBoolean();
+        job.email = readString( body );
+        job.emailJobLinkPrefix = readString( body );
+        job.emailOnJobStart = body.readBoolean();
+        job.emailOnJobComplete = body.readBoolean();
+        job.inputFASTAContent = readString( body );
+        return job;
+    }
+
+    private static byte[] frame( byte[] body ) {
+        ByteBuffer record = ByteBuffer.allocate( body.length + 8 );
+        record.putInt( body.length );
+        record.putInt( (int) crc32( body ) );
+        record.put( body );
+        return record.array();
+    }
+
+    private static long crc32( byte[] body ) {
+        CRC32 crc = new CRC32();
+        crc.update( body, 0, body.length );
+        return crc.getValue();
+    }
+
+    private static void writeString( DataOutputStream out, String value ) throws IOException {
+        if ( value == null ) {
+            out.writeInt( -1 );
+            return;
+        }
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readString( DataInputStream in ) throws IOException {
+        int length = in.readInt();
+        if ( length < 0 ) {
+            return null;
+        }
+        if ( length > in.available() ) {
+            // Only read from a record in memory, all of which is available
+            throw new EOFException();
+        }
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    private static final class LiveJob {
+        private final byte[] createdRecord;
+        private Event state = Event.CREATED;
+        private RecoveredJob job;
+
+        private LiveJob( byte[] createdRecord ) {
+            this.createdRecord = createdRecord;
+        }
+    }
+
+    /**
+     * What is needed to submit an unfinished job again.
+     */
+    @Getter
+    public static final class RecoveredJob {
+        private String jobId;
+        private String clientId;
+        private String userId;
+        private String label;
+        private boolean hidden;
+        private String email;
+        private String emailJobLinkPrefix;
+        private boolean emailOnJobStart;
+        private boolean emailOnJobComplete;
+        private String inputFASTAContent;
+        private Event state;
+    }
+}
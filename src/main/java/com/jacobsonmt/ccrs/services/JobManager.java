@@ -1,17 +1,26 @@
 package com.jacobsonmt.ccrs.services;
 
+import com.jacobsonmt.ccrs.execution.WorkerPool;
 import com.jacobsonmt.ccrs.model.CCRSJob;
-import com.jacobsonmt.ccrs.model.CCRSJobResult;
+import com.jacobsonmt.ccrs.model.CCRSJobBatch;
 import com.jacobsonmt.ccrs.model.FASTASequence;
 import com.jacobsonmt.ccrs.repositories.JobRepository;
+import com.jacobsonmt.ccrs.scheduling.JobScheduler;
+import com.jacobsonmt.ccrs.scheduling.QueuePositionTracker;
+import com.jacobsonmt.ccrs.scheduling.ResourceBudget;
+import com.jacobsonmt.ccrs.scheduling.RuntimeEstimator;
 import com.jacobsonmt.ccrs.settings.ApplicationSettings;
 import com.jacobsonmt.ccrs.settings.ClientSettings;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
@@ -20,8 +29,11 @@ import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
@@ -30,6 +42,7 @@ import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 import org.apache.logging.log4j.util.Strings;
 import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
 
 @Log4j2
 @Service
@@ -47,24 +60,63 @@ public class JobManager {
     @Setter
     private ExecutorService executor;
 
-    // Contains a copy of the processing queue of jobs internal to executor.
-    // It is non-trivial to extract a list of running/waiting jobs in the executor
-    // so we maintain a copy in sync with the real thing.
+    // Decides which job in the user, client and process queues runs next
+    private final JobScheduler jobScheduler;
+
+    // Contains a copy of the process queue, jobs that are waiting for a worker or running.
     private final Set<CCRSJob> jobQueueMirror = new LinkedHashSet<>();
 
-    // Secondary client queues or waiting lines. One specific to each client.
-    private Map<String, Queue<CCRSJob>> clientQueues = new ConcurrentHashMap<>();
+    // Results of earlier runs of identical input
+    private final ResultCache resultCache;
+
+    // Hands out places in the process queue so positions can be worked out when they are read
+    private final QueuePositionTracker positionTracker = new QueuePositionTracker();
+
+    // Records job lifecycle so unfinished jobs can be resubmitted after a restart
+    private final JobJournal jobJournal;
+
+    // Warm tool processes to run jobs on, if enabled
+    private final WorkerPool workerPool;
+
+    // Learns runtime by sequence length from finished jobs, for the scheduler
+    private final RuntimeEstimator runtimeEstimator;
+
+    // Memory and CPU held by running jobs, jobs are only started while they fit
+    private final ResourceBudget resourceBudget;
+
+    // Sizes the executor at runtime
+    private final ConcurrencyController concurrencyController;
+
+    // Saves completed jobs and sends their emails off the worker threads
+    private final CompletionWriter completionWriter;
 
-    // Tertiary user queues or waiting lines. One specific to each user in each client.
-    private Map<String, Queue<CCRSJob>> userQueues = new ConcurrentHashMap<>();
+    // Queued or running executions by content hash, identical jobs attach to these instead of being queued
+    private final Map<String, InFlightExecution> inFlight = new HashMap<>();
+
+    // Batch members the batch produced no result for, waiting to run on their own ahead of the process queue
+    private final Queue<CCRSJob> runAlone = new ArrayDeque<>();
+
+    // Set once a batch shows the command only reads the first sequence of its input
+    private volatile boolean batchInputIgnored = false;
 
     public JobManager(
         ApplicationSettings applicationSettings, ClientSettings clientSettings, EmailService emailService,
-        JobRepository jobRepository) {
+        JobRepository jobRepository, JobScheduler jobScheduler, ResultCache resultCache, JobJournal jobJournal,
+        WorkerPool workerPool, RuntimeEstimator runtimeEstimator, ResourceBudget resourceBudget,
+        ConcurrencyController concurrencyController, CompletionWriter completionWriter) {
         this.applicationSettings = applicationSettings;
         this.clientSettings = clientSettings;
         this.emailService = emailService;
         this.jobRepository = jobRepository;
+        this.jobScheduler = jobScheduler;
+        this.resultCache = resultCache;
+        this.jobJournal = jobJournal;
+        this.workerPool = workerPool;
+        this.runtimeEstimator = runtimeEstimator;
+        this.resourceBudget = resourceBudget;
+        this.concurrencyController = concurrencyController;
+        this.completionWriter = completionWriter;
+        this.jobScheduler.setReadyListener( this::onJobReady );
     }
 
     private static String userQueueKey(CCRSJob job) {
@@ -74,7 +126,13 @@ public class JobManager {
     // Stored approximate number of completed jobs for each clientId. Can be used to test when to update during polling.
     private final Map<String, AtomicInteger> completionCounts = new ConcurrentHashMap<>();
 
-    // Used to periodically purge the old saved jobs
+    // Stored number of jobs for each clientId that were stopped for running too long.
+    private final Map<String, AtomicInteger> timeoutCounts = new ConcurrentHashMap<>();
+
+    // Pending timeouts of running jobs
+    private final Map<CCRSJob, ScheduledFuture<?>> timeouts = new ConcurrentHashMap<>();
+
+    // Used to periodically purge the old saved jobs, to kill cancelled jobs that do not exit and to time out jobs
     private ScheduledExecutorService scheduler;
 
     private static final int MAX_DEFAULT_LABEL_SIZE = 20;
@@ -84,18 +142,59 @@ public class JobManager {
      *
      * Create and schedule process queue executor.
      * Load previously completed jobs from disk if enabled.
+     * Resubmit jobs that were unfinished when the server stopped.
      */
     @PostConstruct
     private void initialize() {
         log.info( "Job Manager Initialize" );
-        executor = Executors.newFixedThreadPool( applicationSettings.getConcurrentJobs() );
+        ThreadPoolExecutor pool = new ThreadPoolExecutor( applicationSettings.getConcurrentJobs(),
+                applicationSettings.getConcurrentJobs(), 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>() );
+        executor = pool;
+        concurrencyController.attach( pool, positionTracker::size );
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        resubmitUnfinishedJobs();
+    }
+
+    private void resubmitUnfinishedJobs() {
+        List<JobJournal.RecoveredJob> recovered = jobJournal.recover();
+        if ( recovered.isEmpty() ) {
+            return;
+        }
+
+        log.info( "Resubmitting " + recovered.size() + " unfinished jobs" );
+        for ( JobJournal.RecoveredJob r : recovered ) {
+            CCRSJob job = jobBuilder( r.getJobId() )
+                    .clientId( r.getClientId() )
+                    .userId( r.getUserId() )
+                    .label( r.getLabel() )
+                    .inputFASTAContent( r.getInputFASTAContent() )
+                    .hidden( r.isHidden() )
+                    .email( r.getEmail() )
+                    .emailJobLinkPrefix( r.getEmailJobLinkPrefix() )
+                    .emailOnJobSubmitted( false ) // Already sent
+                    .emailOnJobStart( r.isEmailOnJobStart() )
+                    .emailOnJobComplete( r.isEmailOnJobComplete() )
+                    .build();
+            String message = submit( job );
+            if ( !message.isEmpty() ) {
+                log.warn( "Unable to resubmit job (" + job.getJobId() + "): " + message );
+            }
+        }
     }
 
     @PreDestroy
     public void destroy() {
         log.info( "JobManager destroyed" );
+        concurrencyController.shutdown();
         executor.shutdownNow();
         scheduler.shutdownNow();
+
+        // Interrupted workers only notice once their command exits
+        List<CCRSJob> running;
+        synchronized ( jobQueueMirror ) {
+            running = new ArrayList<>( jobQueueMirror );
+        }
+        running.forEach( CCRSJob::kill );
     }
 
 
@@ -124,18 +223,8 @@ public class JobManager {
                               boolean emailOnJobSubmitted,
                               boolean emailOnJobStart,
                               boolean emailOnJobComplete ) {
-        CCRSJob.CCRSJobBuilder jobBuilder = CCRSJob.builder();
-
         // Generated
-        String jobId = UUID.randomUUID().toString();
-        jobBuilder.jobId( jobId );
-
-        // Static Resources
-        jobBuilder.command( applicationSettings.getCommand() );
-        jobBuilder.jobsDirectory( Paths.get( applicationSettings.getJobsDirectory(), jobId) );
-        jobBuilder.outputCSVFilename( applicationSettings.getOutputCSVFilename() );
-        jobBuilder.inputFASTAFilename( applicationSettings.getInputFASTAFilename() );
-        jobBuilder.jobSerializationFilename( applicationSettings.getJobSerializationFilename() );
+        CCRSJob.CCRSJobBuilder jobBuilder = jobBuilder( UUID.randomUUID().toString() );
 
         // User Inputs
         jobBuilder.clientId( clientId );
@@ -154,6 +243,20 @@ public class JobManager {
 
     }
 
+    /**
+     * @return builder with the id and static resources of a job filled in
+     */
+    private CCRSJob.CCRSJobBuilder jobBuilder( String jobId ) {
+        CCRSJob.CCRSJobBuilder jobBuilder = CCRSJob.builder();
+        jobBuilder.jobId( jobId );
+        jobBuilder.command( applicationSettings.getCommand() );
+        jobBuilder.jobsDirectory( Paths.get( applicationSettings.getJobsDirectory(), jobId) );
+        jobBuilder.outputCSVFilename( applicationSettings.getOutputCSVFilename() );
+        jobBuilder.inputFASTAFilename( applicationSettings.getInputFASTAFilename() );
+        jobBuilder.jobSerializationFilename( applicationSettings.getJobSerializationFilename() );
+        return jobBuilder;
+    }
+
     public List<CCRSJob> createJobs( String clientId,
                                      String userId,
                                      String label,
@@ -198,179 +301,333 @@ public class JobManager {
     }
 
     /**
-     * Submit job to executor for process queue.
+     * Called by the scheduler when a job is promoted into the process queue. Queues a dispatch on the executor so that
+     * a free worker will ask the scheduler for the next job to run.
      *
      * Synchronized on jobQueueMirror.
      *
      * @param job
      */
-    private void submitToProcessQueue( CCRSJob job ) {
+    private void onJobReady( CCRSJob job ) {
         synchronized ( jobQueueMirror ) {
             log.info( "Submitting job (" + job.getJobId() + ") for client-user: (" + userQueueKey(job) + ") to process queue" );
             job.setSubmittedDate( new Date() );
             job.setJobManager( this );
+            job.setWorkerPool( workerPool.isEnabled() ? workerPool : null );
 
             jobQueueMirror.add( job );
-            job.setPosition( (int) jobQueueMirror.stream().filter( j -> !j.isRunning() ).count() );
-            job.setStatus( "Position: " + job.getPosition() );
-
-            Future<CCRSJobResult> future = executor.submit( job );
-            job.setFuture( future );
-
+            job.setTicket( positionTracker.issue() );
         }
+        jobJournal.promoted( job );
+        executor.submit( this::dispatchNext );
     }
 
     /**
-     * For a specific client, submit the job at the top of their personal queue to the process queue if there is room left in their
-     * allocated process queue limit.
+     * Run the next job on the current worker thread, a batch member waiting to run on its own or else the job chosen
+     * by the scheduler, if it fits in the resource budget. Otherwise it is left at the head of its queue until a
+     * running job releases enough.
      *
-     * @param clientId specific client
+     * Whatever made room for this job may have made room for more, so once a job is taken another dispatch is handed
+     * to an idle worker. Dispatching carries on that way until no job fits or every worker is busy.
      */
-    private void submitTopOfClientQueue( String clientId ) {
-        int cnt = 0;
-        synchronized ( jobQueueMirror ) {
+    private void dispatchNext() {
+        CCRSJob alone = nextToRunAlone();
+        if ( alone != null ) {
+            dispatchOnIdleWorker();
+            scheduleTimeout( alone );
+            alone.runAfterBatch();
+            return;
+        }
 
-            for ( CCRSJob job : jobQueueMirror ) {
-                if ( job.getClientId().equals( clientId ) ) cnt++;
+        CCRSJob job = jobScheduler.next( resourceBudget::tryReserve );
+        if ( job != null ) {
+            dispatchOnIdleWorker();
+            leaveProcessQueue( job );
+            List<CCRSJob> batch = gatherBatch( job );
+            try {
+                if ( batch.size() > 1 ) {
+                    CCRSJobBatch jobBatch = new CCRSJobBatch( batch,
+                            Paths.get( applicationSettings.getJobsDirectory(), "batch-" + job.getJobId() ),
+                            job.getWorkerPool() );
+                    jobBatch.run();
+                    if ( jobBatch.isInputIgnored() && !batchInputIgnored ) {
+                        batchInputIgnored = true;
+                        log.warn( "Command only produced a result for the first sequence of a batch, " +
+                                "jobs will no longer be batched" );
+                    }
+                } else {
+                    job.call();
+                }
+            } catch ( Exception e ) {
+                log.error( e );
             }
-            log.debug( "Found {} existing jobs for client {} in processing queue", cnt, clientId);
         }
+    }
 
-        if ( cnt < clientSettings.getClients().get( clientId ).getProcessLimit() ) {
+    private void dispatchOnIdleWorker() {
+        if ( executor.isShutdown() ) {
+            return;
+        }
+        if ( executor instanceof ThreadPoolExecutor ) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            // Counts this thread, a busy pool picks up the next job through the dispatch of whichever job ends
+            if ( pool.getActiveCount() >= pool.getMaximumPoolSize() || !pool.getQueue().isEmpty() ) {
+                return;
+            }
+        }
+        executor.submit( this::dispatchNext );
+    }
 
-            Queue<CCRSJob> jobs = clientQueues.get( clientId );
+    /**
+     * Called by a batch for a member it did not produce a result for. The job gives up what it held as part of the
+     * batch and waits to run on its own, before any job in the process queue, once it fits in the resource budget.
+     * Its timeout starts over when it does.
+     */
+    public void runAlone( CCRSJob job ) {
+        clearTimeout( job );
+        synchronized ( runAlone ) {
+            runAlone.add( job );
+        }
+        resourceBudget.release( job );
+        if ( !executor.isShutdown() ) {
+            executor.submit( this::dispatchNext );
+        }
+    }
 
-            if ( jobs != null ) {
-                CCRSJob job;
-                synchronized ( jobs ) {
-                    job = jobs.poll();
-                }
-                if ( job != null ) {
-                    submitToProcessQueue( job );
-                }
+    /**
+     * @return the first batch member waiting to run on its own if it fits in the resource budget, null otherwise
+     */
+    private CCRSJob nextToRunAlone() {
+        synchronized ( runAlone ) {
+            CCRSJob job = runAlone.peek();
+            if ( job == null || !resourceBudget.tryReserve( job ) ) {
+                return null;
             }
+            return runAlone.poll();
         }
-
     }
 
     /**
-     * Add job to personal queue of owning client if there is room in their total job allocation limit.
+     * Take further short jobs from the head of the process queue to run in one invocation with the given job, within
+     * the batch limits. Stops at the first job that does not fit so that the scheduler's order is kept.
      *
-     * @param job
+     * @return jobs to run together, starting with the given job
      */
-    private void submitToClientQueue( CCRSJob job ) {
-
-        Queue<CCRSJob> jobs = clientQueues.computeIfAbsent( job.getClientId(), k -> new LinkedList<>() );
-
-        log.debug( "Found {} existing jobs for client {} in client queue", jobs.size(), job.getClientId());
+    private List<CCRSJob> gatherBatch( CCRSJob job ) {
+        List<CCRSJob> batch = new ArrayList<>();
+        batch.add( job );
+        if ( !applicationSettings.isBatchEnabled() || batchInputIgnored || !fitsBatch( job ) ) {
+            return batch;
+        }
 
-        if ( jobs.size() >= clientSettings.getClients().get( job.getClientId() ).getJobLimit() ) {
-            log.info( "Too many jobs in client queue, failed to submit job ({}) for client-user: ({})",
-                    job.getJobId(), userQueueKey(job));
-            return;
+        int residues = job.getSequenceLength();
+        while ( batch.size() < applicationSettings.getBatchMaxJobs() ) {
+            int room = applicationSettings.getBatchMaxResidues() - residues;
+            CCRSJob next = jobScheduler.next( j -> fitsBatch( j ) && j.getSequenceLength() <= room &&
+                    resourceBudget.tryReserve( j ) );
+            if ( next == null ) {
+                break;
+            }
+            leaveProcessQueue( next );
+            residues += next.getSequenceLength();
+            batch.add( next );
         }
+        return batch;
+    }
 
-        synchronized ( jobs ) {
+    private boolean fitsBatch( CCRSJob job ) {
+        return job.getSequenceLength() <= applicationSettings.getBatchMaxSequenceLength();
+    }
 
-            if ( !jobs.contains( job ) ) {
-                log.info( "Submitting job (" + job.getJobId() + ") for client-user: (" + userQueueKey(job) + ") to client queue" );
-                jobs.add( job );
-                job.setStatus( "Queued..." );
-                submitTopOfClientQueue( job.getClientId() );
-            }
+    /**
+     * Give up the job's place in the process queue, moving every job behind it up by one.
+     */
+    private void leaveProcessQueue( CCRSJob job ) {
+        QueuePositionTracker.Ticket ticket = job.getTicket();
+        if ( ticket != null ) {
+            ticket.depart();
+            job.setTicket( null );
         }
     }
 
     /**
-     * For a specific user, submit the job at the top of their personal queue to their owning client queue
-     * if there is room left in their allocated client queue limit.
+     * Begin process of submitting a job to the queueing system.
      *
-     * @param userQueueKey key to user queue map for user
+     * @param job
+     * @return Message for things like validation failure.
      */
-    private void submitTopOfUserQueue( String userQueueKey ) {
+    public String submit( CCRSJob job ) {
 
-        Queue<CCRSJob> jobs = userQueues.get( userQueueKey );
+        if ( job.isComplete() || job.isFailed() || job.isRunning() ) {
+            return "Job already submitted.";
+        }
 
-        if ( jobs != null ) {
-            CCRSJob job = jobs.peek();
+        if ( job.isEmailOnJobSubmitted() && job.getEmail() != null && !job.getEmail().isEmpty() ) {
+            try {
+                emailService.sendJobSubmittedMessage( job );
+            } catch ( Exception e ) {
+                log.warn( e );
+            }
+        }
 
-            if ( job != null ) {
+        if ( completeFromResultCache( job ) ) {
+            return "";
+        }
 
-                Queue<CCRSJob> clientQueue = clientQueues.computeIfAbsent( job.getClientId(), k -> new LinkedList<>() );
+        // Journaled before scheduling so that later transitions always follow it
+        jobJournal.created( job );
+        if ( !attachOrSchedule( job ) ) {
+            jobJournal.cancelled( job );
+            return "Too many jobs";
+        }
+        jobJournal.queued( job );
+        jobRepository.cacheJob( job );
+        return "";
+    }
 
-                int cnt = 0;
-                synchronized ( clientQueue ) {
+    /**
+     * Attach the job to a queued or running job with identical input if there is one, otherwise hand it to the
+     * scheduler. Attached jobs are not seen by the scheduler and so do not count towards any limits.
+     *
+     * Synchronized on inFlight.
+     *
+     * @return false if the scheduler rejected the job
+     */
+    private boolean attachOrSchedule( CCRSJob job ) {
+        String contentHash = job.getContentHash();
+        if ( !applicationSettings.isDeduplicateJobs() || contentHash == null ) {
+            return jobScheduler.submit( job );
+        }
 
-                    for ( CCRSJob j : clientQueue ) {
-                        if ( j.getUserId().equals( job.getUserId() ) ) cnt++;
-                    }
-                    log.debug( "Found {} existing jobs for user {} in client queue {}", cnt, job.getUserId(),
-                            job.getClientId() );
+        synchronized ( inFlight ) {
+            InFlightExecution execution = inFlight.get( contentHash );
+            if ( execution != null ) {
+                log.info( "Attaching job (" + job.getJobId() + ") for client-user: (" + userQueueKey( job ) +
+                        ") to identical job (" + execution.leader.getJobId() + ")" );
+                job.setSubmittedDate( new Date() );
+                job.setLeader( execution.leader );
+                if ( execution.leader.isRunning() ) {
+                    job.setRunning( true );
+                    job.setStartedDate( execution.leader.getStartedDate() );
                 }
+                execution.followers.add( job );
+                return true;
+            }
 
-                if ( cnt < clientSettings.getClients().get( job.getClientId() ).getUserClientLimit() ) {
-                    synchronized ( jobs ) {
-                        job = jobs.poll();
-                    }
-                    submitToClientQueue( job );
-                } else {
-                    log.debug( "Too many jobs in client queue for user ({}), failed to promote job ({}) for " +
-                                    "client-user: ({})", job.getUserId(), job.getJobId(), userQueueKey(job));
-                }
+            if ( !jobScheduler.submit( job ) ) {
+                return false;
             }
+            inFlight.put( contentHash, new InFlightExecution( job ) );
+            return true;
         }
     }
 
     /**
-     * Add job to personal queue of owning user if there is room in their total job allocation limit.
-     *
-     * @param job
+     * @return jobs attached to this job, empty if it has none
      */
-    private String submitToUserQueue( CCRSJob job ) {
-        Queue<CCRSJob> jobs = userQueues.computeIfAbsent( userQueueKey(job), k -> new LinkedList<>() );
-
-        log.debug( "Found {} existing jobs for user {} in user queue", jobs.size(), job.getUserId());
+    private List<CCRSJob> followersOf( CCRSJob job ) {
+        synchronized ( inFlight ) {
+            InFlightExecution execution = job.getContentHash() == null ? null : inFlight.get( job.getContentHash() );
+            if ( execution == null || execution.leader != job ) {
+                return new ArrayList<>();
+            }
+            return new ArrayList<>( execution.followers );
+        }
+    }
 
-        if ( jobs.size() >= clientSettings.getClients().get( job.getClientId() ).getUserJobLimit() ) {
-            log.info( "Too many jobs in user queue, failed to submit job ({}) for client-user: ({})",
-                    job.getJobId(), userQueueKey(job));
-            return "Too many jobs";
+    /**
+     * The job has finished so nothing more may attach to it.
+     *
+     * @return jobs that were attached to this job
+     */
+    private List<CCRSJob> finishExecution( CCRSJob job ) {
+        synchronized ( inFlight ) {
+            InFlightExecution execution = job.getContentHash() == null ? null : inFlight.get( job.getContentHash() );
+            if ( execution == null || execution.leader != job ) {
+                return new ArrayList<>();
+            }
+            inFlight.remove( job.getContentHash() );
+            return execution.followers;
         }
+    }
 
-        synchronized ( jobs ) {
+    /**
+     * Detach a job from the job it is waiting on, or if it was leading an execution that has been cancelled before
+     * it started, schedule the first of its followers that the scheduler accepts in its place.
+     */
+    private void detach( CCRSJob job ) {
+        List<CCRSJob> rejected = new ArrayList<>();
+        synchronized ( inFlight ) {
+            InFlightExecution execution = job.getContentHash() == null ? null : inFlight.get( job.getContentHash() );
+            if ( execution == null ) {
+                return;
+            }
 
-            if ( !jobs.contains( job ) ) {
-                log.info( "Submitting job (" + job.getJobId() + ") for client-user: (" + userQueueKey(job) + ") to user queue" );
-                jobs.add( job );
-                job.setStatus( "Pending..." );
-                jobRepository.cacheJob( job );
-                submitTopOfUserQueue( userQueueKey(job) );
+            if ( execution.leader != job ) {
+                if ( execution.followers.remove( job ) ) {
+                    job.setLeader( null );
+                }
+                return;
+            }
+
+            inFlight.remove( job.getContentHash() );
+            // Followers of a leader that had started took on its state, none of them has started yet
+            execution.followers.forEach( JobManager::resetFollower );
+            while ( !execution.followers.isEmpty() ) {
+                CCRSJob next = execution.followers.remove( 0 );
+                next.setLeader( null );
+                if ( jobScheduler.submit( next ) ) {
+                    InFlightExecution handedOff = new InFlightExecution( next );
+                    handedOff.followers.addAll( execution.followers );
+                    handedOff.followers.forEach( f -> f.setLeader( next ) );
+                    inFlight.put( next.getContentHash(), handedOff );
+                    break;
+                }
+                rejected.add( next );
             }
         }
-        return "";
+
+        for ( CCRSJob next : rejected ) {
+            next.setComplete( true );
+            next.setFailed( true );
+            next.setPosition( null );
+            next.setStatus( "Too many jobs" );
+            recordCompletion( next );
+        }
     }
 
     /**
-     * Begin process of submitting a job to the queueing system.
-     *
-     * @param job
-     * @return Message for things like validation failure.
+     * Undo what a follower took on from its leader when it attached or when the leader started.
      */
-    public String submit( CCRSJob job ) {
+    private static void resetFollower( CCRSJob follower ) {
+        follower.setRunning( false );
+        follower.setStartedDate( null );
+        follower.setPosition( null );
+    }
 
-        if ( job.isComplete() || job.isFailed() || job.isRunning() ) {
-            return "Job already submitted.";
+    /**
+     * Complete a job straight away if an identical job has already been run, bypassing the queues entirely.
+     *
+     * @return true if the job was completed from the result cache
+     */
+    private boolean completeFromResultCache( CCRSJob job ) {
+        Path cachedOutput = resultCache.lookup( job );
+        if ( cachedOutput == null ) {
+            return false;
         }
 
-        if ( job.isEmailOnJobSubmitted() && job.getEmail() != null && !job.getEmail().isEmpty() ) {
-            try {
-                emailService.sendJobSubmittedMessage( job );
-            } catch ( Exception e ) {
-                log.warn( e );
-            }
+        try {
+            job.setSubmittedDate( new Date() );
+            job.completeFromCachedResult( cachedOutput );
+        } catch ( Exception e ) {
+            log.warn( "Unable to use cached result for job (" + job.getJobId() + "), it will be run instead", e );
+            resultCache.invalidate( job );
+            return false;
         }
 
-        return submitToUserQueue( job );
+        jobRepository.cacheJob( job );
+        recordCompletion( job );
+        return true;
     }
 
     public CCRSJob getSavedJob( String jobId ) {
@@ -384,60 +641,84 @@ public class JobManager {
             return "No jobs found for: " + userId;
         }
 
+        // Drop all queued jobs at once so the queues are not refilled with jobs that are about to be stopped
+        Set<CCRSJob> removed = new HashSet<>( jobScheduler.cancelAll( clientId, userId ) );
+        synchronized ( jobQueueMirror ) {
+            jobQueueMirror.removeAll( removed );
+        }
+        removed.forEach( this::leaveProcessQueue );
+        removed.forEach( this::detach );
+
         for ( CCRSJob job : jobs ) {
-            stopJob( job );
+            stopJob( job, removed.contains( job ) );
         }
         return "Jobs deleted for: " + userId;
     }
 
     public void stopJob( CCRSJob job ) {
+        stopJob( job, false );
+    }
+
+    /**
+     * @param alreadyRemoved job has already been taken out of the scheduler's queues
+     */
+    private void stopJob( CCRSJob job, boolean alreadyRemoved ) {
         log.info( "Requesting job stop (" + job.getJobId() + ") for client-user: (" + userQueueKey(job) + ")" );
-        // Start at the lowest queue and work our way up to minimize race conditions
-
-        Queue<CCRSJob> jobs = userQueues.get( userQueueKey(job) );
-        if ( jobs != null ) {
-            synchronized ( jobs ) {
-                if ( jobs.contains( job ) ) {
-                    // Not yet submitted, just remove it from user queue
-                    jobs.remove( job );
-                }
-            }
-        }
 
-        jobs = clientQueues.get( job.getClientId() );
-        if ( jobs != null ) {
-            synchronized ( jobs ) {
-                if ( jobs.contains( job ) ) {
-                    // Not yet submitted, just remove it from client queue
-                    jobs.remove( job );
-                }
-            }
+        boolean removed = jobScheduler.cancel( job ) || alreadyRemoved;
+        boolean attached = job.getLeader() != null;
+
+        // Neither queued nor attached, so it is either finished or has been handed to a worker
+        boolean cancelledRunning = !removed && !attached && job.cancel();
+
+        if ( removed || attached || cancelledRunning ) {
+            detach( job );
         }
 
         synchronized ( jobQueueMirror ) {
-            if ( jobQueueMirror.contains( job ) ) {
-                if ( job.isComplete() ) {
-                    jobQueueMirror.remove( job );
-                } else if ( job.isRunning() ) {
-                    // Disabled for now as it doesn't currently work if job is running
-//                    job.getFuture().cancel( true );
-//                    jobQueueMirror.remove( job );
-                } else {
-                    job.getFuture().cancel( true );
-                    jobQueueMirror.remove( job );
-                }
+            if ( jobQueueMirror.contains( job ) && ( removed || cancelledRunning || job.isComplete() ) ) {
+                jobQueueMirror.remove( job );
+                leaveProcessQueue( job );
             }
         }
 
+        if ( cancelledRunning ) {
+            // Hand the slot to the next job now instead of waiting for the command to exit
+            jobScheduler.release( job );
+            scheduler.schedule( job::kill, applicationSettings.getCancelGracePeriodSeconds(), TimeUnit.SECONDS );
+        }
+
         // Remove the job from saved cache and disk no matter what so that it becomes inaccessible
         jobRepository.delete( job );
+        jobJournal.cancelled( job );
+    }
 
-        // Fix any gaps created in the queues, if there are no gaps these do nothing so safe to run in either case
-        submitTopOfClientQueue( job.getClientId() );
-        submitTopOfUserQueue( userQueueKey( job ) );
+    /**
+     * Called by a cancelled job once its command has exited. Its slot has already been released.
+     */
+    public void onJobCancelled( CCRSJob job ) {
+        clearTimeout( job );
+        releaseResources( job );
+        try {
+            FileSystemUtils.deleteRecursively( job.getJobsDirectory() );
+        } catch ( IOException e ) {
+            log.warn( "Failed to delete directory of cancelled job (" + job.getJobId() + ")", e );
+        }
     }
 
     public void onJobStart( CCRSJob job ) {
+        jobJournal.started( job );
+        scheduleTimeout( job );
+        sendJobStartMessage( job );
+
+        for ( CCRSJob follower : followersOf( job ) ) {
+            follower.setRunning( true );
+            follower.setStartedDate( job.getStartedDate() );
+            sendJobStartMessage( follower );
+        }
+    }
+
+    private void sendJobStartMessage( CCRSJob job ) {
         if ( job.isEmailOnJobStart() && job.getEmail() != null && !job.getEmail().isEmpty() ) {
             try {
                 emailService.sendJobStartMessage( job );
@@ -445,47 +726,110 @@ public class JobManager {
                 log.warn( e );
             }
         }
+    }
 
-        // Update positions
-        synchronized ( jobQueueMirror ) {
-            int idx = 1;
-            for ( CCRSJob ccrsJob : jobQueueMirror ) {
-                if ( !ccrsJob.isRunning() ) {
-                    ccrsJob.setPosition( idx );
-                    ccrsJob.setStatus( "Position: " + idx );
-                    idx++;
-                }
-            }
+    /**
+     * Arrange for the job to be stopped if it is still running after its allowed time. Jobs run in a batch are
+     * allowed the time of the whole batch.
+     */
+    private void scheduleTimeout( CCRSJob job ) {
+        int residues = job.getBatch() != null ? job.getBatch().getResidues() : job.getSequenceLength();
+        long timeoutMillis = (long) ( 1000 * ( applicationSettings.getJobTimeoutSeconds() +
+                applicationSettings.getJobTimeoutSecondsPerResidue() * residues ) );
+        if ( timeoutMillis > 0 ) {
+            timeouts.put( job, scheduler.schedule( () -> onJobTimeout( job ), timeoutMillis, TimeUnit.MILLISECONDS ) );
         }
     }
 
-    public void onJobComplete( CCRSJob job ) {
-        job.setSaveExpiredDate( System.currentTimeMillis() + applicationSettings.getPurgeAfterHours() * 60 * 60 * 1000 );
-        if ( job.isEmailOnJobComplete() && job.getEmail() != null && !job.getEmail().isEmpty() ) {
-            try {
-                emailService.sendJobCompletionMessage( job );
-            } catch ( Exception e ) {
-                log.warn( e );
-            }
+    private void clearTimeout( CCRSJob job ) {
+        ScheduledFuture<?> timeout = timeouts.remove( job );
+        if ( timeout != null ) {
+            timeout.cancel( false );
+        }
+    }
+
+    private void onJobTimeout( CCRSJob job ) {
+        if ( timeouts.remove( job ) == null || !job.timeOut() ) {
+            return;
+        }
+
+        log.warn( "Job (" + job.getJobId() + ") for client-user: (" + userQueueKey( job ) + ") timed out" );
+        timeoutCounts.computeIfAbsent( job.getClientId(), k -> new AtomicInteger( 0 ) ).incrementAndGet();
+
+        // In case the command ignores the request to exit
+        scheduler.schedule( job::kill, applicationSettings.getCancelGracePeriodSeconds(), TimeUnit.SECONDS );
+    }
+
+    /**
+     * Return the job's share of the resource budget once its command has exited, a job waiting for it may now start.
+     */
+    private void releaseResources( CCRSJob job ) {
+        if ( resourceBudget.release( job ) && !executor.isShutdown() ) {
+            executor.submit( this::dispatchNext );
         }
+    }
+
+    public int getTimeoutCount( String clientId ) {
+        AtomicInteger count = timeoutCounts.get( clientId );
+        return count == null ? 0 : count.get();
+    }
+
+    public void onJobComplete( CCRSJob job ) {
+        clearTimeout( job );
         // Remove job from queue mirror
         job.setPosition( null );
         synchronized ( jobQueueMirror ) {
             jobQueueMirror.remove( job );
         }
 
+        recordCompletion( job );
+
+        // A batch's runtime is shared by its jobs so says little about any one of them
+        if ( !job.isFailed() && !job.isBatched() ) {
+            runtimeEstimator.record( job.getSequenceLength(), job.getCommandMillis() );
+            if ( job.getPeakMemoryKilobytes() > 0 ) {
+                resourceBudget.record( job.getSequenceLength(), job.getPeakMemoryKilobytes() );
+            }
+        }
+        releaseResources( job );
+        concurrencyController.recordCompletion( job.getSequenceLength() );
+
+        // Stored in the result cache by now, so identical jobs submitted from here on are served from there
+        for ( CCRSJob follower : finishExecution( job ) ) {
+            follower.completeWith( job );
+            recordCompletion( follower );
+        }
+
+        // Free the process queue slot for the next job of this client
+        jobScheduler.release( job );
+        log.info( String.format( "Jobs in queue: %d", jobQueueMirror.size() ) );
+    }
+
+    /**
+     * Notify, persist and count a finished job.
+     */
+    private void recordCompletion( CCRSJob job ) {
+        job.setSaveExpiredDate( System.currentTimeMillis() + applicationSettings.getPurgeAfterHours() * 60 * 60 * 1000 );
+
         if ( !job.isFailed() ) {
-            jobRepository.persistJob( job );
+            resultCache.store( job );
         }
 
+        // Journaled as complete only once saved, so that a job lost to a crash before then is run again
+        completionWriter.submit( job, !job.isFailed(), () -> {
+            jobJournal.completed( job );
+            if ( job.isEmailOnJobComplete() && job.getEmail() != null && !job.getEmail().isEmpty() ) {
+                try {
+                    emailService.sendJobCompletionMessage( job );
+                } catch ( Exception e ) {
+                    log.warn( e );
+                }
+            }
+        } );
+
         // Increment counts
         completionCounts.putIfAbsent( job.getClientId(), new AtomicInteger( 0 ) );
         completionCounts.get( job.getClientId() ).incrementAndGet();
-
-        // Add new job for given client
-        submitTopOfClientQueue( job.getClientId() );
-        submitTopOfUserQueue( userQueueKey( job ) );
-        log.info( String.format( "Jobs in queue: %d", jobQueueMirror.size() ) );
     }
 
     public int getCompletionCount(String clientId) {
@@ -493,6 +837,18 @@ public class JobManager {
         return count == null ? 0 : count.get();
     }
 
+    /**
+     * A job handed to the scheduler along with the identical jobs waiting on its result.
+     */
+    private static final class InFlightExecution {
+        private final CCRSJob leader;
+        private final List<CCRSJob> followers = new ArrayList<>();
+
+        private InFlightExecution( CCRSJob leader ) {
+            this.leader = leader;
+        }
+    }
+
 //    public List<CCRSJob.CCRSJobVO> listPublicJobs(boolean withResults) {
 //        return Stream.concat(jobQueueMirror.stream(), savedJobs.values().stream())
 //                .distinct()
@@ -0,0 +1,218 @@
+package com.jacobsonmt.ccrs.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Persistent store of result files keyed by job input and the command that produced them.
+ *
+ * A job whose normalized header and sequence match an earlier successful run of the same command can be completed
+ * from the stored output without running the command again. Entries are files in the result cache directory, the
+ * least valuable ones are deleted once the configured number of entries is exceeded.
+ */
+@Log4j2
+@Service
+public class ResultCache {
+
+    private static final String ENTRY_SUFFIX = ".list";
+
+    // How long a tool's fingerprint is used before its file is looked at again
+    private static final long TOOL_FINGERPRINT_SECONDS = 60;
+
+    private final ApplicationSettings applicationSettings;
+
+    private final Path directory;
+
+    // Key to cached output file
+    private final Cache<String, Path> entries;
+
+    // Resolved tool path to its fingerprint
+    private final Cache<Path, String> toolFingerprints = Caffeine.newBuilder()
+            .expireAfterWrite( TOOL_FINGERPRINT_SECONDS, TimeUnit.SECONDS )
+            .build();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ResultCache( ApplicationSettings applicationSettings ) {
+        this.applicationSettings = applicationSettings;
+
+        if ( !applicationSettings.isResultCacheEnabled() ) {
+            directory = null;
+            entries = null;
+            return;
+        }
+
+        directory = Paths.get( applicationSettings.getResultCacheDirectory() );
+        entries = Caffeine.newBuilder()
+                .maximumSize( applicationSettings.getResultCacheMaxEntries() )
+                .removalListener( ( String key, Path path, RemovalCause cause ) -> {
+                    if ( cause.wasEvicted() && path != null ) {
+                        evictions.incrementAndGet();
+                        try {
+                            Files.deleteIfExists( path );
+                        } catch ( IOException e ) {
+                            log.warn( "Failed to delete evicted cached result: " + path, e );
+                        }
+                    }
+                } )
+                .build();
+
+        loadEntries();
+    }
+
+    private void loadEntries() {
+        try {
+            Files.createDirectories( directory );
+            try ( Stream<Path> files = Files.list( directory ) ) {
+                files.filter( p -> p.getFileName().toString().endsWith( ENTRY_SUFFIX ) )
+                        .sorted( Comparator.comparing( p -> p.toFile().lastModified() ) )
+                        .forEach( p -> {
+                            String name = p.getFileName().toString();
+                            entries.put( name.substring( 0, name.length() - ENTRY_SUFFIX.length() ), p );
+                        } );
+            }
+            log.info( "Loaded {} cached results", entries.estimatedSize() );
+        } catch ( IOException e ) {
+            log.error( "Failed to load result cache: " + directory, e );
+        }
+    }
+
+    public boolean isEnabled() {
+        return entries != null;
+    }
+
+    /**
+     * @return cached output file for identical input to this job or null if there is none
+     */
+    public Path lookup( CCRSJob job ) {
+        if ( !isEnabled() ) {
+            return null;
+        }
+
+        Path path = entries.getIfPresent( key( job ) );
+        if ( path != null && Files.exists( path ) ) {
+            hits.incrementAndGet();
+            return path;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Save the output of a successfully completed job.
+     */
+    public void store( CCRSJob job ) {
+        if ( !isEnabled() || job.isFailed() || job.isCachedResult() ) {
+            return;
+        }
+
+        String key = key( job );
+        if ( entries.getIfPresent( key ) != null ) {
+            // Already stored, e.g. by the job this one was attached to
+            return;
+        }
+
+        Path target = directory.resolve( key + ENTRY_SUFFIX );
+        try {
+            // Copy then rename so a partially written entry is never visible
+            Path tmp = Files.createTempFile( directory, key, ".tmp" );
+            Files.copy( job.getJobsDirectory().resolve( job.getOutputCSVFilename() ), tmp,
+                    StandardCopyOption.REPLACE_EXISTING );
+            Files.move( tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            entries.put( key, target );
+            stores.incrementAndGet();
+        } catch ( IOException e ) {
+            log.warn( "Failed to cache result of job: " + job.getJobId(), e );
+        }
+    }
+
+    /**
+     * Forget a cached result, for example when it could not be used.
+     */
+    public void invalidate( CCRSJob job ) {
+        if ( isEnabled() ) {
+            String key = key( job );
+            Path path = entries.getIfPresent( key );
+            entries.invalidate( key );
+            if ( path != null ) {
+                try {
+                    Files.deleteIfExists( path );
+                } catch ( IOException e ) {
+                    log.warn( "Failed to delete cached result: " + path, e );
+                }
+            }
+        }
+    }
+
+    public Stats getStats() {
+        long h = hits.get();
+        long m = misses.get();
+        return new Stats( isEnabled(), isEnabled() ? entries.estimatedSize() : 0, h, m, stores.get(),
+                evictions.get(), h + m == 0 ? 0 : (double) h / ( h + m ) );
+    }
+
+    private String key( CCRSJob job ) {
+        return CCRSJob.sha256Hex( job.getContentHash() + "\n" + toolFingerprint( job ) );
+    }
+
+    /**
+     * The command, and the worker command when jobs are run by workers, are identified by their resolved path, size
+     * and modification time so that replacing the tool invalidates earlier results, within a minute. A configured tool
+     * version can be bumped to do the same by hand.
+     */
+    private String toolFingerprint( CCRSJob job ) {
+        StringBuilder fingerprint = new StringBuilder( applicationSettings.getResultCacheToolVersion() ).append( "\n" )
+                .append( fingerprint( job.getJobsDirectory().resolve( job.getCommand() ) ) );
+        if ( applicationSettings.isWorkerPoolEnabled() ) {
+            // Workers are started in the jobs directory
+            fingerprint.append( "\n" ).append( fingerprint( Paths.get( applicationSettings.getJobsDirectory() )
+                    .resolve( applicationSettings.getWorkerCommand() ) ) );
+        }
+        return fingerprint.toString();
+    }
+
+    private String fingerprint( Path tool ) {
+        return toolFingerprints.get( tool.normalize().toAbsolutePath(), ResultCache::readFingerprint );
+    }
+
+    private static String readFingerprint( Path tool ) {
+        try {
+            return tool + "\n" + Files.size( tool ) + "\n" + Files.getLastModifiedTime( tool ).toMillis();
+        } catch ( IOException e ) {
+            return tool.toString();
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Stats {
+        private final boolean enabled;
+        private final long entries;
+        private final long hits;
+        private final long misses;
+        private final long stores;
+        private final long evictions;
+        private final double hitRate;
+    }
+}
@@ -17,12 +17,60 @@ public class ApplicationSettings {
     private String inputFASTAFilename;
     private String jobSerializationFilename;
     private boolean loadJobsFromDisk;
+    private String jobIndexFilename = "jobs.index";
+    private long jobIndexCompactBytes = 16 * 1024 * 1024;
+    private int jobRecoveryThreads = 0;
+    private int persistQueueSize = 1000;
+    private int persistMaxGroup = 100;
 
-    private int maxCachedJobs = 1000;
+    private long maxCachedBytes = 0;
+    private double maxCachedHeapFraction = 0.25;
     private int concurrentJobs = 1;
     private boolean purgeSavedJobs = true;
     private int purgeSavedJobsTimeHours = 1;
     private int purgeAfterHours = 24;
     private boolean disableEmails = false;
+    private int cancelGracePeriodSeconds = 5;
+    private long jobTimeoutSeconds = 0;
+    private double jobTimeoutSecondsPerResidue = 0;
+    private boolean deduplicateJobs = true;
+
+    private boolean resultCacheEnabled = false;
+    private String resultCacheDirectory;
+    private int resultCacheMaxEntries = 10000;
+    private String resultCacheToolVersion = "";
+
+    private boolean journalEnabled = false;
+    private String journalFile;
+    private long journalCommitIntervalMillis = 10;
+    private long journalCompactBytes = 64 * 1024 * 1024;
+
+    private boolean workerPoolEnabled = false;
+    private String workerCommand;
+    private int workerPoolSize = 1;
+    private int workerMaxJobs = 100;
+    private long workerHealthCheckSeconds = 30;
+    private long workerStartupTimeoutSeconds = 60;
+
+    private boolean batchEnabled = false;
+    private int batchMaxJobs = 50;
+    private int batchMaxResidues = 5000;
+    private int batchMaxSequenceLength = 1000;
+
+    private boolean shortestJobFirst = true;
+    private double shortestJobFirstAgingRate = 1.0;
+
+    private long memoryBudgetMegabytes = 0;
+    private int cpuBudget = 0;
+    private int jobCpus = 1;
+    private double jobMemoryMegabytes = 256;
+    private double jobMemoryMegabytesPerResidue = 0.1;
+    private double jobMemoryHeadroom = 1.25;
+
+    private boolean adaptiveConcurrency = false;
+    private int minConcurrentJobs = 1;
+    private int maxConcurrentJobs = 16;
+    private long concurrencyIntervalSeconds = 30;
+    private double concurrencyLoadFactor = 1.0;
 
 }
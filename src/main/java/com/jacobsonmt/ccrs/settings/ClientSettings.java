@@ -45,5 +45,10 @@ public class ClientSettings {
          */
         private int userJobLimit = 20;
 
+        /**
+         * Relative share of workers given to this client when several clients have jobs ready to run
+         */
+        private int weight = 1;
+
     }
 }
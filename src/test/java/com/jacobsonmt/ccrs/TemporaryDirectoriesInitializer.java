@@ -0,0 +1,35 @@
+package com.jacobsonmt.ccrs;
+
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Points everything the application writes at runtime, saved jobs, the journal and cached results, at a temporary
+ * directory removed when the tests finish.
+ */
+public class TemporaryDirectoriesInitializer implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+
+    @Override
+    public void initialize( ConfigurableApplicationContext context ) {
+        Path root;
+        try {
+            root = Files.createTempDirectory( "ccrs-test" );
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+        Runtime.getRuntime().addShutdownHook( new Thread( () -> FileSystemUtils.deleteRecursively( root.toFile() ) ) );
+
+        TestPropertyValues.of(
+                "ccrs.settings.jobs-directory=" + root.resolve( "jobs" ) + "/",
+                "ccrs.settings.journal-file=" + root.resolve( "journal" ).resolve( "jobs.journal" ),
+                "ccrs.settings.result-cache-directory=" + root.resolve( "result-cache" ) + "/"
+        ).applyTo( context );
+    }
+}
@@ -0,0 +1,91 @@
+package com.jacobsonmt.ccrs.execution;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class ProcessTreeTest {
+
+    @Test
+    public void givenCommandWithChild_whenTerminate_thenChildIsStoppedToo() throws Exception {
+        assumeTrue( Files.isDirectory( Paths.get( "/proc" ) ) );
+
+        ProcessTree tree = ProcessTree.start( new ProcessBuilder( "sh", "-c", "sleep 60 & echo $!; wait" ) );
+        Process process = tree.getProcess();
+        assertThat( ProcessTree.pid( process ) ).isPositive();
+        String child = new BufferedReader( new InputStreamReader( process.getInputStream() ) ).readLine();
+
+        tree.terminate();
+
+        assertThat( process.waitFor( 10, TimeUnit.SECONDS ) ).isTrue();
+        assertThat( isAlive( child ) ).isFalse();
+    }
+
+    @Test
+    public void givenChildOrphanedByExitedCommand_whenKill_thenChildIsStoppedToo() throws Exception {
+        assumeTrue( Files.isDirectory( Paths.get( "/proc" ) ) );
+
+        // The command exits straight away leaving its child re-parented
+        ProcessTree tree = ProcessTree.start( new ProcessBuilder( "sh", "-c", "sleep 60 > /dev/null & echo $!" ) );
+        Process process = tree.getProcess();
+        String child = new BufferedReader( new InputStreamReader( process.getInputStream() ) ).readLine();
+        assertThat( process.waitFor( 10, TimeUnit.SECONDS ) ).isTrue();
+        assertThat( isAlive( child, 1 ) ).isTrue();
+
+        tree.kill();
+
+        assertThat( isAlive( child ) ).isFalse();
+    }
+
+    private static boolean isAlive( String pid ) throws Exception {
+        return isAlive( pid, 50 );
+    }
+
+    private static boolean isAlive( String pid, int checks ) throws Exception {
+        Path stat = Paths.get( "/proc", pid, "stat" );
+        for ( int i = 0; i < checks; i++ ) {
+            // Once orphaned it may linger as a zombie if nothing reaps it
+            if ( !Files.exists( stat ) || new String( Files.readAllBytes( stat ) ).contains( ") Z" ) ) {
+                return false;
+            }
+            Thread.sleep( 100 );
+        }
+        return true;
+    }
+
+    @Test
+    public void givenCommandIgnoringTerm_whenKill_thenStopped() throws Exception {
+        ProcessTree tree = ProcessTree.start(
+                new ProcessBuilder( "sh", "-c", "trap '' TERM; while true; do sleep 1; done" ) );
+        Process process = tree.getProcess();
+
+        Thread.sleep( 500 );
+        tree.terminate();
+        assertThat( process.waitFor( 1, TimeUnit.SECONDS ) ).isFalse();
+
+        tree.kill();
+        assertThat( process.waitFor( 10, TimeUnit.SECONDS ) ).isTrue();
+    }
+
+    @Test
+    public void givenCommandWithChild_whenPeakResident_thenIncludeChild() throws Exception {
+        assumeTrue( Files.isDirectory( Paths.get( "/proc" ) ) );
+
+        ProcessTree tree = ProcessTree.start( new ProcessBuilder( "sh", "-c", "sleep 60 & echo $!; wait" ) );
+        Process process = tree.getProcess();
+        new BufferedReader( new InputStreamReader( process.getInputStream() ) ).readLine();
+
+        long withChild = tree.peakResidentKilobytes();
+        tree.kill();
+
+        assertThat( withChild ).isGreaterThan( ProcessTree.residentPeakKilobytes( ProcessTree.pid( process ) ) );
+    }
+}
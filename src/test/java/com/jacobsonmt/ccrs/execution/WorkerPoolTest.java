@@ -0,0 +1,83 @@
+package com.jacobsonmt.ccrs.execution;
+
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WorkerPoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ApplicationSettings applicationSettings;
+
+    private WorkerPool pool;
+
+    @Before
+    public void setUp() {
+        applicationSettings = new ApplicationSettings();
+        applicationSettings.setWorkerPoolEnabled( true );
+        applicationSettings.setJobsDirectory( folder.getRoot().toString() );
+        applicationSettings.setWorkerCommand( Paths.get( "test_commands/bin/worker.sh" ).toAbsolutePath().toString() );
+        applicationSettings.setWorkerMaxJobs( 2 );
+        applicationSettings.setWorkerStartupTimeoutSeconds( 10 );
+        pool = new WorkerPool( applicationSettings );
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    private Path jobDirectory( String jobId ) throws Exception {
+        Path directory = folder.newFolder( jobId ).toPath();
+        Files.write( directory.resolve( "input.fasta" ), ">1\nMQSG\n".getBytes() );
+        return directory;
+    }
+
+    @Test
+    public void givenWorker_whenRun_thenOutputWrittenAndWorkerReused() throws Exception {
+        WorkerPool.Worker worker = pool.acquire();
+        Path directory = jobDirectory( "1" );
+
+        assertThat( worker.run( directory, "input.fasta", "output.list" ) ).isEqualTo( 0 );
+        assertThat( directory.resolve( "output.list" ) ).exists();
+
+        pool.release( worker, true );
+        assertThat( pool.acquire() ).isSameAs( worker );
+    }
+
+    @Test
+    public void givenWorkerAtJobLimit_whenRelease_thenRecycled() throws Exception {
+        WorkerPool.Worker worker = pool.acquire();
+        worker.run( jobDirectory( "1" ), "input.fasta", "output.list" );
+        pool.release( worker, true );
+        worker = pool.acquire();
+        worker.run( jobDirectory( "2" ), "input.fasta", "output.list" );
+        pool.release( worker, true );
+
+        assertThat( worker.getProcessTree().getProcess().waitFor() ).isNotNull();
+        assertThat( pool.acquire() ).isNotSameAs( worker );
+    }
+
+    @Test
+    public void givenWorkerDiedWhileIdle_whenAcquire_thenStartNewWorker() throws Exception {
+        WorkerPool.Worker worker = pool.acquire();
+        pool.release( worker, true );
+        worker.getProcessTree().kill();
+        worker.getProcessTree().getProcess().waitFor();
+
+        WorkerPool.Worker replacement = pool.acquire();
+        assertThat( replacement ).isNotSameAs( worker );
+        assertThat( replacement.run( jobDirectory( "1" ), "input.fasta", "output.list" ) ).isEqualTo( 0 );
+    }
+}
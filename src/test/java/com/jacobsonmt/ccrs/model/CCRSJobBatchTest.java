@@ -0,0 +1,145 @@
+package com.jacobsonmt.ccrs.model;
+
+import com.jacobsonmt.ccrs.services.JobManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class CCRSJobBatchTest {
+
+    private static final String HEADER = String.join( "\t", CCRSJobResult.HEADER );
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JobManager jobManager;
+
+    private Path command;
+
+    @Before
+    public void setUp() throws Exception {
+        // Writes one block per input sequence, accession is the first word of the header
+        command = folder.getRoot().toPath().resolve( "tool.sh" );
+        Files.write( command, ( "#!/bin/sh\n" +
+                "echo run >> ../runs.log\n" +
+                "awk 'BEGIN { OFS = \"\\t\" }\n" +
+                "/^>/ { ac = substr( $1, 2 ); pos = 0; print \"OX\", \"9606\", \"Homo Sapiens\"; print \"" +
+                HEADER.replace( "\t", "\\t" ) + "\"; next }\n" +
+                "{ for ( i = 1; i <= length( $0 ); i++ ) { pos++; line = ac OFS pos OFS substr( $0, i, 1 ) OFS 10 OFS 0.5;\n" +
+                "  for ( j = 0; j < 20; j++ ) line = line OFS 0.25; print line } }' \"$1\" > output.list\n" )
+                .getBytes( StandardCharsets.UTF_8 ) );
+        command.toFile().setExecutable( true );
+        jobManager = mock( JobManager.class );
+    }
+
+    private CCRSJob job( String jobId, String fasta ) {
+        return CCRSJob.builder()
+                .jobId( jobId )
+                .command( command.toString() )
+                .jobsDirectory( folder.getRoot().toPath().resolve( jobId ) )
+                .inputFASTAFilename( "input.fasta" )
+                .outputCSVFilename( "output.list" )
+                .inputFASTAContent( fasta )
+                .jobManager( jobManager )
+                .build();
+    }
+
+    private static String block( String accession, int rows ) {
+        StringBuilder sb = new StringBuilder( "OX\t9606\tHomo Sapiens\n" ).append( HEADER ).append( '\n' );
+        for ( int i = 1; i <= rows; i++ ) {
+            sb.append( accession ).append( '\t' ).append( i ).append( "\tM\t10\t0.5" );
+            for ( int j = 0; j < 20; j++ ) {
+                sb.append( "\t0.25" );
+            }
+            sb.append( '\n' );
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void givenBatch_whenRun_thenCommandRunOnceAndEachJobGetsItsOwnResult() throws Exception {
+        CCRSJob first = job( "1", ">P07766 OX=9606\nMQSG\nTH\n" );
+        CCRSJob second = job( "2", ">sp|Q9Y6K9|NEMO_HUMAN OX=9606\nMNRHLW\n" );
+        CCRSJob third = job( "3", ">Q8WZ42\nMTTQ\n" );
+
+        new CCRSJobBatch( Arrays.asList( first, second, third ), folder.getRoot().toPath().resolve( "batch" ), null )
+                .run();
+
+        assertThat( Files.readAllLines( folder.getRoot().toPath().resolve( "runs.log" ) ) ).hasSize( 1 );
+        assertThat( folder.getRoot().toPath().resolve( "batch" ) ).doesNotExist();
+        for ( CCRSJob job : Arrays.asList( first, second, third ) ) {
+            assertThat( job.isComplete() ).isTrue();
+            assertThat( job.isFailed() ).isFalse();
+            assertThat( job.getExitCode() ).isEqualTo( 0 );
+            assertThat( job.getResult().getBases() ).hasSize( job.getSequenceLength() );
+            verify( jobManager ).onJobStart( job );
+            verify( jobManager ).onJobComplete( job );
+        }
+        assertThat( first.getResult().getAccession() ).isEqualTo( "P07766" );
+        assertThat( second.getResult().getAccession() ).isEqualTo( "sp|Q9Y6K9|NEMO_HUMAN" );
+        assertThat( third.getResult().getAccession() ).isEqualTo( "Q8WZ42" );
+    }
+
+    @Test
+    public void givenCommandReadingOnlyFirstSequence_whenRun_thenHandedBackToRunAlone() throws Exception {
+        Files.write( command, ( "#!/bin/sh\n" +
+                "echo run >> ../runs.log\n" +
+                "awk 'BEGIN { OFS = \"\\t\" }\n" +
+                "/^>/ { if ( ac != \"\" ) exit; ac = substr( $1, 2 ); pos = 0; print \"OX\", \"9606\", \"Homo Sapiens\"; print \"" +
+                HEADER.replace( "\t", "\\t" ) + "\"; next }\n" +
+                "{ for ( i = 1; i <= length( $0 ); i++ ) { pos++; line = ac OFS pos OFS substr( $0, i, 1 ) OFS 10 OFS 0.5;\n" +
+                "  for ( j = 0; j < 20; j++ ) line = line OFS 0.25; print line } }' \"$1\" > output.list\n" )
+                .getBytes( StandardCharsets.UTF_8 ) );
+        CCRSJob first = job( "1", ">P07766\nMQSG\n" );
+        CCRSJob second = job( "2", ">Q9Y6K9\nMNRHLW\n" );
+
+        CCRSJobBatch batch = new CCRSJobBatch( Arrays.asList( first, second ),
+                folder.getRoot().toPath().resolve( "batch" ), null );
+        batch.run();
+
+        assertThat( Files.readAllLines( folder.getRoot().toPath().resolve( "runs.log" ) ) ).hasSize( 1 );
+        assertThat( batch.isInputIgnored() ).isTrue();
+        for ( CCRSJob job : Arrays.asList( first, second ) ) {
+            // Not run again on this thread
+            assertThat( job.isComplete() ).isFalse();
+            assertThat( job.getBatch() ).isNull();
+            verify( jobManager ).runAlone( job );
+        }
+    }
+
+    @Test
+    public void givenBlocksOutOfOrder_whenMatch_thenMatchByAccession() {
+        CCRSJob first = job( "1", ">sp|P07766|CD3E_HUMAN OX=9606\nMQS\n" );
+        CCRSJob second = job( "2", ">sp|Q9Y6K9|NEMO_HUMAN OX=9606\nMQS\n" );
+
+        List<CCRSJobBatch.Block> blocks = CCRSJobBatch.split( block( "Q9Y6K9", 3 ) + block( "P07766", 3 ) );
+        Map<CCRSJob, String> outputs = CCRSJobBatch.match( Arrays.asList( first, second ), blocks );
+
+        assertThat( blocks ).hasSize( 2 );
+        assertThat( outputs.get( first ) ).isEqualTo( block( "P07766", 3 ) );
+        assertThat( outputs.get( second ) ).isEqualTo( block( "Q9Y6K9", 3 ) );
+    }
+
+    @Test
+    public void givenBlockOfWrongLength_whenMatch_thenLeaveJobUnmatched() {
+        CCRSJob first = job( "1", ">P07766\nMQS\n" );
+        CCRSJob second = job( "2", ">Q9Y6K9\nMQS\n" );
+
+        Map<CCRSJob, String> outputs = CCRSJobBatch.match( Arrays.asList( first, second ),
+                CCRSJobBatch.split( block( "P07766", 3 ) + block( "Q9Y6K9", 2 ) ) );
+
+        assertThat( outputs ).containsOnlyKeys( first );
+    }
+}
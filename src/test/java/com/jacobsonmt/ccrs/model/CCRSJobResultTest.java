@@ -1,23 +1,35 @@
 package com.jacobsonmt.ccrs.model;
 
+import com.jacobsonmt.ccrs.TemporaryDirectoriesInitializer;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 @RunWith( SpringRunner.class )
 @SpringBootTest
+@ContextConfiguration( initializers = TemporaryDirectoriesInitializer.class )
 public class CCRSJobResultTest {
 
     private static String HEADER = String.join( "\t", CCRSJobResult.HEADER );
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private static String baseCSVResult = "sp|P07766|CD3E_\t1\tM\t41\t0.785\t0.785\t0.785\t0.785\t0.785\t0.785\t0.785\t0.785\t0.785\t0.785\t0.785\t0.785\t0.785\t0.0\t0.785\t0.785\t0.785\t0.785\t0.785\t0.785\t0.785\n" +
             "sp|P07766|CD3E_\t2\tQ\t7\t0.253307\t0.244276\t0.233177\t0.244276\t0.244276\t0.244276\t0.0\t0.317168\t0.244276\t0.281372\t0.244276\t0.232177\t0.30097\t0.244276\t0.244276\t0.272373\t0.244276\t0.244276\t0.244276\t0.244276\t0.244276\n";
 
@@ -231,6 +243,121 @@ public class CCRSJobResultTest {
         validateSequence( result.getBases() );
     }
 
+    @Test
+    public void getColumnsWhenCorrectFormat() {
+        String resultCSV = "OX\t9749\n" + HEADER + "\n" + baseCSVResult;
+        InputStream resultCSVInputStream = new ByteArrayInputStream(resultCSV.getBytes( StandardCharsets.UTF_8 ));
+        CCRSJobResult result = CCRSJobResult.parseResultCSVStream( resultCSVInputStream );
+        assertThat( result.residueCount() ).isEqualTo( 2 );
+        assertThat( result.reference( 1 ) ).isEqualTo( "Q" );
+        assertThat( result.width( 1 ) ).isEqualTo( 20 );
+        assertThat( result.score( 0, 12 ) ).isEqualTo( 0.0 );
+        assertThat( result.score( 1, 1 ) ).isEqualTo( 0.233177 );
+        assertThat( result.getBases().get( 1 ).getList() ).hasSize( 20 ).startsWith( 0.244276, 0.233177 );
+    }
+
+    @Test
+    public void getResultCSVWhenRowsDifferInWidth() {
+        String resultCSV = "OX\t9606\n" + HEADER + "\n" +
+                "P1\t1\tM\t4\t0.5\t0.1\t0.2\n" +
+                "P1\t2\tXaa\t3\t0.25\t0.1\t0.2\t0.3\t0.4\n";
+        InputStream resultCSVInputStream = new ByteArrayInputStream(resultCSV.getBytes( StandardCharsets.UTF_8 ));
+        CCRSJobResult result = CCRSJobResult.parseResultCSVStream( resultCSVInputStream );
+        assertThat( result.width( 0 ) ).isEqualTo( 2 );
+        assertThat( result.width( 1 ) ).isEqualTo( 4 );
+        assertThat( result.reference( 1 ) ).isEqualTo( "Xaa" );
+        assertThat( result.getResultCSV() ).isEqualTo( resultCSV );
+    }
+
+    @Test
+    public void parseNumbersSameAsJava() {
+        String[] values = {"0.785", "-0.0", "1e-5", "2.5E+3", "+4", ".5", "7.", "0.1234567890123456789", "1e300", "NaN",
+                "-Infinity", "0x1p3", "12345678901234567", "4.9e-324", " 0.5", "3.0d"};
+        StringBuilder resultCSV = new StringBuilder( "OX\t9749\n" + HEADER + "\nP1\t1\tM\t2147483647\t0.5" );
+        for ( String value : values ) {
+            resultCSV.append( "\t" ).append( value );
+        }
+        CCRSJobResult result = CCRSJobResult.parseResultCSVStream( new ByteArrayInputStream( resultCSV.toString().getBytes( StandardCharsets.UTF_8 ) ) );
+        assertThat( result.depth( 0 ) ).isEqualTo( Integer.MAX_VALUE );
+        for ( int i = 0; i < values.length; i++ ) {
+            assertThat( result.score( 0, i ) ).as( values[i] ).isEqualTo( Double.parseDouble( values[i] ) );
+        }
+    }
+
+    @Test
+    public void parseWhenWindowsLineEndings() {
+        String resultCSV = "OX\t9749\ttestSpecies\n" + HEADER + "\n" + baseCSVResult;
+        InputStream resultCSVInputStream = new ByteArrayInputStream(resultCSV.replace( "\n", "\r\n" ).getBytes( StandardCharsets.UTF_8 ));
+        CCRSJobResult result = CCRSJobResult.parseResultCSVStream( resultCSVInputStream );
+        assertThat( result.getResultCSV() ).isEqualTo( resultCSV );
+    }
+
+    @Test
+    public void parseFileWhenLarge() throws IOException {
+        StringBuilder resultCSV = new StringBuilder( "OX\t9749\n" + HEADER + "\n" );
+        for ( int i = 1; i <= 20000; i++ ) {
+            resultCSV.append( "sp|P07766|CD3E_\t" ).append( i ).append( "\tM\t" ).append( i % 500 ).append( "\t" ).append( i / 20000.0 );
+            for ( int j = 0; j < 20; j++ ) {
+                resultCSV.append( "\t" ).append( ( i * 31 + j ) % 1000 / 1000.0 );
+            }
+            resultCSV.append( "\n" );
+        }
+        Path file = folder.newFile( "output.list" ).toPath();
+        Files.write( file, resultCSV.toString().getBytes( StandardCharsets.UTF_8 ) );
+        assertThat( Files.size( file ) ).isGreaterThan( 1 << 20 );
+
+        CCRSJobResult result = CCRSJobResult.parseResultCSVFile( file );
+        assertThat( result.residueCount() ).isEqualTo( 20000 );
+        assertThat( result.getResultCSV() ).isEqualTo( resultCSV.toString() );
+    }
+
+    @Test
+    public void readBinaryFileSameAsWritten() throws IOException {
+        String resultCSV = "OX\t9749\ttestSpecies\n" + HEADER + "\n" + baseCSVResult + "sp|P07766|CD3E_\t3\tXaa\t5\t0.5\t0.1\n";
+        CCRSJobResult result = CCRSJobResult.parseResultCSVStream( new ByteArrayInputStream( resultCSV.getBytes( StandardCharsets.UTF_8 ) ) );
+        Path file = folder.getRoot().toPath().resolve( "output.list.bin" );
+        result.writeBinaryFile( file );
+
+        CCRSJobResult read = CCRSJobResult.readBinaryFile( file );
+        assertThat( read.getTaxa().getName() ).isEqualTo( "testSpecies" );
+        assertThat( read.getAccession() ).isEqualTo( "sp|P07766|CD3E_" );
+        assertThat( read.reference( 2 ) ).isEqualTo( "Xaa" );
+        assertThat( read.getResultCSV() ).isEqualTo( resultCSV );
+    }
+
+    @Test
+    public void loadResultFileWhenBinaryMissingOrCorrupt() throws IOException {
+        String resultCSV = "OX\t9749\n" + HEADER + "\n" + baseCSVResult;
+        Path file = folder.getRoot().toPath().resolve( "output.list" );
+        Files.write( file, resultCSV.getBytes( StandardCharsets.UTF_8 ) );
+
+        assertThat( CCRSJobResult.loadResultFile( file ).getResultCSV() ).isEqualTo( resultCSV );
+        assertThat( CCRSJobResult.binaryFile( file ) ).exists();
+        assertThat( CCRSJobResult.loadResultFile( file ).getResultCSV() ).isEqualTo( resultCSV );
+
+        Files.write( CCRSJobResult.binaryFile( file ), new byte[]{'C', 'C', 'R', 'S', 0, 1, 0, 3, 0} );
+        assertThat( CCRSJobResult.loadResultFile( file ).getResultCSV() ).isEqualTo( resultCSV );
+    }
+
+    @Test
+    public void writeSliceOfRangeAndColumns() throws IOException {
+        String resultCSV = "OX\t9749\n" + HEADER + "\n" + baseCSVResult + "sp|P07766|CD3E_\t3\tS\t5\t0.5\t0.1\n";
+        CCRSJobResult result = CCRSJobResult.parseResultCSVStream( new ByteArrayInputStream( resultCSV.getBytes( StandardCharsets.UTF_8 ) ) );
+
+        StringWriter writer = new StringWriter();
+        result.writeSlice( writer, 2, 10, 1, new int[]{CCRSJobResult.columnIndex( "Pos" ),
+                CCRSJobResult.columnIndex( "Conservation" ), CCRSJobResult.columnIndex( "R" )} );
+        assertThat( writer.toString() ).isEqualTo( "Pos\tConservation\tR\n2\t0.253307\t0.233177\n3\t0.5\t\n" );
+
+        writer = new StringWriter();
+        result.writeSlice( writer, 1, 3, 2, new int[]{CCRSJobResult.columnIndex( "Ref" )} );
+        assertThat( writer.toString() ).isEqualTo( "Ref\nM\nS\n" );
+
+        writer = new StringWriter();
+        result.writeSlice( writer, 2, Integer.MAX_VALUE, Integer.MAX_VALUE, new int[]{CCRSJobResult.columnIndex( "Pos" )} );
+        assertThat( writer.toString() ).isEqualTo( "Pos\n2\n" );
+    }
+
     private void validateSequence( List<Base> testSequence ) {
         assertThat( testSequence ).hasSize( 2 );
 
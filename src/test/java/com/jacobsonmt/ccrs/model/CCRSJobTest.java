@@ -0,0 +1,149 @@
+package com.jacobsonmt.ccrs.model;
+
+import com.jacobsonmt.ccrs.services.JobManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class CCRSJobTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JobManager jobManager;
+
+    private CCRSJob job;
+
+    @Before
+    public void setUp() throws Exception {
+        Path command = folder.getRoot().toPath().resolve( "hang.sh" );
+        Files.write( command, "#!/bin/sh\nsleep 60\n".getBytes( StandardCharsets.UTF_8 ) );
+        command.toFile().setExecutable( true );
+
+        jobManager = mock( JobManager.class );
+        job = CCRSJob.builder()
+                .jobId( "1" )
+                .command( command.toString() )
+                .jobsDirectory( folder.getRoot().toPath().resolve( "1" ) )
+                .inputFASTAFilename( "input.fasta" )
+                .outputCSVFilename( "output.list" )
+                .inputFASTAContent( ">1 OX=9606\nMQSG\nTHWR\n" )
+                .jobManager( jobManager )
+                .build();
+    }
+
+    private Future<CCRSJobResult> start() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<CCRSJobResult> future = executor.submit( job );
+        executor.shutdown();
+        // Wait for the command to be started
+        while ( !job.isRunning() || !Files.exists( job.getJobsDirectory().resolve( "input.fasta" ) ) ) {
+            Thread.sleep( 10 );
+        }
+        Thread.sleep( 200 );
+        return future;
+    }
+
+    @Test
+    public void givenInput_whenGetSequenceLength_thenCountResidues() {
+        assertThat( job.getSequenceLength() ).isEqualTo( 8 );
+    }
+
+    @Test
+    public void givenRunningJob_whenTimeOut_thenFailAndComplete() throws Exception {
+        Future<CCRSJobResult> future = start();
+
+        assertThat( job.timeOut() ).isTrue();
+        future.get( 10, TimeUnit.SECONDS );
+
+        assertThat( job.isComplete() ).isTrue();
+        assertThat( job.isFailed() ).isTrue();
+        assertThat( job.getStatus() ).startsWith( "Timed out after" );
+        verify( jobManager ).onJobComplete( job );
+    }
+
+    @Test
+    public void givenRunningJob_whenCancel_thenNotComplete() throws Exception {
+        Future<CCRSJobResult> future = start();
+
+        assertThat( job.cancel() ).isTrue();
+        future.get( 10, TimeUnit.SECONDS );
+
+        assertThat( job.getStatus() ).isEqualTo( "Cancelled" );
+        assertThat( job.timeOut() ).isFalse();
+        verify( jobManager ).onJobCancelled( job );
+        verify( jobManager, never() ).onJobComplete( job );
+    }
+
+    @Test
+    public void givenCommandFloodingStderr_whenRun_thenRecordExitCodeAndTail() throws Exception {
+        Path command = folder.getRoot().toPath().resolve( "noisy.sh" );
+        Files.write( command, ( "#!/bin/sh\n" +
+                "i=0; while [ $i -lt 5000 ]; do echo \"line $i of noise on stderr\" >&2; i=$((i+1)); done\n" +
+                "echo done\nexit 3\n" ).getBytes( StandardCharsets.UTF_8 ) );
+        command.toFile().setExecutable( true );
+        job.setCommand( command.toString() );
+
+        job.call();
+
+        assertThat( job.getExitCode() ).isEqualTo( 3 );
+        assertThat( job.getStdoutTail() ).isEqualTo( "done\n" );
+        assertThat( job.getStderrTail() ).hasSize( 4096 ).endsWith( "line 4999 of noise on stderr\n" );
+        assertThat( job.isFailed() ).isTrue();
+        verify( jobManager ).onJobComplete( job );
+    }
+
+    @Test
+    public void givenSavedJob_whenReadBack_thenListWithoutLoadingResult() throws Exception {
+        CCRSJob saved = CCRSJob.builder().jobId( "2" ).inputFASTAContent( ">2\nMQ\n" ).complete( true )
+                .result( CCRSJobResult.parseResultCSVStream( new ByteArrayInputStream(
+                        ( "OX\t9606\tHomo Sapiens\n" + String.join( "\t", CCRSJobResult.HEADER ) + "\n" )
+                                .getBytes( StandardCharsets.UTF_8 ) ) ) )
+                .build();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( ObjectOutputStream oos = new ObjectOutputStream( bytes ) ) {
+            oos.writeObject( saved );
+        }
+        CCRSJob read;
+        try ( ObjectInputStream ois = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) ) {
+            read = (CCRSJob) ois.readObject();
+        }
+        AtomicInteger inputLoads = new AtomicInteger();
+        AtomicInteger resultLoads = new AtomicInteger();
+        read.setInputFASTALoader( () -> {
+            inputLoads.incrementAndGet();
+            return ">2\nMQ\n";
+        } );
+        read.setResultLoader( () -> {
+            resultLoads.incrementAndGet();
+            return saved.getResult();
+        } );
+
+        assertThat( read.getStatus() ).isNull();
+        assertThat( read.toValueObject( true, false ).getResult().getTaxa().getName() ).isEqualTo( "Homo Sapiens" );
+        assertThat( resultLoads.get() ).isEqualTo( 0 );
+        assertThat( inputLoads.get() ).isEqualTo( 1 );
+
+        assertThat( read.toValueObject( true, true ).getResult() ).isSameAs( saved.getResult() );
+        assertThat( resultLoads.get() ).isEqualTo( 1 );
+    }
+}
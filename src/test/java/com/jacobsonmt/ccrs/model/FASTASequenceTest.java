@@ -1,9 +1,11 @@
 package com.jacobsonmt.ccrs.model;
 
+import com.jacobsonmt.ccrs.TemporaryDirectoriesInitializer;
 import com.jacobsonmt.ccrs.exceptions.FASTAValidationException;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.util.HashSet;
@@ -15,6 +17,7 @@ import static org.assertj.core.api.Assertions.fail;
 
 @RunWith( SpringRunner.class )
 @SpringBootTest
+@ContextConfiguration( initializers = TemporaryDirectoriesInitializer.class )
 public class FASTASequenceTest {
 
     @Test
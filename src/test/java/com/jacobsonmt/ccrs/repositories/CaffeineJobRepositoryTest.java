@@ -0,0 +1,144 @@
+package com.jacobsonmt.ccrs.repositories;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import com.jacobsonmt.ccrs.model.CCRSJobResult;
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CaffeineJobRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ApplicationSettings applicationSettings;
+
+    @Before
+    public void setUp() {
+        applicationSettings = new ApplicationSettings();
+        applicationSettings.setJobsDirectory( folder.getRoot().toString() );
+        applicationSettings.setJobSerializationFilename( "job.ser" );
+        applicationSettings.setMaxCachedBytes( 100_000 );
+    }
+
+    private CCRSJob job( String jobId, int residues ) throws Exception {
+        Path directory = Files.createDirectories( folder.getRoot().toPath().resolve( jobId ) );
+        StringBuilder result = new StringBuilder( "OX\t9606\tHomo Sapiens\n" )
+                .append( "AC\tPos\tRef\tDepth\tConservation\tA\tR\tN\tD\tC\tQ\tE\tG\tH\tI\tL\tK\tM\tF\tP\tS\tT\tW\tY\tV\n" );
+        for ( int i = 1; i <= residues; i++ ) {
+            result.append( "P1\t" ).append( i ).append( "\tM\t10\t0.5" );
+            for ( int j = 0; j < 20; j++ ) {
+                result.append( "\t0.25" );
+            }
+            result.append( '\n' );
+        }
+        Files.write( directory.resolve( "output.list" ), result.toString().getBytes( StandardCharsets.UTF_8 ) );
+        Files.write( directory.resolve( "input.fasta" ), ">P1\nM\n".getBytes( StandardCharsets.UTF_8 ) );
+        return CCRSJob.builder().jobId( jobId ).clientId( "client" ).userId( "user" ).jobsDirectory( directory )
+                .jobSerializationFilename( "job.ser" ).outputCSVFilename( "output.list" )
+                .inputFASTAFilename( "input.fasta" ).inputFASTAContent( ">P1\nM\n" ).complete( true ).build();
+    }
+
+    private static void await( BooleanSupplier condition ) throws InterruptedException {
+        // Eviction happens in the background
+        for ( int i = 0; i < 500 && !condition.getAsBoolean(); i++ ) {
+            Thread.sleep( 10 );
+        }
+        assertThat( condition.getAsBoolean() ).isTrue();
+    }
+
+    @Test
+    public void givenUnsavedJobs_whenOverBudget_thenPinned() throws Exception {
+        CaffeineJobRepository repository = new CaffeineJobRepository( applicationSettings );
+        for ( int i = 0; i < 20; i++ ) {
+            CCRSJob job = job( "job" + i, 1000 );
+            job.setResult( CCRSJobResult.parseResultCSVFile( job.getJobsDirectory().resolve( "output.list" ) ) );
+            repository.cacheJob( job );
+        }
+
+        assertThat( repository.getCacheStats().getPinnedJobs() ).isEqualTo( 20 );
+        assertThat( repository.getById( "job0" ).getResult().residueCount() ).isEqualTo( 1000 );
+        repository.close();
+    }
+
+    @Test
+    public void givenJobDeletedBeforeSaved_whenPersisted_thenNotSaved() throws Exception {
+        // Appended to only once it exists
+        new JobIndex( folder.getRoot().toPath().resolve( "jobs.index" ), 1024 ).rewrite( Collections.emptyList() );
+        CaffeineJobRepository repository = new CaffeineJobRepository( applicationSettings );
+        CCRSJob deleted = job( "deleted", 10 );
+        CCRSJob kept = job( "kept", 10 );
+        repository.cacheJob( deleted );
+        repository.cacheJob( kept );
+        repository.delete( deleted );
+
+        repository.persistJobs( Arrays.asList( deleted, kept ) );
+
+        assertThat( deleted.getJobsDirectory().resolve( "job.ser" ) ).doesNotExist();
+        assertThat( kept.getJobsDirectory().resolve( "job.ser" ) ).exists();
+        assertThat( repository.getById( "deleted" ) ).isNull();
+        repository.close();
+
+        applicationSettings.setLoadJobsFromDisk( true );
+        CaffeineJobRepository reopened = new CaffeineJobRepository( applicationSettings );
+        assertThat( reopened.getById( "deleted" ) ).isNull();
+        assertThat( reopened.getById( "kept" ) ).isNotNull();
+        reopened.close();
+    }
+
+    @Test
+    public void givenUnsavedJob_whenDeleted_thenIndexUntouched() throws Exception {
+        Path index = folder.getRoot().toPath().resolve( "jobs.index" );
+        new JobIndex( index, 1024 ).rewrite( Collections.emptyList() );
+        long size = Files.size( index );
+        CaffeineJobRepository repository = new CaffeineJobRepository( applicationSettings );
+        CCRSJob job = job( "unsaved", 10 );
+        repository.cacheJob( job );
+
+        repository.delete( job );
+
+        assertThat( repository.getById( "unsaved" ) ).isNull();
+        assertThat( Files.size( index ) ).isEqualTo( size );
+        repository.close();
+    }
+
+    @Test
+    public void givenSavedJobs_whenOverBudget_thenLargestEvictedAndReloadedFromDisk() throws Exception {
+        CaffeineJobRepository repository = new CaffeineJobRepository( applicationSettings );
+        CCRSJob large = job( "large", 1000 );
+        large.setResult( CCRSJobResult.parseResultCSVFile( large.getJobsDirectory().resolve( "output.list" ) ) );
+        assertThat( large.estimateRetainedBytes() ).isGreaterThan( 100_000 );
+        repository.cacheJob( large );
+        repository.persistJob( large );
+        for ( int i = 0; i < 10; i++ ) {
+            CCRSJob small = job( "small" + i, 10 );
+            repository.cacheJob( small );
+            repository.persistJob( small );
+        }
+
+        await( () -> repository.getCacheStats().getEvictions() > 0 );
+        CaffeineJobRepository.Stats stats = repository.getCacheStats();
+        assertThat( stats.getPinnedJobs() ).isEqualTo( 0 );
+        assertThat( stats.getWeightedBytes() ).isLessThanOrEqualTo( 100_000 );
+
+        CCRSJob reloaded = repository.getById( "large" );
+        assertThat( reloaded ).isNotSameAs( large );
+        long before = reloaded.estimateRetainedBytes();
+        assertThat( reloaded.getResult().residueCount() ).isEqualTo( 1000 );
+        assertThat( reloaded.estimateRetainedBytes() ).isGreaterThan( before );
+        // Weighed again with its result, which puts the cache over budget
+        await( () -> repository.getCacheStats().getEvictions() > 1 );
+        repository.close();
+    }
+}
@@ -0,0 +1,84 @@
+package com.jacobsonmt.ccrs.repositories;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import com.jacobsonmt.ccrs.model.Taxa;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JobCodecTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static CCRSJob job() {
+        return CCRSJob.builder().jobId( "1" ).clientId( "client" ).userId( "user" ).label( "Läbel" ).hidden( false )
+                .outputCSVFilename( "output.list" ).inputFASTAFilename( "input.fasta" )
+                .jobSerializationFilename( "job.ser" ).submittedDate( new Date( 1000 ) ).startedDate( new Date( 2000 ) )
+                .complete( true ).status( "Completed in 1s" ).executionTime( 1 )
+                .taxa( new Taxa( "OX", 9606, "Homo Sapiens" ) ).exitCode( 0 ).commandMillis( 1200 )
+                .stdoutTail( "done\n" ).peakMemoryKilobytes( 2048 )
+                .build();
+    }
+
+    private static void assertSameMetadata( CCRSJob read, CCRSJob expected ) {
+        assertThat( read ).isEqualToIgnoringGivenFields( expected, "taxa", "emailOnJobComplete" );
+        assertThat( read.getTaxa() ).isEqualToComparingFieldByField( expected.getTaxa() );
+    }
+
+    @Test
+    public void givenJob_whenEncoded_thenDecodesToSameMetadata() throws Exception {
+        CCRSJob job = job();
+
+        CCRSJob read = JobCodec.decode( JobCodec.encode( job ) );
+
+        assertSameMetadata( read, job );
+        assertThat( read.getFinishedDate() ).isNull();
+        assertThat( read.getStderrTail() ).isNull();
+        assertThat( read.getInputFASTAContent() ).isNull();
+    }
+
+    @Test
+    public void givenJobWithoutExitCodeOrTaxa_whenEncoded_thenDecodesNulls() throws Exception {
+        CCRSJob job = CCRSJob.builder().jobId( "2" ).build();
+
+        CCRSJob read = JobCodec.decode( JobCodec.encode( job ) );
+
+        assertThat( read.getExitCode() ).isNull();
+        assertThat( read.getTaxa() ).isNull();
+        assertThat( read.getSubmittedDate() ).isNull();
+        assertThat( read.isHidden() ).isTrue();
+    }
+
+    @Test
+    public void givenCorruptBytes_whenDecoded_thenThrows() {
+        byte[] bytes = JobCodec.encode( job() );
+        bytes[10] ^= 1;
+
+        assertThatThrownBy( () -> JobCodec.decode( bytes ) ).isInstanceOf( IOException.class );
+    }
+
+    @Test
+    public void givenJavaSerializedFile_whenRead_thenMigrated() throws Exception {
+        CCRSJob job = job();
+        Path path = folder.getRoot().toPath().resolve( "job.ser" );
+        try ( ObjectOutputStream oos = new ObjectOutputStream( Files.newOutputStream( path ) ) ) {
+            oos.writeObject( job );
+        }
+
+        CCRSJob read = JobCodec.read( path );
+
+        assertSameMetadata( read, job );
+        assertThat( JobCodec.isLegacy( Files.readAllBytes( path ) ) ).isFalse();
+        assertSameMetadata( JobCodec.read( path ), job );
+    }
+}
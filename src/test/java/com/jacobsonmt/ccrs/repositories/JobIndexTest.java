@@ -0,0 +1,134 @@
+package com.jacobsonmt.ccrs.repositories;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JobIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+
+    @Before
+    public void setUp() {
+        file = folder.getRoot().toPath().resolve( "jobs.index" );
+    }
+
+    private static CCRSJob job( String jobId, String userId ) {
+        return CCRSJob.builder().jobId( jobId ).clientId( "client" ).userId( userId ).submittedDate( new Date( 1000 ) )
+                .status( "Completed" ).build();
+    }
+
+    @Test
+    public void givenNoIndex_whenLoaded_thenNullAndNothingAppended() throws IOException {
+        JobIndex index = new JobIndex( file, Long.MAX_VALUE );
+
+        assertThat( index.load() ).isNull();
+        index.put( job( "1", "user" ) );
+        assertThat( Files.exists( file ) ).isFalse();
+    }
+
+    @Test
+    public void givenPutsAndRemoves_whenLoaded_thenSavedJobsInOrder() throws IOException {
+        JobIndex index = new JobIndex( file, Long.MAX_VALUE );
+        index.rewrite( Collections.singletonList( JobIndex.Entry.of( job( "1", "user" ) ) ) );
+        index.put( job( "2", "user" ) );
+        index.put( job( "3", "other" ) );
+        index.remove( "1" );
+        index.put( job( "2", "user" ) );
+        index.close();
+
+        Collection<JobIndex.Entry> entries = new JobIndex( file, Long.MAX_VALUE ).load();
+
+        assertThat( entries ).extracting( JobIndex.Entry::getJobId ).containsExactly( "2", "3" );
+        assertThat( entries ).extracting( JobIndex.Entry::getUserId ).containsExactly( "user", "other" );
+        assertThat( entries.iterator().next().getSubmittedDate() ).isEqualTo( new Date( 1000 ) );
+        assertThat( entries.iterator().next().getFinishedDate() ).isNull();
+    }
+
+    @Test
+    public void givenTornRecord_whenLoaded_thenNull() throws IOException {
+        JobIndex index = new JobIndex( file, Long.MAX_VALUE );
+        index.rewrite( Collections.emptyList() );
+        index.put( job( "1", "user" ) );
+        index.close();
+        byte[] bytes = Files.readAllBytes( file );
+        Files.write( file, Arrays.copyOf( bytes, bytes.length - 3 ) );
+
+        assertThat( new JobIndex( file, Long.MAX_VALUE ).load() ).isNull();
+    }
+
+    @Test
+    public void givenIndexPastThreshold_whenAppended_thenCompacted() throws IOException {
+        JobIndex index = new JobIndex( file, 1024 );
+        index.rewrite( Collections.emptyList() );
+        for ( int i = 0; i < 100; i++ ) {
+            index.put( job( "1", "user" ) );
+        }
+        index.put( job( "2", "user" ) );
+        index.close();
+
+        assertThat( Files.size( file ) ).isLessThan( 1024 );
+        assertThat( new JobIndex( file, 1024 ).load() ).extracting( JobIndex.Entry::getJobId ).containsExactly( "1", "2" );
+    }
+
+    @Test
+    public void givenSavedJobsPastThreshold_whenAppended_thenNotCompactedUntilDoubled() throws IOException {
+        JobIndex index = new JobIndex( file, 1024 );
+        List<JobIndex.Entry> entries = new ArrayList<>();
+        for ( int i = 0; i < 100; i++ ) {
+            entries.add( JobIndex.Entry.of( job( Integer.toString( i ), "user" ) ) );
+        }
+        index.rewrite( entries );
+        long live = Files.size( file );
+        assertThat( live ).isGreaterThan( 1024 );
+
+        // Replacing a job only grows the file until it has doubled
+        long size;
+        int appended = 0;
+        do {
+            size = Files.size( file );
+            index.put( job( "0", "user" ) );
+            appended++;
+        } while ( Files.size( file ) > size );
+        index.close();
+        assertThat( appended ).isGreaterThan( 1 );
+        assertThat( size ).isGreaterThan( 2 * live - 1024 ).isLessThanOrEqualTo( 2 * live );
+        assertThat( Files.size( file ) ).isEqualTo( live );
+        assertThat( new JobIndex( file, 1024 ).load() ).hasSize( 100 );
+    }
+
+    @Test
+    public void givenChangesWhileRebuilding_whenFinished_thenIndexHoldsScannedAndSavedJobs() throws IOException {
+        JobIndex index = new JobIndex( file, Long.MAX_VALUE );
+        index.startRebuild();
+        index.put( job( "1", "user" ) );
+        index.remove( "2" );
+        index.addRebuilt( JobIndex.Entry.of( job( "2", "user" ) ) );
+        index.addRebuilt( JobIndex.Entry.of( job( "3", "user" ) ) );
+        assertThat( Files.exists( file ) ).isFalse();
+
+        index.finishRebuild();
+        index.put( job( "4", "user" ) );
+        index.close();
+
+        assertThat( new JobIndex( file, Long.MAX_VALUE ).load() ).extracting( JobIndex.Entry::getJobId )
+                .containsExactly( "1", "3", "4" );
+    }
+}
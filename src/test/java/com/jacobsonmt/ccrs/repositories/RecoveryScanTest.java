@@ -0,0 +1,55 @@
+package com.jacobsonmt.ccrs.repositories;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RecoveryScanTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void givenJobFolders_whenScanned_thenEveryJobReadOnce() throws Exception {
+        Path jobs = folder.getRoot().toPath();
+        for ( int i = 0; i < 500; i++ ) {
+            Path job = Files.createDirectory( jobs.resolve( "job" + i ) );
+            JobCodec.write( CCRSJob.builder().jobId( "job" + i ).build(), job.resolve( "job.ser" ) );
+        }
+        Files.createDirectory( jobs.resolve( "batch-1" ) );
+        Files.write( Files.createDirectory( jobs.resolve( "corrupt" ) ).resolve( "job.ser" ),
+                "not a job".getBytes( StandardCharsets.UTF_8 ) );
+
+        RecoveryScan scan = new RecoveryScan( jobs, "job.ser", 4 );
+        Set<String> read = ConcurrentHashMap.newKeySet();
+        scan.start( job -> assertThat( read.add( job.getJobId() ) ).isTrue() ).get( 30, TimeUnit.SECONDS );
+
+        assertThat( read ).hasSize( 500 ).contains( "job0", "job499" );
+        RecoveryScan.Progress progress = scan.getProgress();
+        assertThat( progress.isRunning() ).isFalse();
+        assertThat( progress.getTotal() ).isEqualTo( 502 );
+        assertThat( progress.getRead() ).isEqualTo( 500 );
+        assertThat( progress.getFailed() ).isEqualTo( 1 );
+    }
+
+    @Test
+    public void givenNoJobsDirectory_whenScanned_thenNothingRead() throws Exception {
+        RecoveryScan scan = new RecoveryScan( folder.getRoot().toPath().resolve( "missing" ), "job.ser", 2 );
+
+        scan.start( job -> {
+            throw new AssertionError( job.getJobId() );
+        } ).get( 30, TimeUnit.SECONDS );
+
+        assertThat( scan.getProgress().getTotal() ).isEqualTo( 0 );
+    }
+}
@@ -11,20 +11,30 @@ import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jacobsonmt.ccrs.model.CCRSJob;
 import com.jacobsonmt.ccrs.model.CCRSJobResult;
 import com.jacobsonmt.ccrs.model.FASTASequence;
+import com.jacobsonmt.ccrs.repositories.CaffeineJobRepository;
 import com.jacobsonmt.ccrs.rest.JobEndpoint.JobSubmissionContent;
+import com.jacobsonmt.ccrs.scheduling.ResourceBudget;
+import com.jacobsonmt.ccrs.scheduling.RuntimeEstimator;
+import com.jacobsonmt.ccrs.services.ConcurrencyController;
 import com.jacobsonmt.ccrs.services.JobManager;
+import com.jacobsonmt.ccrs.services.ResultCache;
 import com.jacobsonmt.ccrs.settings.ClientSettings;
 import java.io.ByteArrayInputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -33,7 +43,9 @@ import java.util.TimeZone;
 import org.assertj.core.util.Lists;
 import org.assertj.core.util.Maps;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.stubbing.Answer;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -42,11 +54,13 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.context.ConfigFileApplicationContextInitializer;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.ApplicationContext;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 @RunWith( SpringRunner.class )
 @WebMvcTest
@@ -68,8 +82,26 @@ public class JobEndpointTest {
     @MockBean
     private JobManager jobManager;
 
+    @MockBean
+    private ResultCache resultCache;
+
+    @MockBean
+    private RuntimeEstimator runtimeEstimator;
+
+    @MockBean
+    private ResourceBudget resourceBudget;
+
+    @MockBean
+    private ConcurrencyController concurrencyController;
+
+    @MockBean
+    private CaffeineJobRepository caffeineJobRepository;
+
     @Autowired private ApplicationContext ctx;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private CCRSJob commonJob;
 
     private SimpleDateFormat jacksonDateFormat;
@@ -100,6 +132,8 @@ public class JobEndpointTest {
                 "sp|P07766|CD3E_\t2\tQ\t7\t0.253307\t0.244276\t0.233177\t0.244276\t0.244276\t0.244276\t0\t0.317168\t0.244276\t0.281372\t0.244276\t0.232177\t0.30097\t0.244276\t0.244276\t0.272373\t0.244276\t0.244276\t0.244276\t0.244276\t0.244276";
         builder.result( CCRSJobResult.parseResultCSVStream( new ByteArrayInputStream(resultCSV.getBytes( StandardCharsets.UTF_8 )) ));
         builder.executionTime( 17 );
+        builder.outputCSVFilename( "output.list" );
+        builder.inputFASTAFilename( "input.fasta" );
 
         commonJob = builder.build();
 
@@ -203,6 +237,75 @@ public class JobEndpointTest {
                 .andExpect( status().isForbidden() );
     }
 
+    /* Download */
+
+    @Test
+    public void givenResultFileExists_whenGetResultCSV_thenReturnFile() throws Exception {
+        String onDisk = "OX\t9749\tHomo Sapiens Test\n" + "AC\tPos\n" + "sp|P07766|CD3E_\t1\tM\t41\t0.7850\n";
+        Files.write( folder.getRoot().toPath().resolve( "output.list" ), onDisk.getBytes( StandardCharsets.UTF_8 ) );
+        commonJob.setJobsDirectory( folder.getRoot().toPath() );
+
+        mvc.perform( get( "/api/job/" + commonJob.getJobId() + "/resultCSV" )
+                .header( "auth_token", "testclienttoken" )
+                .header( "client", "testclient" ))
+                .andExpect( status().isOk() )
+                .andExpect( header().longValue( HttpHeaders.CONTENT_LENGTH, onDisk.length() ) )
+                .andExpect( header().string( HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"testLabel.list\"" ) )
+                .andExpect( content().string( onDisk ) );
+    }
+
+    @Test
+    public void givenNoResultFile_whenGetResultCSV_thenRegenerate() throws Exception {
+        mvc.perform( get( "/api/job/" + commonJob.getJobId() + "/resultCSV" )
+                .header( "auth_token", "testclienttoken" )
+                .header( "client", "testclient" ))
+                .andExpect( status().isOk() )
+                .andExpect( header().longValue( HttpHeaders.CONTENT_LENGTH, commonJob.getResult().getResultCSV().length() ) )
+                .andExpect( content().string( commonJob.getResult().getResultCSV() ) );
+    }
+
+    @Test
+    public void givenInputFileExists_whenGetInputFASTA_thenReturnFile() throws Exception {
+        Files.write( folder.getRoot().toPath().resolve( "input.fasta" ),
+                commonJob.getInputFASTAContent().getBytes( StandardCharsets.UTF_8 ) );
+        commonJob.setJobsDirectory( folder.getRoot().toPath() );
+
+        mvc.perform( get( "/api/job/" + commonJob.getJobId() + "/inputFASTA" )
+                .header( "auth_token", "testclienttoken" )
+                .header( "client", "testclient" ))
+                .andExpect( status().isOk() )
+                .andExpect( header().longValue( HttpHeaders.CONTENT_LENGTH, commonJob.getInputFASTAContent().length() ) )
+                .andExpect( content().string( commonJob.getInputFASTAContent() ) );
+    }
+
+    @Test
+    public void givenJobExists_whenGetResultSlice_thenReturnSelection() throws Exception {
+        MvcResult result = mvc.perform( get( "/api/job/" + commonJob.getJobId() + "/resultSlice" )
+                .param( "from", "2" )
+                .param( "columns", "Pos", "Depth" )
+                .header( "auth_token", "testclienttoken" )
+                .header( "client", "testclient" ))
+                .andExpect( request().asyncStarted() )
+                .andReturn();
+
+        mvc.perform( asyncDispatch( result ) )
+                .andExpect( status().isOk() )
+                .andExpect( content().string( "Pos\tDepth\n2\t7\n" ) );
+    }
+
+    @Test
+    public void givenUnknownColumn_whenGetResultSlice_thenReturn400() throws Exception {
+        MvcResult result = mvc.perform( get( "/api/job/" + commonJob.getJobId() + "/resultSlice" )
+                .param( "columns", "Nope" )
+                .header( "auth_token", "testclienttoken" )
+                .header( "client", "testclient" ))
+                .andReturn();
+
+        mvc.perform( asyncDispatch( result ) )
+                .andExpect( status().isBadRequest() )
+                .andExpect( content().string( "Unknown column: Nope" ) );
+    }
+
 /* Submit */
 
     @Test
@@ -5,16 +5,28 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import com.jacobsonmt.ccrs.execution.WorkerPool;
 import com.jacobsonmt.ccrs.repositories.JobRepository;
 import com.jacobsonmt.ccrs.rest.JobEndpoint.JobSubmissionContent;
 import com.jacobsonmt.ccrs.rest.JobEndpoint.JobSubmissionResponse;
+import com.jacobsonmt.ccrs.scheduling.FairShareJobScheduler;
+import com.jacobsonmt.ccrs.scheduling.ResourceBudget;
+import com.jacobsonmt.ccrs.scheduling.RuntimeEstimator;
+import com.jacobsonmt.ccrs.services.CompletionWriter;
+import com.jacobsonmt.ccrs.services.ConcurrencyController;
 import com.jacobsonmt.ccrs.services.EmailService;
+import com.jacobsonmt.ccrs.services.JobJournal;
 import com.jacobsonmt.ccrs.services.JobManager;
+import com.jacobsonmt.ccrs.services.ResultCache;
 import com.jacobsonmt.ccrs.settings.ApplicationSettings;
 import com.jacobsonmt.ccrs.settings.ClientSettings;
 import java.util.concurrent.ExecutorService;
@@ -48,14 +60,33 @@ public class JobEndpointUnitTest {
     @Mock
     private JobRepository jobRepository;
 
+    @Mock
+    private ResultCache resultCache;
+
+    @Mock
+    private ExecutorService executor;
+
+    @Mock
+    private JobJournal jobJournal;
+
+    @Mock
+    private WorkerPool workerPool;
+
+    @Mock
+    private CompletionWriter completionWriter;
+
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
         ClientSettings.ApplicationClient client = new ClientSettings.ApplicationClient();
         clientSettings = new ClientSettings();
         clientSettings.getClients().put("testclient", client);
-        jobManager = new JobManager(applicationSettings, clientSettings, emailService, jobRepository);
-        jobManager.setExecutor(mock(ExecutorService.class));
+        RuntimeEstimator runtimeEstimator = new RuntimeEstimator();
+        jobManager = new JobManager(applicationSettings, clientSettings, emailService, jobRepository,
+            new FairShareJobScheduler(clientSettings, applicationSettings, runtimeEstimator), resultCache, jobJournal,
+            workerPool, runtimeEstimator, new ResourceBudget(applicationSettings),
+            new ConcurrencyController(applicationSettings), completionWriter);
+        jobManager.setExecutor(executor);
         jobEndpoint = spy(new JobEndpoint(jobManager));
 
 //        ClientSettings.ApplicationClient client = new ClientSettings.ApplicationClient();
@@ -142,5 +173,22 @@ public class JobEndpointUnitTest {
         assertThat(response.getBody().getMessages().get(1).getMessage().toLowerCase(), containsString("minimum"));
     }
 
+    @Test
+    public void whenSameSequenceSubmittedByTwoUsers_thenRunOnce() throws Exception {
+        when(applicationSettings.isDeduplicateJobs()).thenReturn(true);
+        String fasta = ">P07766-1 OX=9606\nMQSGTHWRVLGLCLLSVGVWGQDGNEEMGGITQTPYKVSISGTTVILTCPQYPGSEILWQHNDKNI\n";
+
+        for (String userId : new String[]{"user1", "user2"}) {
+            ResponseEntity<JobSubmissionResponse> response = jobEndpoint.submitJob(
+                new JobSubmissionContent("label", userId, fasta, false, "", "emailJobLinkPrefix"),
+                mock(BindingResult.class, RETURNS_DEEP_STUBS));
+
+            assertThat(response.getStatusCode(), is(HttpStatus.OK));
+            assertThat(response.getBody().getAcceptedJobs(), hasSize(1));
+        }
+
+        // Only the first job reaches the process queue, the second waits on its result
+        verify(executor, times(1)).submit(any(Runnable.class));
+    }
 
 }
@@ -0,0 +1,268 @@
+package com.jacobsonmt.ccrs.scheduling;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import com.jacobsonmt.ccrs.settings.ClientSettings;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FairShareJobSchedulerTest {
+
+    private ClientSettings clientSettings;
+
+    private ApplicationSettings applicationSettings;
+
+    private RuntimeEstimator runtimeEstimator;
+
+    private FairShareJobScheduler scheduler;
+
+    private List<CCRSJob> readyJobs;
+
+    @Before
+    public void setUp() {
+        clientSettings = new ClientSettings();
+        clientSettings.getClients().put( "client1", new ClientSettings.ApplicationClient() );
+        clientSettings.getClients().put( "client2", new ClientSettings.ApplicationClient() );
+
+        applicationSettings = new ApplicationSettings();
+        runtimeEstimator = new RuntimeEstimator();
+
+        readyJobs = new ArrayList<>();
+        scheduler = new FairShareJobScheduler( clientSettings, applicationSettings, runtimeEstimator );
+        scheduler.setReadyListener( readyJobs::add );
+    }
+
+    private static CCRSJob job( String clientId, String userId, String jobId ) {
+        return CCRSJob.builder().clientId( clientId ).userId( userId ).jobId( jobId ).build();
+    }
+
+    private static CCRSJob job( String jobId, int length ) {
+        StringBuilder fasta = new StringBuilder( ">" ).append( jobId ).append( '\n' );
+        for ( int i = 0; i < length; i++ ) {
+            fasta.append( 'M' );
+        }
+        return CCRSJob.builder().clientId( "client1" ).userId( "user1" ).jobId( jobId )
+                .inputFASTAContent( fasta.toString() ).build();
+    }
+
+    /**
+     * About a millisecond per residue.
+     */
+    private void trainEstimator() {
+        for ( int length = 100; length <= 1000; length += 100 ) {
+            runtimeEstimator.record( length, length );
+        }
+    }
+
+    private void runAll() {
+        CCRSJob job;
+        while ( ( job = scheduler.next() ) != null ) {
+            scheduler.release( job );
+        }
+    }
+
+    @Test
+    public void givenDefaultLimits_whenSubmit_thenPromoteUntilLimitsReached() {
+        // processLimit = 2, userClientLimit = 1
+        CCRSJob j1 = job( "client1", "user1", "1" );
+        CCRSJob j2 = job( "client1", "user1", "2" );
+        CCRSJob j3 = job( "client1", "user1", "3" );
+        CCRSJob j4 = job( "client1", "user1", "4" );
+
+        assertThat( scheduler.submit( j1 ) ).isTrue();
+        assertThat( scheduler.submit( j2 ) ).isTrue();
+        assertThat( scheduler.submit( j3 ) ).isTrue();
+        assertThat( scheduler.submit( j4 ) ).isTrue();
+
+        assertThat( readyJobs ).containsExactly( j1, j2 );
+        assertThat( j3.getStatus() ).isEqualTo( "Queued..." );
+        assertThat( j4.getStatus() ).isEqualTo( "Pending..." );
+    }
+
+    @Test
+    public void givenUserQueueFull_whenSubmit_thenReject() {
+        ClientSettings.ApplicationClient client = clientSettings.getClients().get( "client1" );
+        client.setUserJobLimit( 1 );
+        client.setUserClientLimit( 1 );
+        client.setProcessLimit( 1 );
+        client.setJobLimit( 1 );
+
+        assertThat( scheduler.submit( job( "client1", "user1", "1" ) ) ).isTrue(); // process queue
+        assertThat( scheduler.submit( job( "client1", "user1", "2" ) ) ).isTrue(); // client queue
+        assertThat( scheduler.submit( job( "client1", "user1", "3" ) ) ).isTrue(); // user queue
+        assertThat( scheduler.submit( job( "client1", "user1", "4" ) ) ).isFalse();
+    }
+
+    @Test
+    public void givenJobReleased_whenNext_thenPromoteNextJob() {
+        clientSettings.getClients().get( "client1" ).setProcessLimit( 1 );
+        CCRSJob j1 = job( "client1", "user1", "1" );
+        CCRSJob j2 = job( "client1", "user1", "2" );
+        scheduler.submit( j1 );
+        scheduler.submit( j2 );
+
+        assertThat( scheduler.next() ).isEqualTo( j1 );
+        assertThat( scheduler.next() ).isNull();
+
+        scheduler.release( j1 );
+        assertThat( readyJobs ).containsExactly( j1, j2 );
+        assertThat( scheduler.next() ).isEqualTo( j2 );
+    }
+
+    @Test
+    public void givenManyUsers_whenPromote_thenServeUsersRoundRobin() {
+        ClientSettings.ApplicationClient client = clientSettings.getClients().get( "client1" );
+        client.setProcessLimit( 1 );
+        client.setUserClientLimit( 2 );
+
+        CCRSJob a1 = job( "client1", "userA", "a1" );
+        CCRSJob a2 = job( "client1", "userA", "a2" );
+        CCRSJob a3 = job( "client1", "userA", "a3" );
+        CCRSJob b1 = job( "client1", "userB", "b1" );
+        scheduler.submit( a1 );
+        scheduler.submit( a2 );
+        scheduler.submit( a3 );
+        scheduler.submit( b1 );
+
+        scheduler.release( scheduler.next() );
+        scheduler.release( scheduler.next() );
+        scheduler.release( scheduler.next() );
+
+        assertThat( readyJobs ).containsExactly( a1, a2, b1, a3 );
+    }
+
+    @Test
+    public void givenWeightedClients_whenNext_thenDispatchByWeight() {
+        clientSettings.getClients().get( "client1" ).setProcessLimit( 10 );
+        clientSettings.getClients().get( "client1" ).setUserClientLimit( 10 );
+        clientSettings.getClients().get( "client1" ).setWeight( 2 );
+        clientSettings.getClients().get( "client2" ).setProcessLimit( 10 );
+        clientSettings.getClients().get( "client2" ).setUserClientLimit( 10 );
+
+        for ( int i = 0; i < 4; i++ ) {
+            scheduler.submit( job( "client1", "user", "1-" + i ) );
+            scheduler.submit( job( "client2", "user", "2-" + i ) );
+        }
+
+        List<String> order = new ArrayList<>();
+        CCRSJob job;
+        while ( ( job = scheduler.next() ) != null ) {
+            order.add( job.getClientId() );
+        }
+
+        assertThat( order ).containsExactly( "client1", "client1", "client2", "client1", "client1", "client2",
+                "client2", "client2" );
+    }
+
+    @Test
+    public void givenWaitingJob_whenCancel_thenFillGap() {
+        clientSettings.getClients().get( "client1" ).setProcessLimit( 1 );
+        CCRSJob j1 = job( "client1", "user1", "1" );
+        CCRSJob j2 = job( "client1", "user1", "2" );
+        scheduler.submit( j1 );
+        scheduler.submit( j2 );
+
+        assertThat( scheduler.cancel( j1 ) ).isTrue();
+        assertThat( scheduler.cancel( j1 ) ).isFalse();
+        assertThat( scheduler.next() ).isEqualTo( j2 );
+    }
+
+    @Test
+    public void givenManyQueuedJobs_whenCancelAll_thenRemoveOnlyUsersJobs() {
+        clientSettings.getClients().get( "client1" ).setUserJobLimit( 20000 );
+        clientSettings.getClients().get( "client1" ).setProcessLimit( 1 );
+        for ( int i = 0; i < 10000; i++ ) {
+            scheduler.submit( job( "client1", "user1", "1-" + i ) );
+        }
+        CCRSJob other = job( "client1", "user2", "2-0" );
+        scheduler.submit( other );
+
+        assertThat( scheduler.cancelAll( "client1", "user1" ) ).hasSize( 10000 );
+        assertThat( scheduler.next() ).isEqualTo( other );
+        assertThat( scheduler.next() ).isNull();
+    }
+
+    @Test
+    public void givenJobsOfDifferentLengths_whenPromote_thenShortestFirst() {
+        trainEstimator();
+        // processLimit = 1, userClientLimit = 1: one job ready, one in the client queue, the rest in the user queue
+        clientSettings.getClients().get( "client1" ).setProcessLimit( 1 );
+        CCRSJob ready = job( "ready", 50 );
+        CCRSJob queued = job( "queued", 50 );
+        CCRSJob huge = job( "huge", 40000 );
+        CCRSJob small = job( "small", 30 );
+        CCRSJob medium = job( "medium", 500 );
+        scheduler.submit( ready );
+        scheduler.submit( queued );
+        scheduler.submit( huge );
+        scheduler.submit( small );
+        scheduler.submit( medium );
+
+        runAll();
+
+        assertThat( readyJobs ).containsExactly( ready, queued, small, medium, huge );
+    }
+
+    @Test
+    public void givenUntrainedEstimator_whenPromote_thenFifo() {
+        clientSettings.getClients().get( "client1" ).setProcessLimit( 1 );
+        CCRSJob ready = job( "ready", 50 );
+        CCRSJob queued = job( "queued", 50 );
+        CCRSJob huge = job( "huge", 40000 );
+        CCRSJob small = job( "small", 30 );
+        scheduler.submit( ready );
+        scheduler.submit( queued );
+        scheduler.submit( huge );
+        scheduler.submit( small );
+
+        runAll();
+
+        assertThat( readyJobs ).containsExactly( ready, queued, huge, small );
+    }
+
+    @Test
+    public void givenShortestJobFirstDisabled_whenPromote_thenFifo() {
+        trainEstimator();
+        applicationSettings.setShortestJobFirst( false );
+        clientSettings.getClients().get( "client1" ).setProcessLimit( 1 );
+        CCRSJob ready = job( "ready", 50 );
+        CCRSJob queued = job( "queued", 50 );
+        CCRSJob huge = job( "huge", 40000 );
+        CCRSJob small = job( "small", 30 );
+        scheduler.submit( ready );
+        scheduler.submit( queued );
+        scheduler.submit( huge );
+        scheduler.submit( small );
+
+        runAll();
+
+        assertThat( readyJobs ).containsExactly( ready, queued, huge, small );
+    }
+
+    @Test
+    public void givenLongJobHasWaited_whenPromote_thenAgedAheadOfNewShortJob() throws Exception {
+        // The long job is estimated at 1s and the short one at 10ms
+        trainEstimator();
+        applicationSettings.setShortestJobFirstAgingRate( 10 );
+        clientSettings.getClients().get( "client1" ).setProcessLimit( 1 );
+        CCRSJob ready = job( "ready", 50 );
+        CCRSJob queued = job( "queued", 50 );
+        CCRSJob old = job( "old", 1000 );
+        CCRSJob recent = job( "recent", 10 );
+        scheduler.submit( ready );
+        scheduler.submit( queued );
+        scheduler.submit( old );
+        // Makes up for 10 * 0.2 = 2s of estimated runtime
+        Thread.sleep( 200 );
+        scheduler.submit( recent );
+
+        runAll();
+
+        assertThat( readyJobs ).containsExactly( ready, queued, old, recent );
+    }
+}
@@ -0,0 +1,107 @@
+package com.jacobsonmt.ccrs.scheduling;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IndexedQueueTest {
+
+    @Test
+    public void whenOfferAndPoll_thenFifoOrder() {
+        IndexedQueue<String> queue = new IndexedQueue<>();
+        queue.offer( "a" );
+        queue.offer( "b" );
+        queue.offer( "c" );
+
+        assertThat( queue.poll() ).isEqualTo( "a" );
+        assertThat( queue.poll() ).isEqualTo( "b" );
+        assertThat( queue.poll() ).isEqualTo( "c" );
+        assertThat( queue.poll() ).isNull();
+        assertThat( queue ).isEmpty();
+    }
+
+    @Test
+    public void whenOfferDuplicate_thenIgnore() {
+        IndexedQueue<String> queue = new IndexedQueue<>();
+        assertThat( queue.offer( "a" ) ).isTrue();
+        assertThat( queue.offer( "a" ) ).isFalse();
+        assertThat( queue ).hasSize( 1 );
+    }
+
+    @Test
+    public void whenRemoveArbitrary_thenKeepOrder() {
+        IndexedQueue<String> queue = new IndexedQueue<>();
+        queue.offer( "a" );
+        queue.offer( "b" );
+        queue.offer( "c" );
+        queue.offer( "d" );
+
+        assertThat( queue.remove( "b" ) ).isTrue();
+        assertThat( queue.remove( "d" ) ).isTrue();
+        assertThat( queue.remove( "x" ) ).isFalse();
+        assertThat( queue.contains( "b" ) ).isFalse();
+        assertThat( queue ).containsExactly( "a", "c" );
+
+        queue.offer( "b" );
+        assertThat( queue ).containsExactly( "a", "c", "b" );
+    }
+
+    @Test
+    public void whenIteratorRemove_thenUnlink() {
+        IndexedQueue<String> queue = new IndexedQueue<>();
+        queue.offer( "a" );
+        queue.offer( "b" );
+        queue.offer( "c" );
+
+        for ( Iterator<String> it = queue.iterator(); it.hasNext(); ) {
+            if ( !it.next().equals( "b" ) ) {
+                it.remove();
+            }
+        }
+
+        assertThat( queue ).containsExactly( "b" );
+        assertThat( queue.peek() ).isEqualTo( "b" );
+    }
+
+    @Test
+    public void whenRemoveManyQueued_thenConstantComparisonsEach() {
+        IndexedQueue<Counted> queue = new IndexedQueue<>();
+        for ( int i = 0; i < 100000; i++ ) {
+            queue.offer( new Counted( i ) );
+        }
+
+        Counted.comparisons = 0;
+        for ( int i = 99999; i >= 0; i -= 2 ) {
+            // Equal but not the queued instance, so every match is compared
+            assertThat( queue.remove( new Counted( i ) ) ).isTrue();
+        }
+
+        assertThat( queue ).hasSize( 50000 );
+        assertThat( queue.peek().value ).isEqualTo( 0 );
+        // A scan of the queue would compare each removal against thousands of elements
+        assertThat( Counted.comparisons ).isLessThanOrEqualTo( 2 * 50000 );
+    }
+
+    private static final class Counted {
+        private static long comparisons;
+
+        private final int value;
+
+        private Counted( int value ) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            comparisons++;
+            return o instanceof Counted && ( (Counted) o ).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.jacobsonmt.ccrs.scheduling;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueuePositionTrackerTest {
+
+    @Test
+    public void whenIssue_thenPositionInArrivalOrder() {
+        QueuePositionTracker tracker = new QueuePositionTracker();
+        QueuePositionTracker.Ticket t1 = tracker.issue();
+        QueuePositionTracker.Ticket t2 = tracker.issue();
+        QueuePositionTracker.Ticket t3 = tracker.issue();
+
+        assertThat( t1.getPosition() ).isEqualTo( 1 );
+        assertThat( t2.getPosition() ).isEqualTo( 2 );
+        assertThat( t3.getPosition() ).isEqualTo( 3 );
+        assertThat( tracker.size() ).isEqualTo( 3 );
+    }
+
+    @Test
+    public void whenDepart_thenLaterTicketsMoveUp() {
+        QueuePositionTracker tracker = new QueuePositionTracker();
+        QueuePositionTracker.Ticket t1 = tracker.issue();
+        QueuePositionTracker.Ticket t2 = tracker.issue();
+        QueuePositionTracker.Ticket t3 = tracker.issue();
+
+        t2.depart();
+        assertThat( t1.getPosition() ).isEqualTo( 1 );
+        assertThat( t2.getPosition() ).isNull();
+        assertThat( t3.getPosition() ).isEqualTo( 2 );
+
+        t1.depart();
+        t1.depart();
+        assertThat( t3.getPosition() ).isEqualTo( 1 );
+        assertThat( tracker.size() ).isEqualTo( 1 );
+    }
+
+    @Test
+    public void givenLongRunningQueue_whenCompact_thenPositionsStayCorrect() {
+        QueuePositionTracker tracker = new QueuePositionTracker();
+        List<QueuePositionTracker.Ticket> waiting = new ArrayList<>();
+
+        // Oldest ticket never leaves so the window has to grow as well as slide
+        QueuePositionTracker.Ticket oldest = tracker.issue();
+        for ( int i = 0; i < 10000; i++ ) {
+            waiting.add( tracker.issue() );
+            if ( i % 3 != 0 ) {
+                waiting.remove( 0 ).depart();
+            }
+        }
+
+        assertThat( oldest.getPosition() ).isEqualTo( 1 );
+        for ( int i = 0; i < waiting.size(); i++ ) {
+            assertThat( waiting.get( i ).getPosition() ).isEqualTo( i + 2 );
+        }
+        assertThat( tracker.size() ).isEqualTo( waiting.size() + 1 );
+    }
+}
@@ -0,0 +1,81 @@
+package com.jacobsonmt.ccrs.scheduling;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResourceBudgetTest {
+
+    private ApplicationSettings applicationSettings;
+
+    private ResourceBudget budget;
+
+    @Before
+    public void setUp() {
+        applicationSettings = new ApplicationSettings();
+        applicationSettings.setMemoryBudgetMegabytes( 1000 );
+        applicationSettings.setJobMemoryMegabytes( 100 );
+        applicationSettings.setJobMemoryMegabytesPerResidue( 0.1 );
+        budget = new ResourceBudget( applicationSettings );
+    }
+
+    private static CCRSJob job( String jobId, int length ) {
+        StringBuilder fasta = new StringBuilder( ">" ).append( jobId ).append( '\n' );
+        for ( int i = 0; i < length; i++ ) {
+            fasta.append( 'M' );
+        }
+        return CCRSJob.builder().jobId( jobId ).inputFASTAContent( fasta.toString() ).build();
+    }
+
+    @Test
+    public void givenSmallJobs_whenReserve_thenPackUntilBudgetUsed() {
+        // 100MB + 0.1MB * 1000 = 200MB each
+        for ( int i = 0; i < 5; i++ ) {
+            assertThat( budget.tryReserve( job( "small" + i, 1000 ) ) ).isTrue();
+        }
+        CCRSJob extra = job( "extra", 1000 );
+        assertThat( budget.tryReserve( extra ) ).isFalse();
+
+        assertThat( budget.release( job( "small0", 1000 ) ) ).isTrue();
+        assertThat( budget.tryReserve( extra ) ).isTrue();
+        assertThat( budget.getStats().getReservedMegabytes() ).isEqualTo( 1000 );
+    }
+
+    @Test
+    public void givenJobLargerThanBudget_whenReserve_thenRunAlone() {
+        CCRSJob small = job( "small", 100 );
+        CCRSJob huge = job( "huge", 40000 );
+
+        assertThat( budget.tryReserve( small ) ).isTrue();
+        assertThat( budget.tryReserve( huge ) ).isFalse();
+
+        budget.release( small );
+        assertThat( budget.tryReserve( huge ) ).isTrue();
+        assertThat( budget.tryReserve( small ) ).isFalse();
+    }
+
+    @Test
+    public void givenMeasuredRuns_whenEstimate_thenUseFitWithHeadroom() {
+        applicationSettings.setJobMemoryHeadroom( 1.5 );
+        for ( int length = 100; length <= 2000; length += 100 ) {
+            // 1MB per residue
+            budget.record( length, length * 1024L );
+        }
+
+        assertThat( budget.estimateMegabytes( 400 ) ).isBetween( 595L, 605L );
+    }
+
+    @Test
+    public void givenCpuBudget_whenReserve_thenLimitJobs() {
+        applicationSettings.setMemoryBudgetMegabytes( 0 );
+        applicationSettings.setCpuBudget( 4 );
+        applicationSettings.setJobCpus( 2 );
+
+        assertThat( budget.tryReserve( job( "1", 10 ) ) ).isTrue();
+        assertThat( budget.tryReserve( job( "2", 10 ) ) ).isTrue();
+        assertThat( budget.tryReserve( job( "3", 10 ) ) ).isFalse();
+    }
+}
@@ -0,0 +1,34 @@
+package com.jacobsonmt.ccrs.scheduling;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class RuntimeEstimatorTest {
+
+    @Test
+    public void givenNoSamples_whenEstimate_thenProportionalToLength() {
+        RuntimeEstimator estimator = new RuntimeEstimator();
+
+        assertThat( estimator.estimateSeconds( 2000 ) ).isEqualTo( 2 * estimator.estimateSeconds( 1000 ), within( 1e-9 ) );
+        assertThat( estimator.getModel().getSamples() ).isEqualTo( 0 );
+        assertThat( estimator.isTrained() ).isFalse();
+    }
+
+    @Test
+    public void givenSamplesFromPowerLaw_whenEstimate_thenFitModel() {
+        RuntimeEstimator estimator = new RuntimeEstimator();
+        for ( int length = 50; length <= 5000; length += 50 ) {
+            estimator.record( length, Math.round( 2 * Math.pow( length, 1.5 ) ) );
+        }
+
+        RuntimeEstimator.Model model = estimator.getModel();
+        assertThat( model.getSamples() ).isEqualTo( 100 );
+        assertThat( model.isTrained() ).isTrue();
+        assertThat( model.getExponent() ).isEqualTo( 1.5, within( 0.01 ) );
+        assertThat( model.getCoefficient() ).isEqualTo( 0.002, within( 0.0002 ) );
+        assertThat( estimator.estimateSeconds( 10000 ) ).isEqualTo( 2000, within( 100.0 ) );
+        assertThat( model.getEstimates() ).containsKeys( 100, 1000, 10000 );
+    }
+}
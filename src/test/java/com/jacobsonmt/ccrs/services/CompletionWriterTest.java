@@ -0,0 +1,135 @@
+package com.jacobsonmt.ccrs.services;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import com.jacobsonmt.ccrs.repositories.JobRepository;
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompletionWriterTest {
+
+    private ApplicationSettings applicationSettings;
+
+    // Groups of job ids saved, in order
+    private final List<List<String>> groups = Collections.synchronizedList( new ArrayList<>() );
+
+    private CountDownLatch release = new CountDownLatch( 0 );
+
+    private JobRepository jobRepository;
+
+    @Before
+    public void setUp() {
+        applicationSettings = new ApplicationSettings();
+        applicationSettings.setPersistQueueSize( 100 );
+        applicationSettings.setPersistMaxGroup( 10 );
+        jobRepository = new RecordingRepository();
+    }
+
+    private static CCRSJob job( String jobId ) {
+        return CCRSJob.builder().jobId( jobId ).build();
+    }
+
+    @Test
+    public void givenJobsQueuedWhileSaving_whenWritten_thenSavedInGroupsBeforeFollowUp() throws Exception {
+        release = new CountDownLatch( 1 );
+        CompletionWriter writer = new CompletionWriter( applicationSettings, jobRepository );
+        List<String> followedUp = Collections.synchronizedList( new ArrayList<>() );
+
+        writer.submit( job( "0" ), true, () -> followedUp.add( "0" ) );
+        while ( groups.isEmpty() ) {
+            Thread.sleep( 1 );
+        }
+        // Writer is now blocked saving the first job
+        for ( int i = 1; i <= 12; i++ ) {
+            String id = String.valueOf( i );
+            writer.submit( job( id ), true, () -> followedUp.add( id ) );
+        }
+        writer.submit( job( "3" ), true, () -> followedUp.add( "3 again" ) );
+        release.countDown();
+        writer.close();
+
+        assertThat( groups ).hasSize( 3 );
+        assertThat( groups.get( 0 ) ).containsExactly( "0" );
+        assertThat( groups.get( 1 ) ).containsExactly( "1", "2", "3", "4", "5", "6", "7", "8", "9", "10" );
+        assertThat( groups.get( 2 ) ).containsExactly( "11", "12", "3" );
+        assertThat( followedUp ).hasSize( 14 ).startsWith( "0", "1" ).endsWith( "3 again" );
+    }
+
+    @Test
+    public void givenFailedJob_whenWritten_thenFollowedUpWithoutSaving() throws Exception {
+        CompletionWriter writer = new CompletionWriter( applicationSettings, jobRepository );
+        CountDownLatch followedUp = new CountDownLatch( 1 );
+
+        writer.submit( job( "1" ), false, followedUp::countDown );
+
+        assertThat( followedUp.await( 10, TimeUnit.SECONDS ) ).isTrue();
+        writer.close();
+        assertThat( groups ).isEmpty();
+    }
+
+    @Test
+    public void givenClosedWriter_whenSubmitted_thenWrittenOnCaller() {
+        CompletionWriter writer = new CompletionWriter( applicationSettings, jobRepository );
+        writer.close();
+        AtomicInteger followedUp = new AtomicInteger();
+
+        writer.submit( job( "1" ), true, followedUp::incrementAndGet );
+
+        assertThat( groups ).containsExactly( Collections.singletonList( "1" ) );
+        assertThat( followedUp.get() ).isEqualTo( 1 );
+    }
+
+    private final class RecordingRepository implements JobRepository {
+
+        @Override
+        public void persistJobs( Collection<CCRSJob> jobs ) {
+            List<String> ids = new ArrayList<>();
+            jobs.forEach( j -> ids.add( j.getJobId() ) );
+            groups.add( ids );
+            try {
+                release.await( 10, TimeUnit.SECONDS );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void persistJob( CCRSJob job ) {
+            persistJobs( Collections.singletonList( job ) );
+        }
+
+        @Override
+        public CCRSJob getById( String id ) {
+            return null;
+        }
+
+        @Override
+        public String getRawResultFileById( String id ) {
+            return null;
+        }
+
+        @Override
+        public Stream<CCRSJob> allJobsForClientAndUser( String clientId, String userId ) {
+            return Stream.empty();
+        }
+
+        @Override
+        public void delete( CCRSJob job ) {
+        }
+
+        @Override
+        public void cacheJob( CCRSJob job ) {
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.jacobsonmt.ccrs.services;
+
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConcurrencyControllerTest {
+
+    private ApplicationSettings applicationSettings;
+
+    private ThreadPoolExecutor executor;
+
+    private ConcurrencyController controller;
+
+    private final CountDownLatch done = new CountDownLatch( 1 );
+
+    private int queueDepth = 0;
+
+    @Before
+    public void setUp() {
+        applicationSettings = new ApplicationSettings();
+        applicationSettings.setMinConcurrentJobs( 1 );
+        applicationSettings.setMaxConcurrentJobs( 3 );
+        // Whatever the load of the machine running the tests
+        applicationSettings.setConcurrencyLoadFactor( Double.MAX_VALUE );
+        executor = new ThreadPoolExecutor( 2, 2, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>() );
+        controller = new ConcurrencyController( applicationSettings );
+        controller.attach( executor, () -> queueDepth );
+    }
+
+    @After
+    public void tearDown() {
+        done.countDown();
+        executor.shutdownNow();
+    }
+
+    private void busy() throws Exception {
+        while ( executor.getActiveCount() < executor.getMaximumPoolSize() ) {
+            executor.submit( () -> {
+                done.await();
+                return null;
+            } );
+            Thread.sleep( 50 );
+        }
+    }
+
+    @Test
+    public void givenAllWorkersBusyWithJobsWaiting_whenAdjust_thenIncreaseUpToMax() throws Exception {
+        busy();
+        queueDepth = 5;
+
+        controller.adjust();
+        assertThat( executor.getMaximumPoolSize() ).isEqualTo( 3 );
+        assertThat( executor.getCorePoolSize() ).isEqualTo( 3 );
+
+        busy();
+        controller.recordCompletion( 1000 );
+        controller.adjust();
+        assertThat( executor.getMaximumPoolSize() ).isEqualTo( 3 );
+    }
+
+    @Test
+    public void givenThroughputFellAfterIncrease_whenAdjust_thenDecrease() throws Exception {
+        applicationSettings.setMaxConcurrentJobs( 10 );
+        busy();
+        queueDepth = 5;
+        controller.recordCompletion( 1000000 );
+        controller.adjust();
+        assertThat( executor.getMaximumPoolSize() ).isEqualTo( 3 );
+
+        busy();
+        controller.adjust();
+
+        assertThat( executor.getMaximumPoolSize() ).isEqualTo( 2 );
+        assertThat( controller.getStats().getLastDecision() ).isEqualTo( "Throughput fell after increase" );
+    }
+
+    @Test
+    public void givenLoadStaysHigh_whenAdjustAgainSoon_thenCutOnlyOnce() {
+        applicationSettings.setMaxConcurrentJobs( 10 );
+        controller.setOverride( 8 );
+        controller.setOverride( null );
+        applicationSettings.setConcurrencyLoadFactor( 1 );
+        controller.loadAverage = () -> 1000;
+
+        controller.adjust();
+        assertThat( executor.getMaximumPoolSize() ).isEqualTo( 6 );
+
+        // The load average has not caught up with the cut yet
+        controller.adjust();
+        controller.adjust();
+        assertThat( executor.getMaximumPoolSize() ).isEqualTo( 6 );
+        assertThat( controller.getStats().getLastDecision() ).contains( "waiting for last cut" );
+    }
+
+    @Test
+    public void givenIdleWorkers_whenAdjust_thenKeepSize() {
+        queueDepth = 5;
+
+        controller.adjust();
+
+        assertThat( executor.getMaximumPoolSize() ).isEqualTo( 2 );
+    }
+
+    @Test
+    public void givenOverride_whenAdjust_thenKeepOverrideWithinRange() throws Exception {
+        controller.setOverride( 100 );
+        assertThat( executor.getMaximumPoolSize() ).isEqualTo( 3 );
+
+        controller.setOverride( 1 );
+        busy();
+        queueDepth = 5;
+        controller.adjust();
+        assertThat( executor.getMaximumPoolSize() ).isEqualTo( 1 );
+
+        controller.setOverride( null );
+        controller.adjust();
+        assertThat( executor.getMaximumPoolSize() ).isEqualTo( 2 );
+    }
+}
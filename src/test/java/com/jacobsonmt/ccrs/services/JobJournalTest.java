@@ -0,0 +1,159 @@
+package com.jacobsonmt.ccrs.services;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JobJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ApplicationSettings applicationSettings;
+
+    @Before
+    public void setUp() {
+        applicationSettings = new ApplicationSettings();
+        applicationSettings.setJournalEnabled( true );
+        applicationSettings.setJournalFile( folder.getRoot().toPath().resolve( "jobs.journal" ).toString() );
+        applicationSettings.setJournalCommitIntervalMillis( 60000 );
+    }
+
+    private static CCRSJob job( String jobId ) {
+        return CCRSJob.builder().jobId( jobId ).clientId( "client1" ).userId( "user1" ).label( "label" + jobId )
+                .inputFASTAContent( ">" + jobId + " OX=9606\nMQSGTHWRVLG\n" ).email( "test@example.com" ).build();
+    }
+
+    private static List<String> ids( List<JobJournal.RecoveredJob> jobs ) {
+        return jobs.stream().map( JobJournal.RecoveredJob::getJobId ).collect( Collectors.toList() );
+    }
+
+    @Test
+    public void givenUnfinishedJobs_whenRestart_thenRecoverRunningFirstInOriginalOrder() throws Exception {
+        JobJournal journal = new JobJournal( applicationSettings );
+        for ( String id : new String[]{"1", "2", "3", "4", "5"} ) {
+            journal.created( job( id ) );
+            journal.queued( job( id ) );
+        }
+        journal.promoted( job( "2" ) );
+        journal.promoted( job( "3" ) );
+        journal.started( job( "3" ) );
+        journal.completed( job( "1" ) );
+        journal.cancelled( job( "4" ) );
+        journal.close();
+
+        List<JobJournal.RecoveredJob> recovered = new JobJournal( applicationSettings ).recover();
+
+        assertThat( ids( recovered ) ).containsExactly( "3", "2", "5" );
+        JobJournal.RecoveredJob running = recovered.get( 0 );
+        assertThat( running.getState() ).isEqualTo( JobJournal.Event.STARTED );
+        assertThat( running.getClientId() ).isEqualTo( "client1" );
+        assertThat( running.getLabel() ).isEqualTo( "label3" );
+        assertThat( running.getEmail() ).isEqualTo( "test@example.com" );
+        assertThat( running.getInputFASTAContent() ).isEqualTo( ">3 OX=9606\nMQSGTHWRVLG\n" );
+    }
+
+    @Test
+    public void givenTornRecord_whenRestart_thenKeepEverythingBeforeIt() throws Exception {
+        JobJournal journal = new JobJournal( applicationSettings );
+        journal.created( job( "1" ) );
+        journal.created( job( "2" ) );
+        journal.close();
+
+        Path file = folder.getRoot().toPath().resolve( "jobs.journal" );
+        Files.write( file, new byte[]{0, 0, 1, 0, 7, 7}, StandardOpenOption.APPEND );
+
+        assertThat( ids( new JobJournal( applicationSettings ).recover() ) ).containsExactly( "1", "2" );
+    }
+
+    @Test
+    public void givenZeroFilledTail_whenRestart_thenKeepEverythingBeforeIt() throws Exception {
+        JobJournal journal = new JobJournal( applicationSettings );
+        journal.created( job( "1" ) );
+        journal.created( job( "2" ) );
+        journal.close();
+
+        Path file = folder.getRoot().toPath().resolve( "jobs.journal" );
+        Files.write( file, new byte[4096], StandardOpenOption.APPEND );
+
+        assertThat( ids( new JobJournal( applicationSettings ).recover() ) ).containsExactly( "1", "2" );
+    }
+
+    @Test
+    public void givenCorruptLength_whenRestart_thenKeepEverythingBeforeIt() throws Exception {
+        JobJournal journal = new JobJournal( applicationSettings );
+        journal.created( job( "1" ) );
+        journal.close();
+
+        Path file = folder.getRoot().toPath().resolve( "jobs.journal" );
+        Files.write( file, new byte[]{0x7f, -1, -1, -1, 0, 0, 0, 0, 1, 2, 3}, StandardOpenOption.APPEND );
+
+        assertThat( ids( new JobJournal( applicationSettings ).recover() ) ).containsExactly( "1" );
+    }
+
+    @Test
+    public void givenJournalPastThreshold_whenCommit_thenCompactToUnfinishedJobs() throws Exception {
+        applicationSettings.setJournalCompactBytes( 1024 );
+        JobJournal journal = new JobJournal( applicationSettings );
+        for ( int i = 0; i < 100; i++ ) {
+            journal.created( job( "done" + i ) );
+            journal.completed( job( "done" + i ) );
+        }
+        journal.created( job( "open" ) );
+        journal.commit();
+        Path file = folder.getRoot().toPath().resolve( "jobs.journal" );
+        assertThat( Files.size( file ) ).isGreaterThan( 1024 );
+
+        journal.queued( job( "open" ) );
+        journal.commit();
+        assertThat( Files.size( file ) ).isLessThan( 1024 );
+        journal.close();
+
+        assertThat( ids( new JobJournal( applicationSettings ).recover() ) ).containsExactly( "open" );
+    }
+
+    @Test
+    public void givenUnfinishedJobsPastThreshold_whenCommit_thenAppendUntilDoubled() throws Exception {
+        applicationSettings.setJournalCompactBytes( 1024 );
+        JobJournal journal = new JobJournal( applicationSettings );
+        for ( int i = 0; i < 30; i++ ) {
+            journal.created( job( Integer.toString( i ) ) );
+        }
+        journal.close();
+        // Rewritten with the unfinished jobs on startup
+        journal = new JobJournal( applicationSettings );
+        Path file = folder.getRoot().toPath().resolve( "jobs.journal" );
+        long live = Files.size( file );
+        assertThat( live ).isGreaterThan( 1024 );
+
+        // Nothing to write
+        journal.commit();
+        assertThat( Files.size( file ) ).isEqualTo( live );
+
+        // Recording the same state again only grows the file until it has doubled
+        long size;
+        int commits = 0;
+        do {
+            size = Files.size( file );
+            journal.queued( job( "0" ) );
+            journal.commit();
+            commits++;
+        } while ( Files.size( file ) > size );
+        assertThat( commits ).isGreaterThan( 1 );
+        assertThat( size ).isGreaterThan( 2 * live - 1024 );
+        journal.close();
+
+        assertThat( new JobJournal( applicationSettings ).recover() ).hasSize( 30 );
+    }
+}
@@ -0,0 +1,59 @@
+package com.jacobsonmt.ccrs.services;
+
+import com.jacobsonmt.ccrs.model.CCRSJob;
+import com.jacobsonmt.ccrs.settings.ApplicationSettings;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResultCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ApplicationSettings applicationSettings;
+
+    private Path jobsDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        jobsDirectory = folder.newFolder( "jobs" ).toPath();
+        Files.write( jobsDirectory.resolve( "command.sh" ), "#!/bin/sh\n".getBytes( StandardCharsets.UTF_8 ) );
+        Files.write( jobsDirectory.resolve( "worker-1.sh" ), "#!/bin/sh\n".getBytes( StandardCharsets.UTF_8 ) );
+        Files.write( jobsDirectory.resolve( "worker-2.sh" ), "#!/bin/sh\n".getBytes( StandardCharsets.UTF_8 ) );
+
+        applicationSettings = new ApplicationSettings();
+        applicationSettings.setResultCacheEnabled( true );
+        applicationSettings.setResultCacheDirectory( folder.newFolder( "result-cache" ).toString() );
+        applicationSettings.setJobsDirectory( jobsDirectory.toString() );
+        applicationSettings.setWorkerPoolEnabled( true );
+        applicationSettings.setWorkerCommand( "worker-1.sh" );
+    }
+
+    private CCRSJob job( String jobId ) throws Exception {
+        Path directory = Files.createDirectories( jobsDirectory.resolve( jobId ) );
+        Files.write( directory.resolve( "output.list" ), "OX\t9606\tHomo Sapiens\n".getBytes( StandardCharsets.UTF_8 ) );
+        return CCRSJob.builder().jobId( jobId ).jobsDirectory( directory ).command( "../command.sh" )
+                .outputCSVFilename( "output.list" ).inputFASTAContent( ">P1\nMQSGTHWRVLG\n" ).build();
+    }
+
+    @Test
+    public void givenWorkerCommandChanged_whenLookup_thenMiss() throws Exception {
+        ResultCache resultCache = new ResultCache( applicationSettings );
+        resultCache.store( job( "1" ) );
+        assertThat( resultCache.lookup( job( "2" ) ) ).isNotNull();
+
+        applicationSettings.setWorkerCommand( "worker-2.sh" );
+        assertThat( resultCache.lookup( job( "3" ) ) ).isNull();
+
+        applicationSettings.setWorkerPoolEnabled( false );
+        assertThat( resultCache.lookup( job( "4" ) ) ).isNull();
+    }
+}
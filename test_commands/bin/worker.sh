@@ -0,0 +1,19 @@
+#!/bin/sh
+# Stand-in for a warm tool worker, speaks the tab separated line protocol of WorkerPool:
+#   on start          -> READY
+#   PING              -> PONG
+#   RUN dir in out    -> DONE <exit code>
+here=$(cd "$(dirname "$0")" && pwd)
+tab=$(printf '\t')
+echo READY
+while IFS="$tab" read -r cmd dir input output; do
+    case "$cmd" in
+        PING)
+            echo PONG ;;
+        RUN)
+            cp "$here/../sample.result" "$dir/$output" > "$dir/stdout.log" 2> "$dir/stderr.log"
+            echo "DONE $?" ;;
+        *)
+            echo "ERROR unknown command: $cmd" ;;
+    esac
+done